@@ -0,0 +1,69 @@
+package com.rmi.auth;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Накладные расходы на вызов авторизатора на стороне сервера: прямой вызов,
+ * асинхронный адаптер, попадание в кэш {@link CachingAuthorizer} и полная проверка
+ * декодированного запроса, как при рукопожатии.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizerBenchmark {
+
+    private AuthData authData;
+    private HandshakeCodec.HandshakeRequest request;
+    private Authorizer authorizer;
+    private AsyncAuthorizer asyncAuthorizer;
+    private CachingAuthorizer cachingAuthorizer;
+
+    @Setup
+    public void setUp() {
+        authData = new AuthData("login", "password");
+        request = new HandshakeCodec.HandshakeRequest(0, authData.login, authData.password, null);
+        authorizer = new Authorizer() {
+
+            @Override
+            public boolean authorize(AuthData authData) {
+                return "login".equals(authData.login) && "password".equals(authData.password);
+            }
+        };
+        asyncAuthorizer = new AsyncAuthorizerAdapter(authorizer);
+        cachingAuthorizer = new CachingAuthorizer(authorizer, 1, 1, TimeUnit.HOURS, 1024);
+    }
+
+    @Benchmark
+    public boolean direct() {
+        return authorizer.authorize(authData);
+    }
+
+    @Benchmark
+    public CompletionStage<Boolean> asyncAdapter() {
+        return asyncAuthorizer.authorizeAsync(authData);
+    }
+
+    @Benchmark
+    public boolean cachingHit() {
+        return cachingAuthorizer.authorize(authData);
+    }
+
+    @Benchmark
+    public CompletionStage<HandshakeCodec.HandshakeResponse> decide() {
+        return ServerSideSocketAuthorizationImpl.decide(request, asyncAuthorizer, null, null);
+    }
+}
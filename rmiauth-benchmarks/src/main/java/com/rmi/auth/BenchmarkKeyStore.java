@@ -0,0 +1,52 @@
+package com.rmi.auth;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Временное хранилище ключей для тестов TLS. Создается утилитой <tt>keytool</tt>
+ * текущей JVM и используется одновременно как хранилище ключей и доверенных
+ * сертификатов через системные свойства <tt>javax.net.ssl.*</tt>.
+ */
+final class BenchmarkKeyStore {
+
+    private static final String PASSWORD = "benchmark";
+    ////
+    private static File keyStore;
+
+    private BenchmarkKeyStore() {
+    }
+
+    /**
+     * Создает хранилище, если оно еще не создано, и устанавливает его для
+     * SSL-контекста по умолчанию. Должен вызываться до первого использования TLS.
+     */
+    static synchronized void install() throws IOException, InterruptedException {
+        if (keyStore != null) {
+            return;
+        }
+
+        File file = File.createTempFile("rmiauth-benchmark", ".p12");
+        file.delete();
+        file.deleteOnExit();
+
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "rmiauth",
+                "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost", "-validity", "2",
+                "-storetype", "PKCS12", "-keystore", file.getPath(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        if (process.waitFor() != 0 || !file.isFile()) {
+            throw new IOException("keytool failed with exit code " + process.exitValue());
+        }
+
+        System.setProperty("javax.net.ssl.keyStore", file.getPath());
+        System.setProperty("javax.net.ssl.keyStorePassword", PASSWORD);
+        System.setProperty("javax.net.ssl.keyStoreType", "PKCS12");
+        System.setProperty("javax.net.ssl.trustStore", file.getPath());
+        System.setProperty("javax.net.ssl.trustStorePassword", PASSWORD);
+        System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+        keyStore = file;
+    }
+}
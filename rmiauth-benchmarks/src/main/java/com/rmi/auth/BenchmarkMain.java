@@ -0,0 +1,28 @@
+package com.rmi.auth;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Запуск тестов производительности с профилировщиком сборки мусора, который
+ * показывает интенсивность выделения памяти на операцию.<br>
+ * <br>
+ * Аргументы командной строки передаются JMH, например,
+ * <tt>java -jar target/benchmarks.jar HandshakeCodec -f 1</tt>.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,119 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Полное рукопожатие через loopback: установка соединения, TLS для <tt>ssl</tt>,
+ * обмен кадрами авторизации и закрытие. Сервер принимает соединения в отдельном
+ * потоке и закрывает их сразу после accept().<br>
+ * <br>
+ * Клиентские сокеты закрываются с <tt>SO_LINGER = 0</tt>, чтобы соединения не
+ * оставались в состоянии TIME_WAIT и не исчерпывали локальные порты.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+
+    private static final AuthData AUTH_DATA = new AuthData("login", "password");
+    ////
+    /** Транспорт: <tt>plain</tt> - {@link AuthRMIServerSocketFactory}, <tt>ssl</tt> - {@link AuthSslRMIServerSocketFactory}. */
+    @Param({"plain", "ssl"})
+    public String transport;
+    /** Аутентификация в пуле потоков вместо потока accept(). */
+    @Param({"false", "true"})
+    public boolean pipelined;
+    ////
+    private ServerSocket serverSocket;
+    private RMIClientSocketFactory clientFactory;
+    private ExecutorService handshakeExecutor;
+    private Thread acceptor;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Authorizer authorizer = new Authorizer() {
+
+            @Override
+            public boolean authorize(AuthData authData) {
+                return AUTH_DATA.login.equals(authData.login) && AUTH_DATA.password.equals(authData.password);
+            }
+        };
+        handshakeExecutor = pipelined ? Executors.newCachedThreadPool() : null;
+
+        if ("ssl".equals(transport)) {
+            BenchmarkKeyStore.install();
+            AuthSslRMIServerSocketFactory serverFactory = new AuthSslRMIServerSocketFactory(authorizer);
+            serverFactory.getConfig().setHandshakeExecutor(handshakeExecutor);
+            serverSocket = serverFactory.createServerSocket(0);
+            AuthSslRMIClientSocketFactory sslClientFactory = new AuthSslRMIClientSocketFactory();
+            sslClientFactory.setAuthData(AUTH_DATA);
+            clientFactory = sslClientFactory;
+        } else {
+            AuthRMIServerSocketFactory serverFactory = new AuthRMIServerSocketFactory(authorizer);
+            serverFactory.getConfig().setHandshakeExecutor(handshakeExecutor);
+            serverSocket = serverFactory.createServerSocket(0);
+            AuthRMIClientSocketFactory.setHostAuthData("localhost", AUTH_DATA);
+            clientFactory = new AuthRMIClientSocketFactory();
+        }
+        port = serverSocket.getLocalPort();
+
+        acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "benchmark acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        acceptor.join(1000);
+        if (handshakeExecutor != null) {
+            handshakeExecutor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void handshake() throws IOException {
+        Socket socket = clientFactory.createSocket("localhost", port);
+        socket.setSoLinger(true, 0);
+        socket.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                serverSocket.accept().close();
+            } catch (IOException e) {
+                // соединение закрыто клиентом во время рукопожатия или сокет закрыт
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.rmi.auth;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Стоимость кодирования и декодирования кадров аутентификации, включая получение
+ * буфера из пула и его обнуление при возврате.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeCodecBenchmark {
+
+    /** Длина билета возобновления сессии в запросе, 0 - без билета. */
+    @Param({"0", "64"})
+    public int ticketLength;
+    ////
+    private HandshakeCodec.HandshakeRequest request;
+    private ByteBuffer requestFrame;
+    private ByteBuffer responseFrame;
+    private byte[] password;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] ticket = ticketLength > 0 ? new byte[ticketLength] : null;
+        request = new HandshakeCodec.HandshakeRequest(HandshakeCodec.FLAG_SESSION_RESUMPTION,
+                "login", "password", ticket);
+
+        password = request.password.getBytes(HandshakeCodec.UTF8);
+
+        requestFrame = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        HandshakeCodec.encodeRequest(requestFrame, request);
+        requestFrame.flip();
+
+        responseFrame = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        HandshakeCodec.encodeResponse(responseFrame, SocketAuthorizationImpl.AUTH_SUCCEEDED, ticket);
+        responseFrame.flip();
+    }
+
+    @Benchmark
+    public int encodeRequest() throws Exception {
+        ByteBuffer buf = HandshakeBufferPool.acquire();
+        try {
+            HandshakeCodec.encodeRequest(buf, request);
+            return buf.position();
+        } finally {
+            HandshakeBufferPool.release(buf);
+        }
+    }
+
+    @Benchmark
+    public HandshakeCodec.HandshakeRequest decodeRequest() throws Exception {
+        return HandshakeCodec.decodeRequest(requestFrame.duplicate());
+    }
+
+    /** Декодирование для {@link RawAuthorizer}: без строк и копирования полей. */
+    @Benchmark
+    public boolean decodeRawRequest() throws Exception {
+        RawCredentials credentials = RawCredentials.local();
+        try {
+            HandshakeCodec.decodeRequest(requestFrame, credentials);
+            return credentials.passwordEquals(password);
+        } finally {
+            credentials.clear();
+        }
+    }
+
+    @Benchmark
+    public HandshakeCodec.HandshakeResponse decodeResponse() throws Exception {
+        return HandshakeCodec.decodeResponse(responseFrame.duplicate());
+    }
+}
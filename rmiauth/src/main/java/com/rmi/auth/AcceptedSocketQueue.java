@@ -0,0 +1,116 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Очередь авторизованных соединений, из которой их забирает accept() серверного
+ * сокета. Кроме сокетов в очередь передаются ошибки приема соединений.
+ */
+final class AcceptedSocketQueue {
+
+    /** Авторизованные сокеты или ошибки приема соединений. */
+    private final BlockingQueue<Object> ready = new LinkedBlockingQueue<Object>();
+    /** Закрыта ли очередь. */
+    private volatile boolean closed;
+    ////
+    private static final Logger log = Logger.getLogger(AcceptedSocketQueue.class.getName());
+
+    /**
+     * Возвращает очередной авторизованный сокет.
+     *
+     * @param timeout Время ожидания в миллисекундах, 0 - без ограничения.
+     *
+     * @return Авторизованный сокет.
+     *
+     * @throws IOException Если очередь закрыта, истекло время ожидания
+     *      или произошла ошибка приема соединения.
+     */
+    Socket take(int timeout) throws IOException {
+        Object next;
+        try {
+            if (timeout > 0) {
+                next = ready.poll(timeout, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    throw new SocketTimeoutException("Accept timed out");
+                }
+            } else {
+                next = ready.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketException("Accept interrupted");
+        }
+
+        if (next instanceof Socket) {
+            return (Socket) next;
+        }
+
+        IOException e = (IOException) next;
+        if (closed) {
+            // оставляем ошибку в очереди для остальных вызовов accept()
+            ready.offer(e);
+        }
+        throw e;
+    }
+
+    /**
+     * Добавляет авторизованный сокет. Если очередь закрыта, сокет закрывается.
+     */
+    void offer(Socket socket) {
+        ready.offer(socket);
+        if (closed) {
+            // очередь закрылась во время аутентификации
+            if (ready.remove(socket)) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Передает ошибку приема соединения в accept().
+     */
+    void fail(IOException e) {
+        ready.offer(e);
+    }
+
+    /**
+     * @return Закрыта ли очередь.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Закрывает очередь и все авторизованные, но еще не выданные сокеты.
+     * Последующие вызовы {@link #take(int)} завершаются ошибкой.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        for (Object next : ready) {
+            if (next instanceof Socket) {
+                closeQuietly((Socket) next);
+            }
+        }
+        ready.offer(new SocketException("Socket is closed"));
+    }
+
+    static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.log(Level.FINEST, "Failed to close socket", e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.rmi.auth;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Сокет, учитывающий трафик и время жизни соединения в счетчиках логина.
+ * Учитываются данные, передаваемые по сети, после ответа на запрос авторизации.
+ */
+final class AccountedSocket extends SocketWrap {
+
+    private final PrincipalAccounting.Counters counters;
+    /** Время открытия по {@link System#nanoTime()}. */
+    private final long openedAt = System.nanoTime();
+    /** Учтено ли закрытие. */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final InputStream in;
+    private final OutputStream out;
+
+    AccountedSocket(Socket sock, PrincipalAccounting.Counters counters) {
+        super(sock);
+
+        this.counters = counters;
+        counters.openConnections.increment();
+        counters.totalConnections.increment();
+
+        InputStream sockIn;
+        OutputStream sockOut;
+        try {
+            sockIn = sock.getInputStream();
+            sockOut = sock.getOutputStream();
+        } catch (IOException e) {
+            // сокет уже закрыт, ошибка будет получена при обращении к потокам
+            closed();
+            sockIn = null;
+            sockOut = null;
+        }
+        this.in = sockIn != null ? new CountingInputStream(sockIn) : null;
+        this.out = sockOut != null ? new CountingOutputStream(sockOut) : null;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return in != null ? in : sock.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return out != null ? out : sock.getOutputStream();
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            closed();
+        }
+    }
+
+    /**
+     * Учитывает закрытие соединения один раз.
+     */
+    private void closed() {
+        if (closed.compareAndSet(false, true)) {
+            counters.openConnections.decrement();
+            counters.connectionNanos.add(System.nanoTime() - openedAt);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AccountedSocket[" + sock + "]";
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                counters.bytesIn.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                counters.bytesIn.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) {
+                counters.bytesIn.add(skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                closed();
+            }
+        }
+    }
+
+    private final class CountingOutputStream extends FilterOutputStream {
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counters.bytesOut.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counters.bytesOut.add(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                closed();
+            }
+        }
+    }
+}
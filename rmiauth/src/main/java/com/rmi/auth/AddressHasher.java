@@ -0,0 +1,88 @@
+package com.rmi.auth;
+
+import java.net.InetAddress;
+import java.security.SecureRandom;
+
+/**
+ * Хэш адресов клиентов с ключом (SipHash-1-3). Ключ случаен для каждого экземпляра,
+ * поэтому клиент, выбирающий адрес источника, например в пределах своей сети
+ * IPv6, не может подобрать адрес с тем же хэшем, что у чужого адреса.
+ */
+final class AddressHasher {
+
+    private final long k0;
+    private final long k1;
+
+    AddressHasher() {
+        SecureRandom random = new SecureRandom();
+        this.k0 = random.nextLong();
+        this.k1 = random.nextLong();
+    }
+
+    /**
+     * @return Ненулевой 32-битный хэш адреса.
+     */
+    int hash(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        long v0 = k0 ^ 0x736F6D6570736575L;
+        long v1 = k1 ^ 0x646F72616E646F6DL;
+        long v2 = k0 ^ 0x6C7967656E657261L;
+        long v3 = k1 ^ 0x7465646279746573L;
+
+        // полные блоки по 8 байт, затем последний блок с длиной в старшем байте
+        for (int off = 0; off <= bytes.length; off += 8) {
+            long m = off + 8 <= bytes.length
+                    ? getLong(bytes, off, 8)
+                    : getLong(bytes, off, bytes.length - off) | (long) bytes.length << 56;
+            v3 ^= m;
+            v0 += v1;
+            v1 = Long.rotateLeft(v1, 13);
+            v1 ^= v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3;
+            v3 = Long.rotateLeft(v3, 16);
+            v3 ^= v2;
+            v0 += v3;
+            v3 = Long.rotateLeft(v3, 21);
+            v3 ^= v0;
+            v2 += v1;
+            v1 = Long.rotateLeft(v1, 17);
+            v1 ^= v2;
+            v2 = Long.rotateLeft(v2, 32);
+            v0 ^= m;
+        }
+
+        // три раунда финализации
+        v2 ^= 0xFF;
+        for (int i = 0; i < 3; i++) {
+            v0 += v1;
+            v1 = Long.rotateLeft(v1, 13);
+            v1 ^= v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3;
+            v3 = Long.rotateLeft(v3, 16);
+            v3 ^= v2;
+            v0 += v3;
+            v3 = Long.rotateLeft(v3, 21);
+            v3 ^= v0;
+            v2 += v1;
+            v1 = Long.rotateLeft(v1, 17);
+            v1 ^= v2;
+            v2 = Long.rotateLeft(v2, 32);
+        }
+        long h = v0 ^ v1 ^ v2 ^ v3;
+        int result = (int) (h ^ h >>> 32);
+        return result != 0 ? result : 1;
+    }
+
+    /**
+     * @return Число из {@code length} байт в порядке little-endian.
+     */
+    private static long getLong(byte[] b, int off, int length) {
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= (b[off + i] & 0xFFL) << (8 * i);
+        }
+        return result;
+    }
+}
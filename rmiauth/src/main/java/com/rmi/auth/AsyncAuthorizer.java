@@ -0,0 +1,23 @@
+package com.rmi.auth;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Асинхронный авторизатор. Подходит для проверки данных авторизации во внешней
+ * системе: поток рукопожатия не ожидает ответа, а обмен с клиентом завершается
+ * по завершении возвращенной стадии.
+ *
+ * @see AsyncAuthorizerAdapter
+ */
+public interface AsyncAuthorizer {
+
+    /**
+     * Начинает авторизацию. Метод не должен блокироваться.
+     *
+     * @param authData Данные авторизации.
+     *
+     * @return Стадия, завершающаяся значением true, если авторизация успешна,
+     *      false или ошибкой в противном случае.
+     */
+    CompletionStage<Boolean> authorizeAsync(AuthData authData);
+}
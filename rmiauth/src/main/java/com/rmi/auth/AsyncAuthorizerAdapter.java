@@ -0,0 +1,80 @@
+package com.rmi.auth;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Адаптер синхронного авторизатора к {@link AsyncAuthorizer}. Сериализуется,
+ * если сериализуемы авторизатор и пул потоков.
+ */
+public final class AsyncAuthorizerAdapter implements AsyncAuthorizer, Serializable {
+
+    /** Синхронный авторизатор. */
+    private final Authorizer authorizer;
+    /** Пул потоков авторизатора или null для вызова в вызывающем потоке. */
+    private final Executor executor;
+
+    /**
+     * Конструктор. Авторизатор вызывается в вызывающем потоке, возвращаемая
+     * стадия уже завершена.
+     *
+     * @param authorizer Синхронный авторизатор.
+     */
+    public AsyncAuthorizerAdapter(Authorizer authorizer) {
+        this(authorizer, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Синхронный авторизатор.
+     * @param executor Пул потоков, в котором вызывается авторизатор, или null
+     *      для вызова в вызывающем потоке.
+     */
+    public AsyncAuthorizerAdapter(Authorizer authorizer, Executor executor) {
+        if (authorizer == null) {
+            throw new NullPointerException("authorizer");
+        }
+
+        this.authorizer = authorizer;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletionStage<Boolean> authorizeAsync(final AuthData authData) {
+        if (executor == null) {
+            CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+            try {
+                result.complete(authorizer.authorize(authData));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        return CompletableFuture.supplyAsync(new Supplier<Boolean>() {
+
+            @Override
+            public Boolean get() {
+                return authorizer.authorize(authData);
+            }
+        }, executor);
+    }
+
+    /**
+     * @return Вызывается ли авторизатор в вызывающем потоке.
+     */
+    boolean isInline() {
+        return executor == null;
+    }
+
+    /**
+     * @return Синхронный авторизатор.
+     */
+    public Authorizer getAuthorizer() {
+        return authorizer;
+    }
+}
@@ -0,0 +1,62 @@
+package com.rmi.auth;
+
+/**
+ * Доступ реализаций удаленных объектов к участнику соединения, по которому
+ * выполняется текущий вызов. Транспорт RMI читает вызов и выполняет его в одном
+ * потоке, поэтому участник соединения связывается с потоком при каждом чтении
+ * из авторизованного сокета и доступен без повторной аутентификации.<br>
+ * <br>
+ * Для соединений TCP связывание логина включается
+ * {@link ServerSocketAuthConfig#setPrincipalContext(boolean)} настроек серверной
+ * фабрики, для соединений через сокет Unix
+ * {@link AuthUnixRMIServerSocketFactory} выполняет его всегда. Сокеты, которые
+ * серверные фабрики передают транспорту, при чтении связывают null, если
+ * связывание не включено, а при закрытии и ошибке чтения снимают связывание,
+ * поэтому поток общего пула транспорта не сохраняет участника предыдущего соединения.
+ * Сокеты серверных фабрик, не входящих в библиотеку, связывание не выполняют:
+ * вызов через такую фабрику в той же JVM может получить участника соединения,
+ * из которого поток пула читал ранее и которое еще не закрыто.<br>
+ * <br>
+ * Вне выполнения удаленного вызова значения не определены.
+ */
+public final class AuthContext {
+
+    /** Логин или учетные данные процесса соединения, из которого поток читал последним. */
+    private static final ThreadLocal<Object> current = new ThreadLocal<Object>();
+
+    private AuthContext() {
+    }
+
+    /**
+     * @return Логин, с которым авторизовано соединение текущего удаленного вызова,
+     *      или null, если соединение авторизовано иначе или связывание не включено.
+     */
+    public static String getLogin() {
+        Object principal = current.get();
+        return principal instanceof String ? (String) principal : null;
+    }
+
+    /**
+     * @return Учетные данные процесса клиента, если текущий удаленный вызов получен
+     *      через сокет Unix, иначе null.
+     */
+    public static PeerCredentials getPeerCredentials() {
+        Object principal = current.get();
+        return principal instanceof PeerCredentials ? (PeerCredentials) principal : null;
+    }
+
+    /**
+     * @param principal Логин, учетные данные процесса соединения или null, если
+     *      связывание для соединения не включено.
+     */
+    static void bind(Object principal) {
+        current.set(principal);
+    }
+
+    /**
+     * Снимает связывание с текущим потоком.
+     */
+    static void unbind() {
+        current.remove();
+    }
+}
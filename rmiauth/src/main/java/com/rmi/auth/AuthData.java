@@ -30,6 +30,23 @@ public class AuthData {
         this.password = password;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof AuthData)) {
+            return false;
+        }
+        AuthData other = (AuthData) obj;
+        return login.equals(other.login) && password.equals(other.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * login.hashCode() + password.hashCode();
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,94 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * Создает сокеты, которые авторизуют клиентов, проверяя логин и пароль.
+ * Данные авторизации читаются в неблокирующем режиме несколькими потоками
+ * селекторов, поэтому большое количество одновременных рукопожатий, в том числе
+ * медленных клиентов, не требует потока на каждое соединение. Совместима с
+ * {@link AuthRMIClientSocketFactory}.
+ *
+ * @see AuthRMIClientSocketFactory
+ */
+public class AuthNioRMIServerSocketFactory implements RMIServerSocketFactory, Serializable {
+
+    /** Авторизатор соединений. */
+    private final AsyncAuthorizer authorizer;
+    /** Количество потоков селекторов на серверный сокет. */
+    private final int selectorThreads;
+    /**
+     * Настройки серверной аутентификации. Не сериализуются: десериализованная
+     * фабрика создается с настройками по умолчанию.
+     */
+    private transient ServerSocketAuthConfig config = new ServerSocketAuthConfig();
+
+    /**
+     * Конструктор. Количество потоков селекторов равно количеству процессоров.
+     *
+     * @param authorizer Авторизатор соединений.
+     */
+    public AuthNioRMIServerSocketFactory(Authorizer authorizer) {
+        this(authorizer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Авторизатор соединений.
+     * @param selectorThreads Количество потоков селекторов на серверный сокет.
+     */
+    public AuthNioRMIServerSocketFactory(Authorizer authorizer, int selectorThreads) {
+        this(new AsyncAuthorizerAdapter(authorizer), selectorThreads);
+    }
+
+    /**
+     * Конструктор. Количество потоков селекторов равно количеству процессоров.
+     *
+     * @param authorizer Асинхронный авторизатор соединений.
+     */
+    public AuthNioRMIServerSocketFactory(AsyncAuthorizer authorizer) {
+        this(authorizer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Асинхронный авторизатор соединений.
+     * @param selectorThreads Количество потоков селекторов на серверный сокет.
+     */
+    public AuthNioRMIServerSocketFactory(AsyncAuthorizer authorizer, int selectorThreads) {
+        super();
+
+        if (authorizer == null) {
+            throw new NullPointerException("authorizer");
+        }
+        if (selectorThreads <= 0) {
+            throw new IllegalArgumentException("selectorThreads = " + selectorThreads);
+        }
+        this.authorizer = authorizer;
+        this.selectorThreads = selectorThreads;
+    }
+
+    /**
+     * @return Настройки серверной аутентификации фабрики.
+     */
+    public ServerSocketAuthConfig getConfig() {
+        return config;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        config = new ServerSocketAuthConfig();
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new NioServerSocketAuthWrap(port, authorizer, config, selectorThreads);
+    }
+
+}
@@ -1,14 +1,25 @@
 package com.rmi.auth;
 
 import java.io.IOException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.net.Socket;
 import java.rmi.server.RMIClientSocketFactory;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
 
 /**
- * Создает сокеты, которые авторизуются на сервере, отправляя логин и пароль.
+ * Создает сокеты, которые авторизуются на сервере, отправляя логин и пароль.<br>
+ * <br>
+ * Фабрики с одинаковыми режимами равны, а при десериализации заменяются одним
+ * экземпляром, поэтому заглушки одного сервера используют общий кэш уже
+ * авторизованных соединений транспорта RMI.
  *
  * @author Sergey Ponomarev (sergey.ponomarev@vistar.su)
  *
@@ -16,9 +27,39 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class AuthRMIClientSocketFactory implements RMIClientSocketFactory, Serializable {
 
-    /** Данные авторизации клиента для хоста. */
-    private static final Map<String, AuthData> hostAuthData
-            = new ConcurrentHashMap<String, AuthData> ();
+    private static final long serialVersionUID = -1018363998150814549L;
+    /** Данные авторизации клиента для хостов. */
+    private static final CredentialResolver hostAuthData = new CredentialResolver();
+    /** Настройки пула заранее авторизованных соединений для хоста. */
+    private static final Map<String, WarmPoolConfig> hostWarmPools
+            = new ConcurrentHashMap<String, WarmPoolConfig>();
+    /** Пулы заранее авторизованных соединений по адресу сервера и режимам фабрики. */
+    private static final ConcurrentMap<String, WarmSocketPool> warmPools
+            = new ConcurrentHashMap<String, WarmSocketPool>();
+    /** Время простоя соединения в пуле по умолчанию, мс. */
+    public static final long DEFAULT_WARM_POOL_MAX_IDLE = 30000;
+    /** Десериализованные фабрики. */
+    private static final WeakInterner<AuthRMIClientSocketFactory> interned
+            = new WeakInterner<AuthRMIClientSocketFactory>();
+    /**
+     * Настройки сжатия данных клиента для фабрик с режимом {@link ClientAuthOption#COMPRESSION},
+     * в том числе {@link AuthSslRMIClientSocketFactory}.
+     */
+    private static volatile CompressionSettings compression = CompressionSettings.DEFAULT;
+    ////
+    /** Дополнительные режимы аутентификации. */
+    private final Set<ClientAuthOption> options;
+
+    /**
+     * Конструктор.
+     *
+     * @param options Дополнительные режимы аутентификации.
+     */
+    public AuthRMIClientSocketFactory(ClientAuthOption... options) {
+        Set<ClientAuthOption> set = EnumSet.noneOf(ClientAuthOption.class);
+        Collections.addAll(set, options);
+        this.options = set;
+    }
 
     /**
      * @param host Хост.
@@ -32,19 +73,263 @@ public class AuthRMIClientSocketFactory implements RMIClientSocketFactory, Seria
             throw new NullPointerException("authData");
         }
 
-        AuthRMIClientSocketFactory.hostAuthData.put(host, authData);
+        AuthRMIClientSocketFactory.hostAuthData.putHost(host, authData);
+    }
+
+    /**
+     * Удаляет данные авторизации, установленные для хоста.
+     *
+     * @param host Хост.
+     */
+    static void removeHostAuthData(String host) {
+        AuthRMIClientSocketFactory.hostAuthData.removeHost(host);
+    }
+
+    /**
+     * Устанавливает данные авторизации для группы хостов. Шаблон может быть:
+     * <ul>
+     * <li>доменом с подстановкой: <tt>*.example.com</tt> - любой хост внутри домена;</li>
+     * <li>диапазоном адресов CIDR: <tt>10.0.0.0/8</tt>, <tt>fd00::/8</tt>;</li>
+     * <li>хостом или IP-адресом, как в {@link #setHostAuthData(String, AuthData)}.</li>
+     * </ul>
+     * Данные, установленные для хоста, приоритетнее подстановки, а подстановка -
+     * диапазона; из нескольких подходящих подстановок или диапазонов выбирается
+     * наиболее точный. Для поиска по диапазонам имя хоста разрешается в адреса.
+     *
+     * @param pattern Шаблон.
+     * @param authData Данные авторизации клиента.
+     *
+     * @throws IllegalArgumentException Если шаблон некорректен.
+     */
+    public static void setHostPatternAuthData(String pattern, AuthData authData) {
+        AuthRMIClientSocketFactory.hostAuthData.put(pattern, authData);
+    }
+
+    /**
+     * Включает пул заранее установленных и авторизованных соединений для хоста.
+     * Пул создается для каждого порта хоста при первом соединении с ним и
+     * пополняется в фоновом потоке, поэтому {@link #createSocket(String, int)}
+     * возвращает готовое соединение без установки соединения и авторизации.
+     * Соединения, простаивающие дольше {@link #DEFAULT_WARM_POOL_MAX_IDLE}, заменяются.
+     *
+     * @param host Хост.
+     * @param poolSize Размер пула, 0 - пул отключен.
+     */
+    public static void setHostWarmPool(String host, int poolSize) {
+        setHostWarmPool(host, poolSize, DEFAULT_WARM_POOL_MAX_IDLE);
+    }
+
+    /**
+     * Включает пул заранее установленных и авторизованных соединений для хоста.
+     *
+     * @param host Хост.
+     * @param poolSize Размер пула, 0 - пул отключен.
+     * @param maxIdle Максимальное время простоя соединения в пуле, мс. Должно быть
+     *      меньше времени ожидания заголовка протокола сервером RMI
+     *      (<tt>sun.rmi.transport.tcp.handshakeTimeout</tt>, 60 секунд по умолчанию).
+     *
+     * @see #setHostWarmPool(String, int)
+     */
+    public static void setHostWarmPool(String host, int poolSize, long maxIdle) {
+        if (host == null) {
+            throw new NullPointerException("host");
+        }
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("poolSize = " + poolSize);
+        }
+        if (maxIdle <= 0) {
+            throw new IllegalArgumentException("maxIdle = " + maxIdle);
+        }
+
+        if (poolSize > 0) {
+            hostWarmPools.put(host, new WarmPoolConfig(poolSize, maxIdle));
+        } else {
+            hostWarmPools.remove(host);
+        }
+
+        // пулы будут созданы заново с новыми настройками
+        String prefix = host + ':';
+        for (Iterator<Map.Entry<String, WarmSocketPool>> it = warmPools.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, WarmSocketPool> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                it.remove();
+                entry.getValue().close();
+            }
+        }
+    }
+
+    /**
+     * Настраивает сжатие данных, отправляемых клиентом, для всех клиентских фабрик
+     * процесса с режимом {@link ClientAuthOption#COMPRESSION}, в том числе
+     * {@link AuthSslRMIClientSocketFactory}. Настройки общие для процесса, так как
+     * фабрики обычно десериализуются из заглушек сервера. По умолчанию используется
+     * уровень {@link Deflater#DEFAULT_COMPRESSION} и порог 1024 байта.
+     *
+     * @param level Уровень сжатия от {@link Deflater#BEST_SPEED} до
+     *      {@link Deflater#BEST_COMPRESSION} или {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param threshold Минимальная длина сжимаемого блока в байтах.
+     */
+    public static void setCompression(int level, int threshold) {
+        AuthRMIClientSocketFactory.compression = new CompressionSettings(level, threshold);
+    }
+
+    /**
+     * @return Настройки сжатия данных клиента.
+     */
+    static CompressionSettings getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return Статистика аутентификации соединений всех клиентских фабрик процесса,
+     *      в том числе {@link AuthSslRMIClientSocketFactory}.
+     */
+    public static ClientHandshakeStatistics getStatistics() {
+        return ClientHandshakeStatistics.SHARED;
     }
 
     @Override
     public Socket createSocket(String host, int port) throws IOException {
-        Socket socket = new Socket(host, port);
-
-        AuthData authData = hostAuthData.get(host);
+        AuthData authData = hostAuthData.resolve(host);
         if (authData == null) {
             throw new SocketAuthorizationFailedException("No authentification data for host " + host);
         }
-        new ClientSideSocketAuthorizationImpl(socket, authData).checkAuthorized();
 
-        return socket;
+        if (isEnabled(ClientAuthOption.MULTIPLEXING)) {
+            return openStream(host, port, authData);
+        }
+
+        WarmSocketPool pool = warmPool(host, port);
+        if (pool != null) {
+            Socket socket = pool.poll(authData);
+            if (socket != null) {
+                return socket;
+            }
+        }
+
+        // сжатие начинается после ответа сервера
+        return connect(host, port, authData, isEnabled(ClientAuthOption.OPTIMISTIC_AUTHORIZATION)
+                && !isEnabled(ClientAuthOption.COMPRESSION));
+    }
+
+    private Socket connect(String host, int port, AuthData authData, boolean optimistic) throws IOException {
+        ClientSideSocketAuthorizationImpl authorization = authorization(new Socket(host, port), host, port, authData);
+        if (optimistic) {
+            return authorization.authorizeOptimistically();
+        }
+        authorization.checkAuthorized();
+
+        return authorization.authorizedSocket();
+    }
+
+    private ClientSideSocketAuthorizationImpl authorization(Socket socket, String host, int port, AuthData authData) {
+        // фабрика без режимов получена от сервера, не поддерживающего кадры аутентификации
+        return new ClientSideSocketAuthorizationImpl(socket, authData,
+                isEnabled(ClientAuthOption.SESSION_RESUMPTION) ? SessionTicketCache.SHARED : null,
+                SessionTicketCache.endpoint(host, port), options == null,
+                isEnabled(ClientAuthOption.MULTIPLEXING),
+                isEnabled(ClientAuthOption.COMPRESSION) ? compression : null);
+    }
+
+    /**
+     * Открывает виртуальное соединение внутри общего авторизованного соединения с сервером.
+     */
+    private Socket openStream(final String host, final int port, final AuthData authData) throws IOException {
+        String key = SessionTicketCache.endpoint(host, port) + '/' + options;
+        return MultiplexedConnections.SHARED.open(key, authData, new MultiplexedConnections.Connector() {
+
+            @Override
+            public ClientSideSocketAuthorizationImpl connect() throws IOException {
+                ClientSideSocketAuthorizationImpl authorization = authorization(
+                        new Socket(host, port), host, port, authData);
+                authorization.checkAuthorized();
+                return authorization;
+            }
+        });
+    }
+
+    /**
+     * @return Пул соединений с сервером для режимов фабрики или null, если пул
+     *      для хоста не включен.
+     */
+    private WarmSocketPool warmPool(String host, int port) {
+        WarmPoolConfig config = hostWarmPools.get(host);
+        if (config == null) {
+            return null;
+        }
+
+        String key = SessionTicketCache.endpoint(host, port) + '/' + options;
+        WarmSocketPool pool = warmPools.get(key);
+        if (pool != null) {
+            return pool;
+        }
+
+        // соединения пула всегда авторизуются полностью, чтобы ошибки авторизации
+        // обнаруживались в фоновом потоке
+        pool = new WarmSocketPool(host, port, config.poolSize, config.maxIdle, new WarmSocketPool.Connector() {
+
+            @Override
+            public AuthData authData(String host) {
+                return hostAuthData.resolve(host);
+            }
+
+            @Override
+            public Socket connect(String host, int port, AuthData authData) throws IOException {
+                return AuthRMIClientSocketFactory.this.connect(host, port, authData, false);
+            }
+        });
+        WarmSocketPool existing = warmPools.putIfAbsent(key, pool);
+        if (existing != null) {
+            pool.close();
+            return existing;
+        }
+        return pool;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        AuthRMIClientSocketFactory other = (AuthRMIClientSocketFactory) obj;
+        return options == null ? other.options == null : options.equals(other.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * getClass().hashCode() + (options == null ? 0 : options.hashCode());
+    }
+
+    /**
+     * Заменяет десериализованную фабрику ранее полученной равной фабрикой.
+     */
+    protected Object readResolve() throws ObjectStreamException {
+        return interned.intern(this);
+    }
+
+    /**
+     * @param option Режим аутентификации.
+     *
+     * @return Включен ли режим. Фабрики, сериализованные до появления режимов,
+     *      работают без них и используют исходный формат запроса авторизации.
+     */
+    private boolean isEnabled(ClientAuthOption option) {
+        return options != null && options.contains(option);
+    }
+
+    /** Настройки пула соединений хоста. */
+    private static final class WarmPoolConfig {
+
+        final int poolSize;
+        /** Максимальное время простоя соединения, мс. */
+        final long maxIdle;
+
+        WarmPoolConfig(int poolSize, long maxIdle) {
+            this.poolSize = poolSize;
+            this.maxIdle = maxIdle;
+        }
     }
 }
@@ -1,6 +1,7 @@
 package com.rmi.auth;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.ServerSocket;
 import java.rmi.server.RMIServerSocketFactory;
@@ -15,7 +16,12 @@ import java.rmi.server.RMIServerSocketFactory;
 public class AuthRMIServerSocketFactory implements RMIServerSocketFactory, Serializable {
 
     /** Авторизатор соединений. */
-    private final Authorizer authorizer;
+    private final AsyncAuthorizer authorizer;
+    /**
+     * Настройки серверной аутентификации. Не сериализуются: десериализованная
+     * фабрика создается с настройками по умолчанию.
+     */
+    private transient ServerSocketAuthConfig config = new ServerSocketAuthConfig();
 
     /**
      * Конструктор.
@@ -23,6 +29,15 @@ public class AuthRMIServerSocketFactory implements RMIServerSocketFactory, Seria
      * @param authorizer Авторизатор соединений.
      */
     public AuthRMIServerSocketFactory(Authorizer authorizer) {
+        this(new AsyncAuthorizerAdapter(authorizer));
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Асинхронный авторизатор соединений.
+     */
+    public AuthRMIServerSocketFactory(AsyncAuthorizer authorizer) {
         super();
 
         if (authorizer == null) {
@@ -31,9 +46,21 @@ public class AuthRMIServerSocketFactory implements RMIServerSocketFactory, Seria
         this.authorizer = authorizer;
     }
 
+    /**
+     * @return Настройки серверной аутентификации фабрики.
+     */
+    public ServerSocketAuthConfig getConfig() {
+        return config;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        config = new ServerSocketAuthConfig();
+    }
+
     @Override
     public ServerSocket createServerSocket(int port) throws IOException {
-        return new ServerSocketAuthWrap(new ServerSocket(port), authorizer);
+        return new ServerSocketAuthWrap(new ServerSocket(port), authorizer, config);
     }
 
 }
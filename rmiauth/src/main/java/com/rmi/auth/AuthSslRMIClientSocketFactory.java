@@ -1,11 +1,27 @@
 package com.rmi.auth;
 
 import java.io.IOException;
+import java.io.ObjectStreamException;
 import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 import javax.rmi.ssl.SslRMIClientSocketFactory;
 
 /**
- * Создает сокеты, которые авторизуются на сервере, отправляя логин и пароль.
+ * Создает сокеты, которые авторизуются на сервере, отправляя логин и пароль.<br>
+ * <br>
+ * Фабрики с одинаковыми режимами и данными авторизации равны, а при десериализации
+ * заменяются одним экземпляром, поэтому заглушки одного сервера используют общий
+ * кэш уже авторизованных соединений транспорта RMI.<br>
+ * <br>
+ * Сокеты создаются с указанием хоста и порта сервера, поэтому повторные соединения
+ * с тем же сервером возобновляют TLS-сессию из клиентского кэша SSL-контекста.
  *
  * @author Sergey Ponomarev (sergey.ponomarev@vistar.su)
  *
@@ -13,8 +29,41 @@ import javax.rmi.ssl.SslRMIClientSocketFactory;
  */
 public class AuthSslRMIClientSocketFactory extends SslRMIClientSocketFactory {
 
+    private static final long serialVersionUID = 197804475617040980L;
+    /** Десериализованные фабрики. */
+    private static final WeakInterner<AuthSslRMIClientSocketFactory> interned
+            = new WeakInterner<AuthSslRMIClientSocketFactory>();
     /** Данные авторизации клиента. */
     private volatile AuthData authData;
+    /** Дополнительные режимы аутентификации. */
+    private final Set<ClientAuthOption> options;
+    /**
+     * SSL-контекст или null, если используется контекст по умолчанию.
+     * Не сериализуется: десериализованная фабрика использует контекст по умолчанию.
+     */
+    private final transient SSLContext context;
+
+    /**
+     * Конструктор.
+     *
+     * @param options Дополнительные режимы аутентификации.
+     */
+    public AuthSslRMIClientSocketFactory(ClientAuthOption... options) {
+        this(null, options);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param context SSL-контекст, null - контекст по умолчанию.
+     * @param options Дополнительные режимы аутентификации.
+     */
+    public AuthSslRMIClientSocketFactory(SSLContext context, ClientAuthOption... options) {
+        Set<ClientAuthOption> set = EnumSet.noneOf(ClientAuthOption.class);
+        Collections.addAll(set, options);
+        this.options = set;
+        this.context = context;
+    }
 
     /**
      * @param authData  Данные авторизации клиента.
@@ -27,10 +76,132 @@ public class AuthSslRMIClientSocketFactory extends SslRMIClientSocketFactory {
         this.authData = authData;
     }
 
+    /**
+     * Настраивает клиентский кэш TLS-сессий SSL-контекста фабрики. Сессии кэшируются
+     * по хосту и порту сервера.<br>
+     * <br>
+     * Настройки принадлежат SSL-контексту: для фабрики, созданной без контекста,
+     * изменяется контекст по умолчанию, общий для всей JVM.
+     *
+     * @param cacheSize Максимальное количество сессий, 0 - без ограничения.
+     * @param timeout Время жизни сессии в секундах, 0 - без ограничения.
+     */
+    public void setTlsSessionCache(int cacheSize, int timeout) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize = " + cacheSize);
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout = " + timeout);
+        }
+
+        SSLContext sslContext = context;
+        if (sslContext == null) {
+            try {
+                sslContext = SSLContext.getDefault();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Default SSL context is not available", e);
+            }
+        }
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        sessions.setSessionCacheSize(cacheSize);
+        sessions.setSessionTimeout(timeout);
+    }
+
     @Override
-    public Socket createSocket(String host, int port) throws IOException {
-        Socket socket = super.createSocket(host, port);
-        new ClientSideSocketAuthorizationImpl(socket, authData).checkAuthorized();
+    public Socket createSocket(final String host, final int port) throws IOException {
+        final AuthData authData = this.authData;
+        if (isEnabled(ClientAuthOption.MULTIPLEXING)) {
+            Object key = Arrays.asList("ssl", SessionTicketCache.endpoint(host, port), options, context);
+            return MultiplexedConnections.SHARED.open(key, authData, new MultiplexedConnections.Connector() {
+
+                @Override
+                public ClientSideSocketAuthorizationImpl connect() throws IOException {
+                    ClientSideSocketAuthorizationImpl authorization = authorization(host, port, authData);
+                    authorization.checkAuthorized();
+                    return authorization;
+                }
+            });
+        }
+
+        ClientSideSocketAuthorizationImpl authorization = authorization(host, port, authData);
+        // сжатие начинается после ответа сервера
+        if (isEnabled(ClientAuthOption.OPTIMISTIC_AUTHORIZATION) && !isEnabled(ClientAuthOption.COMPRESSION)) {
+            return authorization.authorizeOptimistically();
+        }
+        authorization.checkAuthorized();
+        return authorization.authorizedSocket();
+    }
+
+    private ClientSideSocketAuthorizationImpl authorization(String host, int port, AuthData authData)
+            throws IOException {
+        Socket socket = context != null ? createSslSocket(host, port) : super.createSocket(host, port);
+        // фабрика без режимов получена от сервера, не поддерживающего кадры аутентификации
+        return new ClientSideSocketAuthorizationImpl(socket, authData,
+                isEnabled(ClientAuthOption.SESSION_RESUMPTION) ? SessionTicketCache.SHARED : null,
+                SessionTicketCache.endpoint(host, port), options == null,
+                isEnabled(ClientAuthOption.MULTIPLEXING),
+                isEnabled(ClientAuthOption.COMPRESSION) ? AuthRMIClientSocketFactory.getCompression() : null);
+    }
+
+    /**
+     * Создает сокет из SSL-контекста фабрики с теми же системными свойствами, что и
+     * {@link SslRMIClientSocketFactory#createSocket(String, int)}.
+     */
+    private Socket createSslSocket(String host, int port) throws IOException {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(host, port);
+        try {
+            String cipherSuites = System.getProperty("javax.rmi.ssl.client.enabledCipherSuites");
+            if (cipherSuites != null) {
+                socket.setEnabledCipherSuites(cipherSuites.split(","));
+            }
+            String protocols = System.getProperty("javax.rmi.ssl.client.enabledProtocols");
+            if (protocols != null) {
+                socket.setEnabledProtocols(protocols.split(","));
+            }
+        } catch (IllegalArgumentException e) {
+            socket.close();
+            throw new IOException(e.getMessage(), e);
+        }
         return socket;
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!super.equals(obj)) {
+            return false;
+        }
+        AuthSslRMIClientSocketFactory other = (AuthSslRMIClientSocketFactory) obj;
+        AuthData otherAuthData = other.authData;
+        return context == other.context
+                && (options == null ? other.options == null : options.equals(other.options))
+                && (authData == null ? otherAuthData == null : authData.equals(otherAuthData));
+    }
+
+    /**
+     * Данные авторизации могут быть изменены, поэтому не участвуют в хэш-коде.
+     */
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + (options == null ? 0 : options.hashCode());
+    }
+
+    /**
+     * Заменяет десериализованную фабрику ранее полученной равной фабрикой.
+     */
+    protected Object readResolve() throws ObjectStreamException {
+        return interned.intern(this);
+    }
+
+    /**
+     * @param option Режим аутентификации.
+     *
+     * @return Включен ли режим. Фабрики, сериализованные до появления режимов,
+     *      работают без них и используют исходный формат запроса авторизации.
+     */
+    private boolean isEnabled(ClientAuthOption option) {
+        return options != null && options.contains(option);
+    }
 }
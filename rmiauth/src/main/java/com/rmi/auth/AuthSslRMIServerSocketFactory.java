@@ -2,6 +2,9 @@ package com.rmi.auth;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.security.NoSuchAlgorithmException;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.rmi.ssl.SslRMIServerSocketFactory;
 
 /**
@@ -14,7 +17,11 @@ import javax.rmi.ssl.SslRMIServerSocketFactory;
 public class AuthSslRMIServerSocketFactory extends SslRMIServerSocketFactory {
 
     /** Авторизатор соединений. */
-    private final Authorizer authorizer;
+    private final AsyncAuthorizer authorizer;
+    /** SSL-контекст или null, если используется контекст по умолчанию. */
+    private final SSLContext context;
+    /** Настройки серверной аутентификации. */
+    private final ServerSocketAuthConfig config = new ServerSocketAuthConfig();
 
     /**
      * Конструктор.
@@ -29,12 +36,71 @@ public class AuthSslRMIServerSocketFactory extends SslRMIServerSocketFactory {
      * @see SslRMIServerSocketFactory#SslRMIServerSocketFactory(java.lang.String[], java.lang.String[], boolean)
      */
     public AuthSslRMIServerSocketFactory(String[] enabledCipherSuites, String[] enabledProtocols, boolean needClientAuth, Authorizer authorizer) throws IllegalArgumentException {
+        this(enabledCipherSuites, enabledProtocols, needClientAuth, new AsyncAuthorizerAdapter(authorizer));
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param enabledCipherSuites
+     * @param enabledProtocols
+     * @param needClientAuth
+     * @param authorizer Асинхронный авторизатор соединений.
+     *
+     * @throws IllegalArgumentException
+     *
+     * @see SslRMIServerSocketFactory#SslRMIServerSocketFactory(java.lang.String[], java.lang.String[], boolean)
+     */
+    public AuthSslRMIServerSocketFactory(String[] enabledCipherSuites, String[] enabledProtocols, boolean needClientAuth, AsyncAuthorizer authorizer) throws IllegalArgumentException {
         super(enabledCipherSuites, enabledProtocols, needClientAuth);
 
         if (authorizer == null) {
             throw new NullPointerException("authorizer");
         }
         this.authorizer = authorizer;
+        this.context = null;
+    }
+
+    /**
+     * Конструктор. Кэш сессий контекста определяет, какие повторные соединения
+     * обойдутся без полного TLS-рукопожатия, см. {@link #setTlsSessionCache(int, int)}.
+     *
+     * @param context SSL-контекст, null - контекст по умолчанию.
+     * @param enabledCipherSuites
+     * @param enabledProtocols
+     * @param needClientAuth
+     * @param authorizer Авторизатор соединений.
+     *
+     * @throws IllegalArgumentException
+     *
+     * @see SslRMIServerSocketFactory#SslRMIServerSocketFactory(javax.net.ssl.SSLContext, java.lang.String[], java.lang.String[], boolean)
+     */
+    public AuthSslRMIServerSocketFactory(SSLContext context, String[] enabledCipherSuites, String[] enabledProtocols, boolean needClientAuth, Authorizer authorizer) throws IllegalArgumentException {
+        this(context, enabledCipherSuites, enabledProtocols, needClientAuth, new AsyncAuthorizerAdapter(authorizer));
+    }
+
+    /**
+     * Конструктор. Кэш сессий контекста определяет, какие повторные соединения
+     * обойдутся без полного TLS-рукопожатия, см. {@link #setTlsSessionCache(int, int)}.
+     *
+     * @param context SSL-контекст, null - контекст по умолчанию.
+     * @param enabledCipherSuites
+     * @param enabledProtocols
+     * @param needClientAuth
+     * @param authorizer Асинхронный авторизатор соединений.
+     *
+     * @throws IllegalArgumentException
+     *
+     * @see SslRMIServerSocketFactory#SslRMIServerSocketFactory(javax.net.ssl.SSLContext, java.lang.String[], java.lang.String[], boolean)
+     */
+    public AuthSslRMIServerSocketFactory(SSLContext context, String[] enabledCipherSuites, String[] enabledProtocols, boolean needClientAuth, AsyncAuthorizer authorizer) throws IllegalArgumentException {
+        super(context, enabledCipherSuites, enabledProtocols, needClientAuth);
+
+        if (authorizer == null) {
+            throw new NullPointerException("authorizer");
+        }
+        this.authorizer = authorizer;
+        this.context = context;
     }
 
     /**
@@ -43,17 +109,70 @@ public class AuthSslRMIServerSocketFactory extends SslRMIServerSocketFactory {
      * @param authorizer Авторизатор соединений.
      */
     public AuthSslRMIServerSocketFactory(Authorizer authorizer) {
+        this(new AsyncAuthorizerAdapter(authorizer));
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Асинхронный авторизатор соединений.
+     */
+    public AuthSslRMIServerSocketFactory(AsyncAuthorizer authorizer) {
         super();
 
         if (authorizer == null) {
             throw new NullPointerException("authorizer");
         }
         this.authorizer = authorizer;
+        this.context = null;
+    }
+
+    /**
+     * Настраивает серверный кэш TLS-сессий SSL-контекста фабрики. Клиент, сессия
+     * которого есть в кэше, переподключается с сокращенным рукопожатием без операций
+     * с закрытым ключом. Количество полных и сокращенных рукопожатий учитывается в
+     * {@link HandshakeStatistics}.<br>
+     * <br>
+     * Настройки принадлежат SSL-контексту: для фабрики, созданной без контекста,
+     * изменяется контекст по умолчанию, общий для всей JVM.
+     *
+     * @param cacheSize Максимальное количество сессий, 0 - без ограничения.
+     * @param timeout Время жизни сессии в секундах, 0 - без ограничения.
+     */
+    public void setTlsSessionCache(int cacheSize, int timeout) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize = " + cacheSize);
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout = " + timeout);
+        }
+
+        SSLSessionContext sessions = sslContext().getServerSessionContext();
+        sessions.setSessionCacheSize(cacheSize);
+        sessions.setSessionTimeout(timeout);
+    }
+
+    /**
+     * @return Настройки серверной аутентификации фабрики.
+     */
+    public ServerSocketAuthConfig getConfig() {
+        return config;
+    }
+
+    private SSLContext sslContext() {
+        if (context != null) {
+            return context;
+        }
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Default SSL context is not available", e);
+        }
     }
 
     @Override
     public ServerSocket createServerSocket(int port) throws IOException {
-        return new ServerSocketAuthWrap(super.createServerSocket(port), authorizer);
+        return new ServerSocketAuthWrap(super.createServerSocket(port), authorizer, config);
     }
 
 }
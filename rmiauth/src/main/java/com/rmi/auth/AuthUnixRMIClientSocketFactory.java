@@ -0,0 +1,129 @@
+package com.rmi.auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Создает сокеты, которые соединяются с сервером того же хоста через сокет Unix,
+ * созданный {@link AuthUnixRMIServerSocketFactory}. Такое соединение авторизуется
+ * сервером по учетным данным процесса, поэтому логин и пароль не передаются, а
+ * вызовы не проходят через стек TCP.<br>
+ * <br>
+ * С удаленным хостом, а также если файла сокета нет, платформа не поддерживает
+ * сокеты Unix или соединение через него не удалось, соединение устанавливается
+ * по TCP, как в {@link AuthRMIClientSocketFactory}.
+ *
+ * @see AuthUnixRMIServerSocketFactory
+ */
+public class AuthUnixRMIClientSocketFactory extends AuthRMIClientSocketFactory {
+
+    private static final long serialVersionUID = 4407452178320911565L;
+    /** Максимальное количество кэшированных результатов проверки хостов. */
+    private static final int MAX_CACHED = 256;
+    /** Время жизни кэшированного результата проверки хоста, нс. */
+    private static final long CACHE_TTL = TimeUnit.SECONDS.toNanos(60);
+    /** Результаты проверки хостов по имени хоста в порядке использования. */
+    private static final LinkedHashMap<String, Cached> localHosts = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+    ////
+    /** Каталог файлов сокетов сервера. */
+    private final String directory;
+    ////
+    private static final Logger log = Logger.getLogger(AuthUnixRMIClientSocketFactory.class.getName());
+
+    /**
+     * Конструктор.
+     *
+     * @param directory Каталог файлов сокетов сервера.
+     * @param options Дополнительные режимы аутентификации соединений TCP.
+     */
+    public AuthUnixRMIClientSocketFactory(File directory, ClientAuthOption... options) {
+        super(options);
+
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        this.directory = directory.getPath();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        if (UnixDomainSockets.isSupported() && isLocal(host)) {
+            File file = UnixDomainSockets.socketFile(new File(directory), port);
+            if (file.exists()) {
+                try {
+                    return new ChannelSocket(UnixDomainSockets.connect(file));
+                } catch (IOException e) {
+                    log.log(Level.FINE, "Failed to connect to Unix domain socket " + file + ", using TCP", e);
+                }
+            }
+        }
+        return super.createSocket(host, port);
+    }
+
+    /**
+     * @return Является ли хост адресом loopback или адресом интерфейса этого хоста.
+     */
+    private static boolean isLocal(String host) {
+        long now = System.nanoTime();
+        synchronized (localHosts) {
+            Cached cached = localHosts.get(host);
+            if (cached != null && now - cached.expiresAt < 0) {
+                return cached.local;
+            }
+        }
+
+        boolean local = resolveLocal(host);
+        synchronized (localHosts) {
+            localHosts.put(host, new Cached(local, now + CACHE_TTL));
+        }
+        return local;
+    }
+
+    private static boolean resolveLocal(String host) {
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            return address.isLoopbackAddress() || address.isAnyLocalAddress()
+                    || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to resolve host " + host, e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj) && directory.equals(((AuthUnixRMIClientSocketFactory) obj).directory);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + directory.hashCode();
+    }
+
+    /** Кэшированный результат проверки хоста. */
+    private static final class Cached {
+
+        final boolean local;
+        /** Момент устаревания, нс. */
+        final long expiresAt;
+
+        Cached(boolean local, long expiresAt) {
+            this.local = local;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
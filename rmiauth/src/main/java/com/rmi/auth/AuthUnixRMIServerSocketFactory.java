@@ -0,0 +1,99 @@
+package com.rmi.auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.net.ServerSocket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Создает серверные сокеты, которые принимают соединения клиентов того же хоста
+ * через сокет Unix и авторизуют их по учетным данным процесса клиента, без
+ * обмена логином и паролем. Соединения по TCP принимаются одновременно и
+ * авторизуются, как в {@link AuthRMIServerSocketFactory}.<br>
+ * <br>
+ * Файл сокета создается в каталоге под именем, производным от TCP-порта
+ * серверного сокета, поэтому {@link AuthUnixRMIClientSocketFactory} с тем же
+ * каталогом находит его по адресу из заглушки. Доступ к сокету ограничивается
+ * правами на каталог. Если платформа не поддерживает сокеты Unix или учетные
+ * данные процесса (Java до 16), создаются только сокеты TCP.<br>
+ * <br>
+ * Авторизатор локальных соединений не сериализуется: десериализованная фабрика
+ * создает только сокеты TCP.
+ *
+ * @see AuthUnixRMIClientSocketFactory
+ */
+public class AuthUnixRMIServerSocketFactory extends AuthRMIServerSocketFactory {
+
+    private static final long serialVersionUID = -6480213775094157263L;
+    /** Авторизатор локальных соединений или null в десериализованной фабрике. */
+    private final transient PeerCredentialsAuthorizer peerAuthorizer;
+    /** Каталог файлов сокетов. */
+    private final File directory;
+    ////
+    private static final Logger log = Logger.getLogger(AuthUnixRMIServerSocketFactory.class.getName());
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Авторизатор соединений TCP.
+     * @param peerAuthorizer Авторизатор локальных соединений.
+     * @param directory Каталог файлов сокетов.
+     */
+    public AuthUnixRMIServerSocketFactory(Authorizer authorizer, PeerCredentialsAuthorizer peerAuthorizer,
+            File directory) {
+        this(new AsyncAuthorizerAdapter(authorizer), peerAuthorizer, directory);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Асинхронный авторизатор соединений TCP.
+     * @param peerAuthorizer Авторизатор локальных соединений.
+     * @param directory Каталог файлов сокетов.
+     */
+    public AuthUnixRMIServerSocketFactory(AsyncAuthorizer authorizer, PeerCredentialsAuthorizer peerAuthorizer,
+            File directory) {
+        super(authorizer);
+
+        if (peerAuthorizer == null) {
+            throw new NullPointerException("peerAuthorizer");
+        }
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        this.peerAuthorizer = peerAuthorizer;
+        this.directory = directory;
+    }
+
+    /**
+     * @return Поддерживает ли платформа сокеты Unix с проверкой учетных данных процесса.
+     */
+    public static boolean isUnixDomainSupported() {
+        return UnixDomainSockets.isSupported();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (directory == null) {
+            throw new InvalidObjectException("directory");
+        }
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        ServerSocket tcp = super.createServerSocket(port);
+        if (peerAuthorizer == null) {
+            log.log(Level.FINE, "Deserialized factory has no peer credentials authorizer, accepting TCP connections only");
+            return tcp;
+        }
+        if (!UnixDomainSockets.isSupported()) {
+            log.log(Level.FINE, "Unix domain sockets are not supported, accepting TCP connections only");
+            return tcp;
+        }
+        return new UnixServerSocketWrap(tcp, directory, peerAuthorizer, getConfig().getStatistics());
+    }
+
+}
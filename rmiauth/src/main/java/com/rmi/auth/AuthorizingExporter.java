@@ -0,0 +1,241 @@
+package com.rmi.auth;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.AccessException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Экспортирует удаленные объекты с проверкой доступа к методам по логину
+ * соединения вызова из {@link AuthContext}. Серверная фабрика сокетов должна
+ * быть фабрикой этой библиотеки, связывающей логин с вызовом:
+ * {@link ServerSocketAuthConfig#setPrincipalContext(boolean)}. Сокеты таких
+ * фабрик связывают логин или null при каждом чтении, поэтому вызов по соединению
+ * без связанного логина отклоняется.<br>
+ * <br>
+ * При экспорте методам удаленных интерфейсов присваиваются номера, а правила
+ * {@link MethodAccessRules} преобразуются в битовые множества разрешенных методов
+ * для каждого логина, поэтому проверка вызова - поиск множества логина и
+ * проверка одного бита. Запрещенный вызов, в том числе без логина или с
+ * логином, отсутствующим в правилах, завершается {@link AccessException} без
+ * вызова реализации; клиент получает её причиной {@link java.rmi.ServerException}.<br>
+ * <br>
+ * Экспортируется прокси, поэтому реализация не должна быть экспортирована сама,
+ * как наследники {@link UnicastRemoteObject}, иначе она останется доступна без проверки.
+ */
+public final class AuthorizingExporter {
+
+    /** Экспортированные прокси по реализациям, удерживаются до отмены экспорта. */
+    private static final Map<Remote, Remote> exported = new IdentityHashMap<Remote, Remote>();
+    ////
+    private static final Logger log = Logger.getLogger(AuthorizingExporter.class.getName());
+
+    private AuthorizingExporter() {
+    }
+
+    /**
+     * Экспортирует реализацию с проверкой доступа к методам.
+     *
+     * @param impl Реализация удаленных интерфейсов.
+     * @param port Порт или 0 для анонимного порта.
+     * @param csf Клиентская фабрика сокетов.
+     * @param ssf Серверная фабрика сокетов, связывающая логин с вызовом.
+     * @param rules Правила доступа.
+     *
+     * @return Заглушка.
+     *
+     * @throws RemoteException Если объект не удалось экспортировать.
+     * @throws IllegalArgumentException Если реализация не реализует удаленных
+     *      интерфейсов, в правилах указан неизвестный метод или серверная фабрика
+     *      не связывает логин с вызовом.
+     */
+    public static Remote exportObject(Remote impl, int port, RMIClientSocketFactory csf, RMIServerSocketFactory ssf,
+            MethodAccessRules rules) throws RemoteException {
+        if (impl == null) {
+            throw new NullPointerException("impl");
+        }
+        if (rules == null) {
+            throw new NullPointerException("rules");
+        }
+        ServerSocketAuthConfig config = serverConfig(ssf);
+        if (config == null || !config.isPrincipalContext()) {
+            // иначе проверялся бы логин, оставшийся в потоке пула RMI
+            throw new IllegalArgumentException("ssf = " + ssf + " does not bind the login to calls");
+        }
+
+        Class<?>[] interfaces = remoteInterfaces(impl.getClass());
+        if (interfaces.length == 0) {
+            throw new IllegalArgumentException("impl = " + impl);
+        }
+        Remote proxy = (Remote) Proxy.newProxyInstance(impl.getClass().getClassLoader(), interfaces,
+                new AuthorizingHandler(impl, interfaces, rules));
+
+        synchronized (exported) {
+            if (exported.containsKey(impl)) {
+                throw new IllegalArgumentException("impl = " + impl + " is already exported");
+            }
+            Remote stub = UnicastRemoteObject.exportObject(proxy, port, csf, ssf);
+            exported.put(impl, proxy);
+            return stub;
+        }
+    }
+
+    /**
+     * Отменяет экспорт реализации.
+     *
+     * @param impl Реализация, экспортированная {@link #exportObject(Remote, int,
+     *      RMIClientSocketFactory, RMIServerSocketFactory, MethodAccessRules)}.
+     * @param force Отменять ли экспорт при выполняющихся вызовах.
+     *
+     * @return True, если экспорт отменен.
+     *
+     * @throws NoSuchObjectException Если реализация не экспортирована.
+     */
+    public static boolean unexportObject(Remote impl, boolean force) throws NoSuchObjectException {
+        synchronized (exported) {
+            Remote proxy = exported.get(impl);
+            if (proxy == null) {
+                throw new NoSuchObjectException("Object not exported: " + impl);
+            }
+            boolean unexported = UnicastRemoteObject.unexportObject(proxy, force);
+            if (unexported) {
+                exported.remove(impl);
+            }
+            return unexported;
+        }
+    }
+
+    /**
+     * @return Настройки серверной фабрики этой библиотеки или null для других фабрик.
+     */
+    private static ServerSocketAuthConfig serverConfig(RMIServerSocketFactory ssf) {
+        if (ssf instanceof AuthRMIServerSocketFactory) {
+            return ((AuthRMIServerSocketFactory) ssf).getConfig();
+        }
+        if (ssf instanceof AuthSslRMIServerSocketFactory) {
+            return ((AuthSslRMIServerSocketFactory) ssf).getConfig();
+        }
+        if (ssf instanceof AuthNioRMIServerSocketFactory) {
+            return ((AuthNioRMIServerSocketFactory) ssf).getConfig();
+        }
+        return null;
+    }
+
+    /**
+     * @return Удаленные интерфейсы класса и его предков.
+     */
+    private static Class<?>[] remoteInterfaces(Class<?> type) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                if (Remote.class.isAssignableFrom(i) && i != Remote.class) {
+                    interfaces.add(i);
+                }
+            }
+        }
+        return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+
+    /**
+     * Проверяет доступ и вызывает реализацию.
+     */
+    private static final class AuthorizingHandler implements InvocationHandler {
+
+        private final Remote impl;
+        /** Номера методов удаленных интерфейсов. */
+        private final Map<Method, Integer> ordinals = new HashMap<Method, Integer>();
+        /** Битовые множества разрешенных методов по логинам. */
+        private final Map<String, long[]> permissions;
+
+        AuthorizingHandler(Remote impl, Class<?>[] interfaces, MethodAccessRules rules) {
+            this.impl = impl;
+
+            // одинаковые методы разных интерфейсов получают один номер
+            Map<List<Object>, Integer> signatures = new HashMap<List<Object>, Integer>();
+            Map<String, List<Integer>> byName = new HashMap<String, List<Integer>>();
+            for (Class<?> i : interfaces) {
+                for (Method method : i.getMethods()) {
+                    List<Object> signature = new ArrayList<Object>();
+                    signature.add(method.getName());
+                    signature.addAll(Arrays.asList(method.getParameterTypes()));
+                    Integer ordinal = signatures.get(signature);
+                    if (ordinal == null) {
+                        ordinal = signatures.size();
+                        signatures.put(signature, ordinal);
+
+                        List<Integer> overloads = byName.get(method.getName());
+                        if (overloads == null) {
+                            overloads = new ArrayList<Integer>();
+                            byName.put(method.getName(), overloads);
+                        }
+                        overloads.add(ordinal);
+                    }
+                    ordinals.put(method, ordinal);
+                }
+            }
+
+            Map<String, int[]> names = new HashMap<String, int[]>();
+            for (Map.Entry<String, List<Integer>> entry : byName.entrySet()) {
+                int[] overloads = new int[entry.getValue().size()];
+                for (int j = 0; j < overloads.length; j++) {
+                    overloads[j] = entry.getValue().get(j);
+                }
+                names.put(entry.getKey(), overloads);
+            }
+            this.permissions = rules.compile(names, signatures.size());
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Integer ordinal = ordinals.get(method);
+            if (ordinal == null) {
+                // методы Object вызываются транспортом RMI локально
+                return invokeObjectMethod(proxy, method, args);
+            }
+
+            String login = AuthContext.getLogin();
+            long[] bits = login != null ? permissions.get(login) : null;
+            if (bits == null || (bits[ordinal >>> 6] & 1L << ordinal) == 0) {
+                log.log(Level.FINE, "Access denied to {0} for login {1}", new Object[] {method.getName(), login});
+                throw new AccessException("Access denied to " + method.getName() + " for login " + login);
+            }
+
+            try {
+                return method.invoke(impl, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("equals") && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode") && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString") && args == null) {
+                return "AuthorizingProxy[" + impl + "]";
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+    }
+}
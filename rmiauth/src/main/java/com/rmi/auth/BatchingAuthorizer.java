@@ -0,0 +1,209 @@
+package com.rmi.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Авторизатор, объединяющий одновременные запросы в пачки для {@link BulkAuthorizer}.
+ * Пачка передается на проверку, когда с момента поступления ее первого запроса
+ * истекло окно ожидания или когда она достигла максимального размера. Каждый
+ * вызывающий получает свой результат.<br>
+ * <br>
+ * Проверка пачки начинается в потоке, заполнившем пачку, или в общем потоке
+ * таймера пачек. Запросы ожидают окна, поэтому авторизатор асинхронный: потоки
+ * аутентификации серверных сокетов не блокируются на время ожидания.
+ */
+public class BatchingAuthorizer implements AsyncAuthorizer {
+
+    /** Таймер окон ожидания, общий для всех экземпляров. */
+    private static volatile ScheduledExecutorService flusher;
+    ////
+    /** Авторизатор пачек. */
+    private final BulkAuthorizer bulkAuthorizer;
+    /** Окно ожидания, нс. */
+    private final long window;
+    /** Максимальный размер пачки. */
+    private final int maxBatchSize;
+    /** Блокировка текущей пачки. */
+    private final Object lock = new Object();
+    /** Текущая пачка. */
+    private List<Request> batch;
+    /** Проверка текущей пачки по истечении окна. */
+    private ScheduledFuture<?> flushTask;
+    ////
+    private static final Logger log = Logger.getLogger(BatchingAuthorizer.class.getName());
+
+    /**
+     * Конструктор.
+     *
+     * @param bulkAuthorizer Авторизатор пачек.
+     * @param window Окно ожидания.
+     * @param unit Единица измерения окна.
+     * @param maxBatchSize Максимальный размер пачки.
+     */
+    public BatchingAuthorizer(BulkAuthorizer bulkAuthorizer, long window, TimeUnit unit, int maxBatchSize) {
+        if (bulkAuthorizer == null) {
+            throw new NullPointerException("bulkAuthorizer");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("window = " + window);
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize = " + maxBatchSize);
+        }
+
+        this.bulkAuthorizer = bulkAuthorizer;
+        this.window = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public CompletionStage<Boolean> authorizeAsync(AuthData authData) {
+        if (authData == null) {
+            throw new NullPointerException("authData");
+        }
+
+        Request request = new Request(authData);
+        List<Request> full = null;
+        synchronized (lock) {
+            if (batch == null) {
+                batch = new ArrayList<Request>(Math.min(maxBatchSize, 64));
+                if (maxBatchSize > 1) {
+                    flushTask = flusher().schedule(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    }, window, TimeUnit.NANOSECONDS);
+                }
+            }
+            batch.add(request);
+            if (batch.size() >= maxBatchSize) {
+                full = detach();
+            }
+        }
+
+        if (full != null) {
+            dispatch(full);
+        }
+        return request.result;
+    }
+
+    /**
+     * Немедленно передает на проверку текущую пачку.
+     */
+    public void flush() {
+        List<Request> detached;
+        synchronized (lock) {
+            detached = detach();
+        }
+        if (detached != null) {
+            dispatch(detached);
+        }
+    }
+
+    private List<Request> detach() {
+        List<Request> detached = batch;
+        batch = null;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        return detached;
+    }
+
+    private void dispatch(final List<Request> requests) {
+        List<AuthData> authData = new ArrayList<AuthData>(requests.size());
+        for (Request request : requests) {
+            authData.add(request.authData);
+        }
+
+        log.log(Level.FINEST, "Authorizing batch of {0} requests", requests.size());
+
+        CompletionStage<boolean[]> results;
+        try {
+            results = bulkAuthorizer.authorizeAll(authData);
+        } catch (RuntimeException e) {
+            fail(requests, e);
+            return;
+        }
+
+        results.whenComplete(new BiConsumer<boolean[], Throwable>() {
+
+            @Override
+            public void accept(boolean[] authorized, Throwable failure) {
+                if (failure != null) {
+                    fail(requests, failure);
+                    return;
+                }
+                if (authorized == null || authorized.length != requests.size()) {
+                    fail(requests, new IllegalStateException("Bulk authorizer returned "
+                            + (authorized == null ? "null" : authorized.length + " results")
+                            + " for batch of " + requests.size()));
+                    return;
+                }
+
+                for (int i = 0; i < authorized.length; i++) {
+                    requests.get(i).result.complete(authorized[i]);
+                }
+            }
+        });
+    }
+
+    private static void fail(List<Request> requests, Throwable failure) {
+        log.log(Level.WARNING, "Bulk authorization failed", failure);
+
+        for (Request request : requests) {
+            request.result.completeExceptionally(failure);
+        }
+    }
+
+    private static ScheduledExecutorService flusher() {
+        ScheduledExecutorService result = flusher;
+        if (result == null) {
+            synchronized (BatchingAuthorizer.class) {
+                result = flusher;
+                if (result == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "RMI auth batch flusher");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    // отмененные окна не должны накапливаться в очереди
+                    executor.setRemoveOnCancelPolicy(true);
+                    flusher = result = executor;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Запрос в пачке. */
+    private static final class Request {
+
+        final AuthData authData;
+        final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+        Request(AuthData authData) {
+            this.authData = authData;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.rmi.auth;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Авторизатор, проверяющий пачку данных авторизации одним обращением, например,
+ * к методу массовой проверки внешней системы.
+ *
+ * @see BatchingAuthorizer
+ */
+public interface BulkAuthorizer {
+
+    /**
+     * Начинает авторизацию пачки. Метод не должен надолго блокироваться.
+     *
+     * @param batch Данные авторизации.
+     *
+     * @return Стадия, завершающаяся массивом результатов той же длины, что и пачка:
+     *      элемент массива - результат авторизации соответствующего элемента пачки.
+     */
+    CompletionStage<boolean[]> authorizeAll(List<AuthData> batch);
+}
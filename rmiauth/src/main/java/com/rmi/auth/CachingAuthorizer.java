@@ -0,0 +1,259 @@
+package com.rmi.auth;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Авторизатор, кэширующий решения другого авторизатора. Положительные и отрицательные
+ * решения хранятся с разным сроком жизни, размер кэша ограничен, при переполнении
+ * вытесняются давно не использованные записи.<br>
+ * <br>
+ * Ключ записи - логин и хэш SHA-256 пароля с солью, уникальной для экземпляра;
+ * пароль в открытом виде не хранится. Одновременные запросы с одинаковым ключом,
+ * отсутствующим в кэше, объединяются в один вызов исходного авторизатора.
+ */
+public class CachingAuthorizer implements Authorizer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /** Длина соли в байтах. */
+    private static final int SALT_LENGTH = 16;
+    ////
+    /** Исходный авторизатор. */
+    private final Authorizer authorizer;
+    /** Срок жизни положительного решения, нс. */
+    private final long positiveTtl;
+    /** Срок жизни отрицательного решения, нс. */
+    private final long negativeTtl;
+    /** Соль хэша пароля. */
+    private final byte[] salt;
+    /** Кэш решений в порядке использования, доступ под блокировкой на самом объекте. */
+    private final LinkedHashMap<Key, Entry> cache;
+    /** Выполняющиеся вызовы исходного авторизатора. */
+    private final ConcurrentMap<Key, CompletableFuture<Boolean>> loading
+            = new ConcurrentHashMap<Key, CompletableFuture<Boolean>>();
+    /** Алгоритм хэширования для каждого потока. */
+    private final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    };
+
+    /**
+     * Конструктор.
+     *
+     * @param authorizer Исходный авторизатор.
+     * @param positiveTtl Срок жизни положительного решения, 0 - не кэшировать.
+     * @param negativeTtl Срок жизни отрицательного решения, 0 - не кэшировать.
+     * @param unit Единица измерения сроков.
+     * @param maxEntries Максимальное количество записей в кэше.
+     */
+    public CachingAuthorizer(Authorizer authorizer, long positiveTtl, long negativeTtl,
+            TimeUnit unit, final int maxEntries) {
+        if (authorizer == null) {
+            throw new NullPointerException("authorizer");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (positiveTtl < 0) {
+            throw new IllegalArgumentException("positiveTtl = " + positiveTtl);
+        }
+        if (negativeTtl < 0) {
+            throw new IllegalArgumentException("negativeTtl = " + negativeTtl);
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries = " + maxEntries);
+        }
+
+        this.authorizer = authorizer;
+        this.positiveTtl = unit.toNanos(positiveTtl);
+        this.negativeTtl = unit.toNanos(negativeTtl);
+        this.salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        this.cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+
+            // внутри LinkedHashMap имя Entry ссылается на унаследованный тип записи
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachingAuthorizer.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public boolean authorize(AuthData authData) {
+        Key key = new Key(authData.login, hash(authData.password));
+
+        Boolean cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Boolean> own = new CompletableFuture<Boolean>();
+        CompletableFuture<Boolean> inFlight = loading.putIfAbsent(key, own);
+        if (inFlight != null) {
+            // решение уже запрошено другим потоком
+            return await(inFlight);
+        }
+
+        try {
+            boolean result = authorizer.authorize(authData);
+            store(key, result);
+            own.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, own);
+        }
+    }
+
+    /**
+     * Удаляет из кэша все решения для логина, например, после смены пароля.
+     *
+     * @param login Логин.
+     */
+    public void invalidate(String login) {
+        if (login == null) {
+            throw new NullPointerException("login");
+        }
+
+        synchronized (cache) {
+            for (Iterator<Key> it = cache.keySet().iterator(); it.hasNext();) {
+                if (it.next().login.equals(login)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** Очищает кэш. */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private Boolean lookup(Key key) {
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt - System.nanoTime() <= 0) {
+                cache.remove(key);
+                return null;
+            }
+            return entry.authorized;
+        }
+    }
+
+    private void store(Key key, boolean authorized) {
+        long ttl = authorized ? positiveTtl : negativeTtl;
+        if (ttl == 0) {
+            return;
+        }
+
+        Entry entry = new Entry(authorized, System.nanoTime() + ttl);
+        synchronized (cache) {
+            cache.put(key, entry);
+        }
+    }
+
+    private byte[] hash(String password) {
+        MessageDigest md = digest.get();
+        md.update(salt);
+        return md.digest(password.getBytes(UTF8));
+    }
+
+    private static boolean await(CompletableFuture<Boolean> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Ключ кэша: логин и хэш пароля с солью. */
+    private static final class Key {
+
+        final String login;
+        final byte[] passwordHash;
+        private final int hashCode;
+
+        Key(String login, byte[] passwordHash) {
+            this.login = login;
+            this.passwordHash = passwordHash;
+            this.hashCode = 31 * login.hashCode() + Arrays.hashCode(passwordHash);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return login.equals(other.login) && MessageDigest.isEqual(passwordHash, other.passwordHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /** Запись кэша. */
+    private static final class Entry {
+
+        final boolean authorized;
+        /** Момент устаревания, нс. */
+        final long expiresAt;
+
+        Entry(boolean authorized, long expiresAt) {
+            this.authorized = authorized;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Сокет поверх канала сокета Unix, для которого {@link SocketChannel#socket()}
+ * не поддерживается. Транспорт RMI видит соединение как соединение с адресом
+ * loopback. Настройки TCP, в том числе таймаут чтения, не применяются.
+ */
+final class ChannelSocket extends Socket {
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    /** Таймаут чтения, только сохраняется. */
+    private volatile int soTimeout;
+    private volatile boolean inputShutdown;
+    private volatile boolean outputShutdown;
+    ////
+    private static final Logger log = Logger.getLogger(ChannelSocket.class.getName());
+
+    /**
+     * Конструктор.
+     *
+     * @param channel Соединенный канал в блокирующем режиме.
+     */
+    ChannelSocket(final SocketChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        }
+
+        this.channel = channel;
+        // потоки Channels синхронизируют чтение и запись общей блокировкой канала
+        this.in = new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int n = read(b, 0, 1);
+                return n < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+        this.out = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!channel.isOpen()) {
+            throw new SocketException("Socket is closed");
+        }
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!channel.isOpen()) {
+            throw new SocketException("Socket is closed");
+        }
+        return out;
+    }
+
+    /**
+     * Канал сокета Unix не предоставляется.
+     *
+     * @return null.
+     */
+    @Override
+    public SocketChannel getChannel() {
+        return null;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return 0;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return 0;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            log.log(Level.FINEST, "Failed to get remote address", e);
+            return null;
+        }
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        try {
+            return channel.getLocalAddress();
+        } catch (IOException e) {
+            log.log(Level.FINEST, "Failed to get local address", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint) throws IOException {
+        throw new SocketException("Already connected");
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+        throw new SocketException("Already connected");
+    }
+
+    @Override
+    public void bind(SocketAddress bindpoint) throws IOException {
+        throw new SocketException("Already bound");
+    }
+
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout can't be negative");
+        }
+        soTimeout = timeout;
+    }
+
+    @Override
+    public synchronized int getSoTimeout() throws SocketException {
+        return soTimeout;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+    }
+
+    @Override
+    public boolean getTcpNoDelay() throws SocketException {
+        return true;
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) throws SocketException {
+    }
+
+    @Override
+    public int getSoLinger() throws SocketException {
+        return -1;
+    }
+
+    @Override
+    public void sendUrgentData(int data) throws IOException {
+        throw new SocketException("Urgent data is not supported by Unix domain sockets");
+    }
+
+    @Override
+    public void setOOBInline(boolean on) throws SocketException {
+    }
+
+    @Override
+    public boolean getOOBInline() throws SocketException {
+        return false;
+    }
+
+    @Override
+    public synchronized void setSendBufferSize(int size) throws SocketException {
+    }
+
+    @Override
+    public synchronized void setReceiveBufferSize(int size) throws SocketException {
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) throws SocketException {
+    }
+
+    @Override
+    public boolean getKeepAlive() throws SocketException {
+        return false;
+    }
+
+    @Override
+    public void setTrafficClass(int tc) throws SocketException {
+    }
+
+    @Override
+    public void setReuseAddress(boolean on) throws SocketException {
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        channel.shutdownInput();
+        inputShutdown = true;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+        outputShutdown = true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return inputShutdown;
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+        return outputShutdown;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelSocket[" + getRemoteSocketAddress() + "]";
+    }
+}
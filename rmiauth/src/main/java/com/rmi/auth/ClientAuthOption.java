@@ -0,0 +1,53 @@
+package com.rmi.auth;
+
+/**
+ * Дополнительные режимы аутентификации клиентских фабрик сокетов.
+ *
+ * @see AuthRMIClientSocketFactory#AuthRMIClientSocketFactory(ClientAuthOption...)
+ * @see AuthSslRMIClientSocketFactory#AuthSslRMIClientSocketFactory(ClientAuthOption...)
+ */
+public enum ClientAuthOption {
+
+    /**
+     * Возобновление сессий по билетам: после первой успешной авторизации
+     * клиент предъявляет билет, полученный от сервера, и сервер не обращается
+     * к авторизатору. Должно быть включено и на серверной фабрике.
+     *
+     * @see ServerSocketAuthConfig#setSessionResumption(byte[], long)
+     */
+    SESSION_RESUMPTION,
+    /**
+     * Оптимистичная авторизация: сокет возвращается сразу после отправки данных
+     * авторизации, без ожидания ответа сервера, и данные RMI следуют за ними в том
+     * же соединении. Ответ сервера проверяется при первом чтении из сокета; если
+     * авторизация не пройдена, чтение завершается
+     * {@link SocketAuthorizationFailedException}, а сервер закрывает соединение,
+     * не передав полученные данные в RMI. Экономит один круг обмена по сети на
+     * каждом соединении. Поддержка на сервере не требует настройки.
+     */
+    OPTIMISTIC_AUTHORIZATION,
+    /**
+     * Мультиплексирование: все соединения RMI с сервером открываются как виртуальные
+     * внутри одного авторизованного соединения, поэтому новое соединение не требует
+     * ни установки TCP и TLS, ни авторизации. Каждое виртуальное соединение имеет
+     * собственное окно передачи, так что медленный вызов не задерживает остальные.
+     * Физическое соединение закрывается после минуты без виртуальных соединений.
+     * Если сервер не поддерживает мультиплексирование, используются обычные
+     * соединения. Пул заранее авторизованных соединений и оптимистичная
+     * авторизация в этом режиме не используются.
+     *
+     * @see ServerSocketAuthConfig#setMultiplexing(boolean)
+     */
+    MULTIPLEXING,
+    /**
+     * Сжатие данных соединения: после авторизации данные RMI передаются блоками,
+     * сжатыми {@link java.util.zip.Deflater}, что сокращает передачу больших ответов
+     * по медленным каналам. Короткие блоки передаются без сжатия. Если сервер не
+     * поддерживает сжатие, данные передаются как есть. Оптимистичная авторизация
+     * в этом режиме не используется: сжатие начинается после ответа сервера.
+     *
+     * @see AuthRMIClientSocketFactory#setCompression(int, int)
+     * @see ServerSocketAuthConfig#setCompression(int, int)
+     */
+    COMPRESSION
+}
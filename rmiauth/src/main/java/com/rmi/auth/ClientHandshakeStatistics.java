@@ -0,0 +1,94 @@
+package com.rmi.auth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика аутентификации соединений клиентских фабрик сокетов, общая для
+ * процесса. Регистрируется в платформенном MBeanServer под именем
+ * <tt>com.rmi.auth:type=ClientHandshakeStatistics</tt>. Длительности указываются
+ * в наносекундах.
+ *
+ * @see AuthRMIClientSocketFactory#getStatistics()
+ */
+public final class ClientHandshakeStatistics implements ClientHandshakeStatisticsMBean {
+
+    /** Статистика клиентских фабрик процесса. */
+    static final ClientHandshakeStatistics SHARED = new ClientHandshakeStatistics();
+
+    static {
+        StatisticsMBeans.register(StatisticsMBeans.clientName(), SHARED);
+    }
+    ////
+    /** Количество соединений, авторизованных с оптимистичной авторизацией. */
+    private final LongAdder optimisticHandshakes = new LongAdder();
+    /** Количество соединений, не прошедших авторизацию. */
+    private final LongAdder failedHandshakes = new LongAdder();
+    /** Длительность авторизации от отправки запроса до получения ответа об успехе. */
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+
+    private ClientHandshakeStatistics() {
+    }
+
+    /**
+     * @return Количество авторизованных соединений.
+     */
+    @Override
+    public long getHandshakes() {
+        return handshakeLatency.getCount() + optimisticHandshakes.sum();
+    }
+
+    /**
+     * @return Количество соединений, отклоненных сервером или закрытых до ответа.
+     */
+    @Override
+    public long getFailedHandshakes() {
+        return failedHandshakes.sum();
+    }
+
+    /**
+     * @return Длительность авторизации от отправки запроса до получения ответа
+     *      об успехе. Соединения с оптимистичной авторизацией не учитываются:
+     *      ответ читается вместе с первыми данными приложения.
+     */
+    public LatencyHistogram getHandshakeLatency() {
+        return handshakeLatency;
+    }
+
+    @Override
+    public long getHandshakeLatencyP50() {
+        return handshakeLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getHandshakeLatencyP99() {
+        return handshakeLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getHandshakeLatencyP999() {
+        return handshakeLatency.getPercentile(0.999);
+    }
+
+    void handshakeCompleted(long nanos) {
+        handshakeLatency.record(nanos);
+    }
+
+    void optimisticHandshakeCompleted() {
+        optimisticHandshakes.increment();
+    }
+
+    void handshakeFailed() {
+        failedHandshakes.increment();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ClientHandshakeStatistics [");
+        builder.append("handshakes=").append(getHandshakes());
+        builder.append(", failedHandshakes=").append(getFailedHandshakes());
+        builder.append(", handshakeLatency=").append(handshakeLatency);
+        builder.append("]");
+        return builder.toString();
+    }
+}
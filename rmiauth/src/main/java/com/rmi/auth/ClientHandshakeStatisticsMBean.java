@@ -0,0 +1,19 @@
+package com.rmi.auth;
+
+/**
+ * Атрибуты JMX статистики аутентификации клиентских соединений.
+ *
+ * @see ClientHandshakeStatistics
+ */
+public interface ClientHandshakeStatisticsMBean {
+
+    long getHandshakes();
+
+    long getFailedHandshakes();
+
+    long getHandshakeLatencyP50();
+
+    long getHandshakeLatencyP99();
+
+    long getHandshakeLatencyP999();
+}
@@ -0,0 +1,366 @@
+package com.rmi.auth;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сокет, сжимающий передаваемые данные. Данные передаются блоками, каждый блок
+ * отправляется при flush() или заполнении буфера. Блоки короче порога и блоки,
+ * которые не удалось сжать, передаются без сжатия, поэтому короткие вызовы RMI
+ * не тратят процессорное время на сжатие.<br>
+ * <br>
+ * Блок: <tt>[тип][длина данных, 4 байта]</tt>, для сжатого блока затем
+ * <tt>[длина после распаковки, 4 байта]</tt>, затем данные. Каждый блок сжимается
+ * независимо.
+ */
+final class CompressedSocket extends SocketWrap {
+
+    /** Блок без сжатия. */
+    static final int BLOCK_RAW = 0;
+    /** Блок, сжатый {@link Deflater} без заголовка zlib. */
+    static final int BLOCK_DEFLATED = 1;
+    /** Максимальная длина блока до сжатия. */
+    static final int MAX_BLOCK_LENGTH = 65536;
+    ////
+    private final InflatingInputStream in;
+    private final DeflatingOutputStream out;
+
+    /**
+     * Конструктор.
+     *
+     * @param sock Авторизованное соединение, для которого стороны согласовали сжатие.
+     * @param settings Настройки сжатия отправляемых данных.
+     */
+    CompressedSocket(Socket sock, CompressionSettings settings) throws IOException {
+        super(sock);
+
+        this.in = new InflatingInputStream(sock.getInputStream());
+        this.out = new DeflatingOutputStream(sock.getOutputStream(), settings);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return out;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        out.flush();
+        super.shutdownOutput();
+    }
+
+    /**
+     * Закрывает соединение и освобождает память zlib. Потоки, читающие или
+     * пишущие блок, получают исключение закрытого соединения.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            in.end();
+            out.end();
+        }
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedSocket[" + sock + "]";
+    }
+
+    /**
+     * Поток записи блоков. Данные накапливаются до flush() или заполнения буфера.
+     */
+    private static final class DeflatingOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final CompressionSettings settings;
+        /** Несжатые данные блока. */
+        private final byte[] buf = new byte[MAX_BLOCK_LENGTH];
+        /** Длина несжатых данных блока. */
+        private int count;
+        /** Сжатые данные блока, создается при первом сжатии. */
+        private byte[] deflated;
+        /** Создается при первом сжатии. */
+        private Deflater deflater;
+        /** Освобождена ли память zlib. */
+        private boolean ended;
+
+        DeflatingOutputStream(OutputStream out, CompressionSettings settings) {
+            this.out = new DataOutputStream(out);
+            this.settings = settings;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (count == buf.length) {
+                writeBlock();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) {
+                    writeBlock();
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (count > 0) {
+                writeBlock();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Освобождает память zlib. Вызывается после закрытия соединения, которое
+         * прерывает блокирующую операцию потока, поэтому ожидание монитора недолгое.
+         */
+        synchronized void end() {
+            ended = true;
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            int length = count;
+            count = 0;
+            if (length >= settings.threshold) {
+                int compressed = deflate(length);
+                if (compressed > 0) {
+                    out.writeByte(BLOCK_DEFLATED);
+                    out.writeInt(compressed);
+                    out.writeInt(length);
+                    out.write(deflated, 0, compressed);
+                    return;
+                }
+            }
+            out.writeByte(BLOCK_RAW);
+            out.writeInt(length);
+            out.write(buf, 0, length);
+        }
+
+        /**
+         * @return Длина сжатых данных или 0, если сжатие не уменьшает блок.
+         */
+        private int deflate(int length) throws IOException {
+            if (ended) {
+                throw new SocketException("Socket is closed");
+            }
+            if (deflater == null) {
+                deflater = new Deflater(settings.level, true);
+                deflated = new byte[MAX_BLOCK_LENGTH];
+            }
+            deflater.reset();
+            deflater.setInput(buf, 0, length);
+            deflater.finish();
+            // буфер не больше исходных данных: несжимаемый блок передается как есть
+            int compressed = deflater.deflate(deflated, 0, length - 1);
+            return deflater.finished() ? compressed : 0;
+        }
+    }
+
+    /**
+     * Поток чтения блоков.
+     */
+    private static final class InflatingInputStream extends InputStream {
+
+        private final InputStream in;
+        /** Длины блока. */
+        private final byte[] header = new byte[8];
+        /** Данные текущего блока. */
+        private final byte[] buf = new byte[MAX_BLOCK_LENGTH];
+        /** Позиция чтения в текущем блоке. */
+        private int pos;
+        /** Длина текущего блока. */
+        private int count;
+        /** Сжатые данные блока, создается при первом сжатом блоке. */
+        private byte[] deflated;
+        /** Создается при первом сжатом блоке. */
+        private Inflater inflater;
+        /** Освобождена ли память zlib. */
+        private boolean ended;
+
+        InflatingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            if (pos == count && !readBlock()) {
+                return -1;
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == count && !readBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Не ожидает поток, читающий блок.
+         */
+        @Override
+        public int available() throws IOException {
+            return count - pos;
+        }
+
+        /**
+         * Закрывает соединение без ожидания потока, читающего блок.
+         */
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Освобождает память zlib. Вызывается после закрытия соединения, которое
+         * прерывает блокирующую операцию потока, поэтому ожидание монитора недолгое.
+         */
+        synchronized void end() {
+            ended = true;
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+
+        /**
+         * Читает следующий непустой блок.
+         *
+         * @return False, если соединение закрыто другой стороной между блоками.
+         */
+        private boolean readBlock() throws IOException {
+            do {
+                // таймаут чтения до начала блока передается вызывающей стороне
+                int type = in.read();
+                if (type < 0) {
+                    return false;
+                }
+                pos = 0;
+                count = 0;
+
+                readFully(header, 0, 4);
+                int length = getInt(header, 0);
+                if (length < 0 || length > MAX_BLOCK_LENGTH) {
+                    throw new IOException("Compressed block is too long: " + length);
+                }
+                if (type == BLOCK_RAW) {
+                    readFully(buf, 0, length);
+                    count = length;
+                } else if (type == BLOCK_DEFLATED) {
+                    readFully(header, 4, 4);
+                    count = inflate(length, getInt(header, 4));
+                } else {
+                    throw new IOException("Unknown compressed block type " + type);
+                }
+            } while (count == 0);
+            return true;
+        }
+
+        /**
+         * Читает ровно <tt>length</tt> байт. Начатый блок дочитывается, даже если
+         * истекает таймаут чтения сокета, иначе поток блоков будет нарушен.
+         */
+        private void readFully(byte[] b, int off, int length) throws IOException {
+            int end = off + length;
+            while (off < end) {
+                int n;
+                try {
+                    n = in.read(b, off, end - off);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                if (n < 0) {
+                    throw new EOFException("Connection closed inside compressed block");
+                }
+                off += n;
+            }
+        }
+
+        private static int getInt(byte[] b, int off) {
+            return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | b[off + 3] & 0xFF;
+        }
+
+        private int inflate(int length, int inflatedLength) throws IOException {
+            if (inflatedLength < 0 || inflatedLength > MAX_BLOCK_LENGTH) {
+                throw new IOException("Compressed block is too long: " + inflatedLength);
+            }
+            if (ended) {
+                throw new SocketException("Socket is closed");
+            }
+            if (inflater == null) {
+                inflater = new Inflater(true);
+                deflated = new byte[MAX_BLOCK_LENGTH];
+            }
+            readFully(deflated, 0, length);
+
+            inflater.reset();
+            inflater.setInput(deflated, 0, length);
+            try {
+                int n = 0;
+                while (n < inflatedLength) {
+                    int inflated = inflater.inflate(buf, n, inflatedLength - n);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != inflatedLength) {
+                    throw new EOFException("Truncated compressed block");
+                }
+                return n;
+            } catch (DataFormatException e) {
+                throw new IOException("Malformed compressed block", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.rmi.auth;
+
+import java.util.zip.Deflater;
+
+/**
+ * Настройки сжатия данных, отправляемых через авторизованное соединение.
+ */
+final class CompressionSettings {
+
+    /** Порог сжатия по умолчанию, байт. */
+    static final int DEFAULT_THRESHOLD = 1024;
+    /** Настройки по умолчанию. */
+    static final CompressionSettings DEFAULT = new CompressionSettings(Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD);
+    ////
+    /** Уровень сжатия {@link Deflater}. */
+    final int level;
+    /** Минимальная длина блока, который сжимается, байт. */
+    final int threshold;
+
+    /**
+     * Конструктор.
+     *
+     * @param level Уровень сжатия от {@link Deflater#BEST_SPEED} до {@link Deflater#BEST_COMPRESSION}
+     *      или {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param threshold Минимальная длина блока, который сжимается, байт.
+     *
+     * @throws IllegalArgumentException Если уровень или порог некорректны.
+     */
+    CompressionSettings(int level, int threshold) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("level = " + level);
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold = " + threshold);
+        }
+
+        this.level = level;
+        this.threshold = threshold;
+    }
+}
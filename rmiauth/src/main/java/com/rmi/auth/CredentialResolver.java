@@ -0,0 +1,374 @@
+package com.rmi.auth;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Поиск данных авторизации клиента по хосту сервера. Поддерживаются правила трех видов:
+ * <ul>
+ * <li>точный хост или IP-адрес: <tt>server.example.com</tt>, <tt>10.1.2.3</tt>, <tt>::1</tt>;</li>
+ * <li>домен с подстановкой: <tt>*.example.com</tt> - любой хост внутри домена;</li>
+ * <li>диапазон адресов CIDR: <tt>10.0.0.0/8</tt>, <tt>fd00::/8</tt>.</li>
+ * </ul>
+ * Точное правило приоритетнее подстановки, а подстановка - диапазона; среди
+ * подстановок и диапазонов выбирается наиболее длинное совпадение. Подстановки и
+ * диапазоны хранятся в префиксных деревьях по меткам домена и битам адреса, поэтому
+ * время поиска зависит от длины имени или адреса, а не от количества правил.<br>
+ * <br>
+ * Имена хостов разрешаются в адреса для поиска по диапазонам только при отсутствии
+ * других совпадений; результаты разрешения кэшируются в кэше ограниченного размера.
+ */
+final class CredentialResolver {
+
+    /** Максимальное количество кэшированных результатов разрешения имен. */
+    private static final int MAX_CACHED = 1024;
+    /** Время жизни кэшированного результата разрешения имени, нс. */
+    private static final long CACHE_TTL = TimeUnit.SECONDS.toNanos(60);
+    /** Отсутствие данных авторизации в кэше. */
+    private static final AuthData NONE = new AuthData("", "");
+    ////
+    /** Точные правила по нормализованному хосту. */
+    private final Map<String, AuthData> exact = new ConcurrentHashMap<String, AuthData>();
+    /** Подстановки: дерево меток домена справа налево. */
+    private final LabelNode domains = new LabelNode();
+    /** Диапазоны IPv4. */
+    private final BitNode ipv4 = new BitNode();
+    /** Диапазоны IPv6. */
+    private final BitNode ipv6 = new BitNode();
+    /** Есть ли правила-подстановки. */
+    private volatile boolean hasDomains;
+    /** Есть ли правила-диапазоны. */
+    private volatile boolean hasRanges;
+    /** Блокировка деревьев. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Результаты поиска по разрешенным именам хостов в порядке использования. */
+    private final LinkedHashMap<String, Cached> resolved = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    /**
+     * Добавляет точное правило.
+     *
+     * @param host Хост или IP-адрес.
+     * @param authData Данные авторизации.
+     */
+    void putHost(String host, AuthData authData) {
+        if (host == null) {
+            throw new NullPointerException("host");
+        }
+        if (authData == null) {
+            throw new NullPointerException("authData");
+        }
+
+        exact.put(normalize(host), authData);
+    }
+
+    /**
+     * Удаляет точное правило.
+     *
+     * @param host Хост или IP-адрес.
+     */
+    void removeHost(String host) {
+        if (host == null) {
+            throw new NullPointerException("host");
+        }
+
+        exact.remove(normalize(host));
+    }
+
+    /**
+     * Добавляет правило.
+     *
+     * @param pattern Хост, домен с подстановкой <tt>*.</tt> или диапазон CIDR.
+     * @param authData Данные авторизации.
+     *
+     * @throws IllegalArgumentException Если правило некорректно.
+     */
+    void put(String pattern, AuthData authData) {
+        if (pattern == null) {
+            throw new NullPointerException("pattern");
+        }
+        if (authData == null) {
+            throw new NullPointerException("authData");
+        }
+
+        int slash = pattern.indexOf('/');
+        if (slash >= 0) {
+            putRange(pattern, slash, authData);
+        } else if (pattern.startsWith("*.")) {
+            putDomain(pattern, authData);
+        } else {
+            putHost(pattern, authData);
+        }
+        invalidateCache();
+    }
+
+    /**
+     * Ищет данные авторизации для хоста.
+     *
+     * @param host Хост, переданный RMI в фабрику сокетов.
+     *
+     * @return Данные авторизации или null, если подходящего правила нет.
+     */
+    AuthData resolve(String host) {
+        String normalized = normalize(host);
+        AuthData authData = exact.get(normalized);
+        if (authData != null) {
+            return authData;
+        }
+
+        boolean literal = isAddressLiteral(normalized);
+        if (!literal && hasDomains) {
+            authData = matchDomain(normalized);
+            if (authData != null) {
+                return authData;
+            }
+        }
+        if (!hasRanges) {
+            return null;
+        }
+
+        if (literal) {
+            try {
+                return matchRange(InetAddress.getByName(normalized).getAddress());
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+        return resolveHostName(normalized);
+    }
+
+    /**
+     * Поиск по диапазонам для имени хоста с разрешением и кэшированием адресов.
+     */
+    private AuthData resolveHostName(String host) {
+        long now = System.nanoTime();
+        synchronized (resolved) {
+            Cached cached = resolved.get(host);
+            if (cached != null && now - cached.expiresAt < 0) {
+                return cached.authData == NONE ? null : cached.authData;
+            }
+        }
+
+        AuthData authData = null;
+        try {
+            for (InetAddress address : InetAddress.getAllByName(host)) {
+                authData = matchRange(address.getAddress());
+                if (authData != null) {
+                    break;
+                }
+            }
+        } catch (UnknownHostException e) {
+            // имя не разрешается, кэшируем отсутствие данных
+        }
+
+        synchronized (resolved) {
+            resolved.put(host, new Cached(authData == null ? NONE : authData, now + CACHE_TTL));
+        }
+        return authData;
+    }
+
+    private void putDomain(String pattern, AuthData authData) {
+        String[] labels = normalize(pattern.substring(2)).split("\\.");
+        for (String label : labels) {
+            if (label.isEmpty() || label.equals("*")) {
+                throw new IllegalArgumentException("Invalid domain pattern: " + pattern);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            LabelNode node = domains;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                LabelNode child = node.children.get(labels[i]);
+                if (child == null) {
+                    child = new LabelNode();
+                    node.children.put(labels[i], child);
+                }
+                node = child;
+            }
+            node.wildcard = authData;
+            hasDomains = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private AuthData matchDomain(String host) {
+        String[] labels = host.split("\\.");
+        lock.readLock().lock();
+        try {
+            AuthData match = null;
+            LabelNode node = domains;
+            // подстановка не совпадает с самим доменом, поэтому первая метка не проверяется
+            for (int i = labels.length - 1; i > 0; i--) {
+                node = node.children.get(labels[i]);
+                if (node == null) {
+                    break;
+                }
+                if (node.wildcard != null) {
+                    match = node.wildcard;
+                }
+            }
+            return match;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void putRange(String pattern, int slash, AuthData authData) {
+        String address = normalize(pattern.substring(0, slash));
+        byte[] bytes;
+        int prefix;
+        try {
+            if (!isAddressLiteral(address)) {
+                throw new IllegalArgumentException("Invalid CIDR range: " + pattern);
+            }
+            bytes = InetAddress.getByName(address).getAddress();
+            prefix = Integer.parseInt(pattern.substring(slash + 1));
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid CIDR range: " + pattern, e);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid CIDR range: " + pattern, e);
+        }
+        if (prefix < 0 || prefix > bytes.length * 8) {
+            throw new IllegalArgumentException("Invalid CIDR prefix length: " + pattern);
+        }
+
+        lock.writeLock().lock();
+        try {
+            BitNode node = bytes.length == 4 ? ipv4 : ipv6;
+            for (int i = 0; i < prefix; i++) {
+                int bit = bit(bytes, i);
+                if (node.children[bit] == null) {
+                    node.children[bit] = new BitNode();
+                }
+                node = node.children[bit];
+            }
+            node.authData = authData;
+            hasRanges = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private AuthData matchRange(byte[] address) {
+        lock.readLock().lock();
+        try {
+            BitNode node = address.length == 4 ? ipv4 : ipv6;
+            AuthData match = node.authData;
+            for (int i = 0; i < address.length * 8; i++) {
+                node = node.children[bit(address, i)];
+                if (node == null) {
+                    break;
+                }
+                if (node.authData != null) {
+                    match = node.authData;
+                }
+            }
+            return match;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void invalidateCache() {
+        synchronized (resolved) {
+            resolved.clear();
+        }
+    }
+
+    private static int bit(byte[] address, int index) {
+        return (address[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * Приводит хост к нижнему регистру, убирает квадратные скобки и завершающую
+     * точку, а IP-адреса - к каноническому виду.
+     */
+    static String normalize(String host) {
+        String result = host.trim().toLowerCase(Locale.ROOT);
+        if (result.startsWith("[") && result.endsWith("]")) {
+            result = result.substring(1, result.length() - 1);
+        }
+        if (result.endsWith(".")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        if (isAddressLiteral(result)) {
+            try {
+                result = InetAddress.getByName(result).getHostAddress();
+            } catch (UnknownHostException e) {
+                // некорректный адрес используется как есть
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Является ли строка IPv4- или IPv6-адресом. Разрешение имен не выполняется.
+     */
+    static boolean isAddressLiteral(String host) {
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+
+        int dots = 0;
+        int digits = 0;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c == '.') {
+                if (digits == 0) {
+                    return false;
+                }
+                dots++;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                digits++;
+            } else {
+                return false;
+            }
+        }
+        return dots == 3 && digits > 0;
+    }
+
+    /** Узел дерева меток домена. */
+    private static final class LabelNode {
+
+        final Map<String, LabelNode> children = new HashMap<String, LabelNode>();
+        /** Данные авторизации подстановки <tt>*.домен</tt> или null. */
+        AuthData wildcard;
+    }
+
+    /** Узел дерева битов адреса. */
+    private static final class BitNode {
+
+        final BitNode[] children = new BitNode[2];
+        /** Данные авторизации диапазона или null. */
+        AuthData authData;
+    }
+
+    /** Кэшированный результат поиска. */
+    private static final class Cached {
+
+        final AuthData authData;
+        /** Момент устаревания, нс. */
+        final long expiresAt;
+
+        Cached(AuthData authData, long expiresAt) {
+            this.authData = authData;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
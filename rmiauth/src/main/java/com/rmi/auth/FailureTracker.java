@@ -0,0 +1,229 @@
+package com.rmi.auth;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Счетчики неудачных аутентификаций по адресам клиентов. Таблица фиксированного
+ * размера с открытой адресацией хранит в каждой ячейке одно число <tt>long</tt>:
+ * <tt>[отпечаток адреса, 32 бита][счетчик, 16 бит][такт, 16 бит]</tt>, поэтому
+ * объем памяти не зависит от количества адресов, в том числе поддельных.
+ * Обновления выполняются без блокировок через CAS.<br>
+ * <br>
+ * Счетчик уменьшается вдвое за каждый период полураспада, прошедший с последней
+ * неудачи. Если подходящей ячейки нет, вытесняется ячейка с наименьшим счетчиком
+ * среди проверенных. Отпечатки вычисляются с ключом экземпляра, поэтому клиент не
+ * может подобрать адрес, отпечаток которого совпадает с отпечатком чужого адреса.<br>
+ * <br>
+ * Такт хранится по модулю 2<sup>16</sup>. Чтобы давно не обновлявшаяся ячейка не
+ * выглядела свежей после переполнения такта, раз в {@link #SWEEP_INTERVAL} тактов
+ * счетчики устаревших ячеек обнуляются.
+ */
+final class FailureTracker {
+
+    /** Количество ячеек таблицы. */
+    static final int DEFAULT_CAPACITY = 8192;
+    /** Количество проверяемых ячеек при поиске адреса. */
+    private static final int MAX_PROBES = 8;
+    private static final int MAX_COUNT = 0xFFFF;
+    private static final int TICK_MASK = 0xFFFF;
+    /** Период обнуления устаревших счетчиков в тактах, меньше половины периода такта. */
+    static final long SWEEP_INTERVAL = 1 << 14;
+    ////
+    private final AtomicLongArray table;
+    private final int mask;
+    /** Хэш адресов с ключом экземпляра. */
+    private final AddressHasher hasher = new AddressHasher();
+    /** Начало отсчета тактов по {@link System#nanoTime()}. */
+    private final long origin = System.nanoTime();
+    /** Полный номер такта последнего обнуления устаревших счетчиков. */
+    private volatile long sweptAt;
+    /** Количество неудач, после которого соединения с адреса отклоняются. */
+    private final int maxFailures;
+    /** Период полураспада счетчика, нс. */
+    private final long halfLife;
+
+    /**
+     * Конструктор.
+     *
+     * @param capacity Количество ячеек, степень двойки.
+     * @param maxFailures Количество неудач, после которого соединения отклоняются.
+     * @param halfLife Период полураспада счетчика, мс.
+     */
+    FailureTracker(int capacity, int maxFailures, long halfLife) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity = " + capacity);
+        }
+        if (maxFailures <= 0 || maxFailures > MAX_COUNT) {
+            throw new IllegalArgumentException("maxFailures = " + maxFailures);
+        }
+        if (halfLife <= 0) {
+            throw new IllegalArgumentException("halfLife = " + halfLife);
+        }
+
+        this.table = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.maxFailures = maxFailures;
+        this.halfLife = TimeUnit.MILLISECONDS.toNanos(halfLife);
+    }
+
+    /**
+     * @return Превышено ли количество неудач для адреса.
+     */
+    boolean isBlocked(InetAddress address) {
+        return isBlocked(address, System.nanoTime());
+    }
+
+    /**
+     * @param now Текущее время по {@link System#nanoTime()}.
+     *
+     * @return Превышено ли количество неудач для адреса.
+     */
+    boolean isBlocked(InetAddress address, long now) {
+        int fingerprint = hasher.hash(address);
+        int tick = tick(now);
+        int index = index(fingerprint);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            long slot = table.get((index + i) & mask);
+            if (fingerprint(slot) == fingerprint) {
+                return decayedCount(slot, tick) >= maxFailures;
+            }
+            if (slot == 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Учитывает неудачную аутентификацию с адреса.
+     */
+    void recordFailure(InetAddress address) {
+        recordFailure(address, System.nanoTime());
+    }
+
+    /**
+     * Учитывает неудачную аутентификацию с адреса.
+     *
+     * @param now Текущее время по {@link System#nanoTime()}.
+     */
+    void recordFailure(InetAddress address, long now) {
+        int fingerprint = hasher.hash(address);
+        int index = index(fingerprint);
+        while (true) {
+            int tick = tick(now);
+            int victim = -1;
+            long victimSlot = 0;
+            int victimCount = Integer.MAX_VALUE;
+            boolean retry = false;
+            for (int i = 0; i < MAX_PROBES && !retry; i++) {
+                int pos = (index + i) & mask;
+                long slot = table.get(pos);
+                if (slot == 0 || fingerprint(slot) == fingerprint) {
+                    int count = slot == 0 ? 0 : decayedCount(slot, tick);
+                    if (table.compareAndSet(pos, slot, slot(fingerprint, Math.min(count + 1, MAX_COUNT), tick))) {
+                        return;
+                    }
+                    // ячейка изменена другим потоком
+                    retry = true;
+                    break;
+                }
+
+                int count = decayedCount(slot, tick);
+                if (count < victimCount) {
+                    victim = pos;
+                    victimSlot = slot;
+                    victimCount = count;
+                }
+            }
+            if (retry) {
+                continue;
+            }
+
+            // адреса нет среди проверенных ячеек, вытесняем наименее активный
+            if (table.compareAndSet(victim, victimSlot, slot(fingerprint, 1, tick))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Сбрасывает счетчик адреса после успешной аутентификации.
+     */
+    void recordSuccess(InetAddress address) {
+        int fingerprint = hasher.hash(address);
+        int index = index(fingerprint);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int pos = (index + i) & mask;
+            long slot = table.get(pos);
+            if (slot == 0) {
+                return;
+            }
+            if (fingerprint(slot) == fingerprint) {
+                // ячейка остается занятой, чтобы не разрывать цепочки проверки
+                table.compareAndSet(pos, slot, slot(fingerprint, 0, tick(System.nanoTime())));
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param now Текущее время по {@link System#nanoTime()}.
+     *
+     * @return Такт по модулю 2<sup>16</sup>. Если с последнего обнуления устаревших
+     *      счетчиков прошло {@link #SWEEP_INTERVAL} тактов, сначала обнуляет их.
+     */
+    private int tick(long now) {
+        long full = (now - origin) / halfLife;
+        if (full - sweptAt >= SWEEP_INTERVAL) {
+            sweep(full);
+        }
+        return (int) full & TICK_MASK;
+    }
+
+    /**
+     * Обнуляет счетчики устаревших ячеек, сохраняя отпечатки, чтобы не разрывать
+     * цепочки проверки. Такты ненулевых счетчиков меньше <tt>sweptAt + SWEEP_INTERVAL</tt>,
+     * поэтому при перерыве больше половины периода такта устарели все счетчики, а
+     * при меньшем перерыве возраст по модулю совпадает с действительным.
+     */
+    private synchronized void sweep(long full) {
+        long previous = sweptAt;
+        if (full - previous < SWEEP_INTERVAL) {
+            // обнулено другим потоком
+            return;
+        }
+
+        boolean expired = full - previous > TICK_MASK / 2;
+        int tick = (int) full & TICK_MASK;
+        for (int pos = 0; pos <= mask; pos++) {
+            long slot = table.get(pos);
+            if ((slot >>> 16 & MAX_COUNT) != 0 && (expired || decayedCount(slot, tick) == 0)) {
+                table.compareAndSet(pos, slot, slot(fingerprint(slot), 0, tick));
+            }
+        }
+        sweptAt = full;
+    }
+
+    private static int decayedCount(long slot, int tick) {
+        int age = (tick - (int) (slot & TICK_MASK)) & TICK_MASK;
+        if (age >= 16) {
+            return 0;
+        }
+        return ((int) (slot >>> 16) & MAX_COUNT) >>> age;
+    }
+
+    private static long slot(int fingerprint, int count, int tick) {
+        return ((long) fingerprint << 32) | ((long) count << 16) | tick;
+    }
+
+    private static int fingerprint(long slot) {
+        return (int) (slot >>> 32);
+    }
+
+    private int index(int fingerprint) {
+        // отпечаток уже перемешан
+        return fingerprint & mask;
+    }
+}
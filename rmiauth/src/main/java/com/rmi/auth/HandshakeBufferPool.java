@@ -0,0 +1,72 @@
+package com.rmi.auth;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул буферов для кадров аутентификации. Буферы содержат пароли, поэтому при
+ * возврате в пул они обнуляются.
+ */
+final class HandshakeBufferPool {
+
+    /** Максимальное количество свободных буферов в пуле. */
+    private static final int MAX_POOLED = 64;
+    ////
+    private static final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger freeCount = new AtomicInteger();
+
+    private HandshakeBufferPool() {
+    }
+
+    /**
+     * @return Очищенный буфер вместимостью не менее {@link HandshakeCodec#MAX_FRAME_LENGTH}.
+     */
+    static ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        if (buf == null) {
+            return ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        }
+        freeCount.decrementAndGet();
+        return buf;
+    }
+
+    /**
+     * Заменяет буфер буфером большей вместимости для запроса в исходном формате,
+     * не помещающегося в кадр. Такой буфер не возвращается в пул.
+     *
+     * @param buf Буфер, полученный из {@link #acquire()} или этого метода.
+     * @param capacity Необходимая вместимость.
+     *
+     * @return Буфер с данными исходного буфера до его позиции.
+     */
+    static ByteBuffer grow(ByteBuffer buf, int capacity) {
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buf.flip();
+        grown.put(buf);
+        release(buf);
+        return grown;
+    }
+
+    /**
+     * Обнуляет буфер и возвращает его в пул. Буферы, полученные из
+     * {@link #grow(ByteBuffer, int)}, только обнуляются.
+     *
+     * @param buf Буфер, полученный из {@link #acquire()} или {@link #grow(ByteBuffer, int)}.
+     */
+    static void release(ByteBuffer buf) {
+        Arrays.fill(buf.array(), (byte) 0);
+        buf.clear();
+        if (buf.capacity() != HandshakeCodec.MAX_FRAME_LENGTH) {
+            return;
+        }
+
+        if (freeCount.incrementAndGet() <= MAX_POOLED) {
+            free.offer(buf);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+}
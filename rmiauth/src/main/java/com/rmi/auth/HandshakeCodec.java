@@ -0,0 +1,449 @@
+package com.rmi.auth;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Кодирование кадров аутентификации.<br>
+ * <br>
+ * Кадр запроса: <tt>[MAGIC][версия][флаги][длина тела, 2 байта][тело]</tt>.<br>
+ * Кадр ответа: <tt>[MAGIC][версия][результат][длина тела, 2 байта][тело]</tt>.<br>
+ * Тело - последовательность полей <tt>[тип][длина, 2 байта][значение]</tt>,
+ * неизвестные поля пропускаются, поэтому новые поля не нарушают совместимость.
+ * Заголовок одинаков во всех версиях формата: на запрос другой версии сервер
+ * отвечает кадром своей версии без тела с результатом
+ * {@link SocketAuthorizationImpl#AUTH_UNSUPPORTED_VERSION}, из которого клиент
+ * узнает поддерживаемую версию.<br>
+ * <br>
+ * Клиенты, не поддерживающие кадры, отправляют логин и пароль в формате
+ * {@link java.io.DataOutput#writeUTF(String)}; первый байт такого запроса - старший
+ * байт длины логина, который не совпадает с {@link #MAGIC} для логинов короче
+ * 42752 байт.
+ */
+final class HandshakeCodec {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    /** Первый байт кадра. */
+    static final byte MAGIC = (byte) 0xA7;
+    /** Версия формата кадра. */
+    static final byte VERSION = 1;
+    /** Длина заголовка кадра. */
+    static final int HEADER_LENGTH = 5;
+    /** Максимальная длина тела кадра. */
+    static final int MAX_BODY_LENGTH = 4096;
+    /** Максимальная длина кадра. */
+    static final int MAX_FRAME_LENGTH = HEADER_LENGTH + MAX_BODY_LENGTH;
+    /** Максимальная длина запроса в исходном формате: две строки writeUTF. */
+    static final int MAX_LEGACY_LENGTH = 2 * (2 + 0xFFFF);
+    /** Максимальная длина логина в байтах. */
+    static final int MAX_LOGIN_LENGTH = 256;
+    /** Максимальная длина пароля в байтах. */
+    static final int MAX_PASSWORD_LENGTH = 1024;
+    ////
+    /** Поле: логин, UTF-8. */
+    static final int FIELD_LOGIN = 1;
+    /** Поле: пароль, UTF-8. */
+    static final int FIELD_PASSWORD = 2;
+    /** Поле: билет возобновления сессии. */
+    static final int FIELD_TICKET = 3;
+    /** Поле ответа без значения: сервер согласен мультиплексировать соединение. */
+    static final int FIELD_MULTIPLEXING = 4;
+    /** Поле ответа без значения: сервер согласен сжимать данные соединения. */
+    static final int FIELD_COMPRESSION = 5;
+    ////
+    /** Флаг запроса: клиент принимает билеты возобновления сессии. */
+    static final int FLAG_SESSION_RESUMPTION = 1;
+    /** Флаг запроса: клиент предлагает мультиплексировать соединение. */
+    static final int FLAG_MULTIPLEXING = 2;
+    /** Флаг запроса: клиент предлагает сжимать данные соединения. */
+    static final int FLAG_COMPRESSION = 4;
+
+    private HandshakeCodec() {
+    }
+
+    /**
+     * Кодирует кадр запроса.
+     *
+     * @param buf Буфер, кадр записывается с текущей позиции.
+     * @param request Запрос.
+     *
+     * @throws SocketAuthorizationFailedException Если поля превышают допустимую длину.
+     */
+    static void encodeRequest(ByteBuffer buf, HandshakeRequest request) throws SocketAuthorizationFailedException {
+        byte[] login = request.login.getBytes(UTF8);
+        byte[] password = request.password.getBytes(UTF8);
+        checkLength("login", login.length, MAX_LOGIN_LENGTH);
+        checkLength("password", password.length, MAX_PASSWORD_LENGTH);
+        if (request.ticket != null) {
+            checkLength("ticket", request.ticket.length, SessionTickets.MAX_TICKET_LENGTH);
+        }
+
+        int start = buf.position();
+        buf.put(MAGIC).put(VERSION).put((byte) request.flags).putShort((short) 0);
+        putField(buf, FIELD_LOGIN, login);
+        putField(buf, FIELD_PASSWORD, password);
+        if (request.ticket != null) {
+            putField(buf, FIELD_TICKET, request.ticket);
+        }
+        buf.putShort(start + 3, (short) (buf.position() - start - HEADER_LENGTH));
+    }
+
+    /**
+     * Кодирует кадр ответа.
+     *
+     * @param buf Буфер, кадр записывается с текущей позиции.
+     * @param verdict Результат авторизации.
+     * @param ticket Билет возобновления сессии или null.
+     */
+    static void encodeResponse(ByteBuffer buf, byte verdict, byte[] ticket) {
+        encodeResponse(buf, verdict, ticket, 0);
+    }
+
+    /**
+     * Кодирует кадр ответа.
+     *
+     * @param buf Буфер, кадр записывается с текущей позиции.
+     * @param verdict Результат авторизации.
+     * @param ticket Билет возобновления сессии или null.
+     * @param accepted Флаги запроса, с которыми согласен сервер.
+     */
+    static void encodeResponse(ByteBuffer buf, byte verdict, byte[] ticket, int accepted) {
+        int start = buf.position();
+        buf.put(MAGIC).put(VERSION).put(verdict).putShort((short) 0);
+        if (ticket != null) {
+            putField(buf, FIELD_TICKET, ticket);
+        }
+        if ((accepted & FLAG_MULTIPLEXING) != 0) {
+            putField(buf, FIELD_MULTIPLEXING, new byte[0]);
+        }
+        if ((accepted & FLAG_COMPRESSION) != 0) {
+            putField(buf, FIELD_COMPRESSION, new byte[0]);
+        }
+        buf.putShort(start + 3, (short) (buf.position() - start - HEADER_LENGTH));
+    }
+
+    /**
+     * Проверяет заголовок кадра.
+     *
+     * @param header Буфер, заголовок читается с текущей позиции без ее изменения.
+     *
+     * @return Длина тела кадра.
+     *
+     * @throws SocketAuthorizationFailedException Если заголовок некорректен.
+     * @throws UnsupportedVersionException Если версия кадра не поддерживается.
+     */
+    static int bodyLength(ByteBuffer header) throws SocketAuthorizationFailedException {
+        int pos = header.position();
+        if (header.get(pos) != MAGIC) {
+            throw new SocketAuthorizationFailedException("Malformed handshake frame");
+        }
+        if (header.get(pos + 1) != VERSION) {
+            throw new UnsupportedVersionException(header.get(pos + 1) & 0xFF);
+        }
+        int length = header.getShort(pos + 3) & 0xFFFF;
+        checkLength("handshake frame", length, MAX_BODY_LENGTH);
+        return length;
+    }
+
+    /**
+     * Декодирует кадр запроса.
+     *
+     * @param frame Буфер, содержащий кадр целиком с текущей позиции.
+     *
+     * @return Запрос.
+     *
+     * @throws SocketAuthorizationFailedException Если кадр некорректен.
+     */
+    static HandshakeRequest decodeRequest(ByteBuffer frame) throws SocketAuthorizationFailedException {
+        RawCredentials credentials = new RawCredentials();
+        decodeRequest(frame, credentials);
+        return credentials.toRequest();
+    }
+
+    /**
+     * Декодирует кадр запроса без копирования полей: запоминает их положение в
+     * массиве буфера.
+     *
+     * @param frame Буфер с массивом, содержащий кадр целиком с текущей позиции.
+     * @param credentials Данные авторизации для заполнения.
+     *
+     * @throws SocketAuthorizationFailedException Если кадр некорректен.
+     */
+    static void decodeRequest(ByteBuffer frame, RawCredentials credentials) throws SocketAuthorizationFailedException {
+        int bodyLength = bodyLength(frame);
+        if (frame.remaining() < HEADER_LENGTH + bodyLength) {
+            throw new SocketAuthorizationFailedException("Truncated handshake frame");
+        }
+
+        byte[] array = frame.array();
+        int start = frame.arrayOffset() + frame.position();
+        credentials.reset(array, array[start + 2] & 0xFF, false);
+        int pos = start + HEADER_LENGTH;
+        int end = pos + bodyLength;
+        while (pos < end) {
+            if (end - pos < 3) {
+                throw new SocketAuthorizationFailedException("Truncated handshake frame");
+            }
+            int type = array[pos] & 0xFF;
+            int length = getUnsignedShort(array, pos + 1);
+            pos += 3;
+            if (length > end - pos) {
+                throw new SocketAuthorizationFailedException("Truncated handshake frame");
+            }
+            switch (type) {
+                case FIELD_LOGIN:
+                    checkLength("login", length, MAX_LOGIN_LENGTH);
+                    credentials.setLogin(pos, length);
+                    break;
+                case FIELD_PASSWORD:
+                    checkLength("password", length, MAX_PASSWORD_LENGTH);
+                    credentials.setPassword(pos, length);
+                    break;
+                case FIELD_TICKET:
+                    checkLength("ticket", length, SessionTickets.MAX_TICKET_LENGTH);
+                    credentials.setTicket(pos, length);
+                    break;
+                default:
+                    // неизвестное поле пропускается
+            }
+            pos += length;
+        }
+
+        if (!credentials.hasCredentials()) {
+            throw new SocketAuthorizationFailedException("Handshake frame without credentials");
+        }
+    }
+
+    /**
+     * Определяет длину запроса в начале буфера, который заполняется по мере чтения
+     * из неблокирующего канала. Поддерживаются кадры и исходный формат запроса.
+     *
+     * @param buf Буфер, запрос начинается с позиции 0, прочитанные данные
+     *      заканчиваются текущей позицией.
+     *
+     * @return Длина запроса или -1, если прочитанных данных недостаточно. Запрос
+     *      в исходном формате может быть длиннее {@link #MAX_FRAME_LENGTH}, но не
+     *      длиннее {@link #MAX_LEGACY_LENGTH}.
+     *
+     * @throws SocketAuthorizationFailedException Если кадр некорректен.
+     */
+    static int requestLength(ByteBuffer buf) throws SocketAuthorizationFailedException {
+        int read = buf.position();
+        if (read == 0) {
+            return -1;
+        }
+
+        if (buf.get(0) == MAGIC) {
+            if (read < HEADER_LENGTH) {
+                return -1;
+            }
+            ByteBuffer header = buf.duplicate();
+            header.position(0);
+            return HEADER_LENGTH + bodyLength(header);
+        }
+
+        // исходный формат: две строки DataOutput.writeUTF
+        if (read < 2) {
+            return -1;
+        }
+        int passwordOffset = 2 + (buf.getShort(0) & 0xFFFF) + 2;
+        if (read < passwordOffset) {
+            return -1;
+        }
+        return passwordOffset + (buf.getShort(passwordOffset - 2) & 0xFFFF);
+    }
+
+    /**
+     * Определяет, сколько данных запроса в исходном формате нужно прочитать, чтобы
+     * узнать следующую длину: длину логина, длину пароля или длину всего запроса.
+     *
+     * @param buf Буфер, запрос начинается с позиции 0, прочитанные данные
+     *      заканчиваются текущей позицией.
+     *
+     * @return Количество байт от начала запроса, не больше {@link #MAX_LEGACY_LENGTH}.
+     */
+    static int legacyReadLimit(ByteBuffer buf) {
+        int read = buf.position();
+        if (read < 2) {
+            return 2;
+        }
+        int passwordOffset = 2 + (buf.getShort(0) & 0xFFFF) + 2;
+        if (read < passwordOffset) {
+            return passwordOffset;
+        }
+        return passwordOffset + (buf.getShort(passwordOffset - 2) & 0xFFFF);
+    }
+
+    /**
+     * Декодирует запрос в исходном формате: две строки {@link java.io.DataOutput#writeUTF(String)}.
+     *
+     * @param buf Буфер, запрос начинается с позиции 0.
+     * @param length Длина запроса.
+     *
+     * @return Запрос.
+     *
+     * @throws SocketAuthorizationFailedException Если запрос некорректен.
+     */
+    static HandshakeRequest decodeLegacyRequest(ByteBuffer buf, int length) throws SocketAuthorizationFailedException {
+        RawCredentials credentials = new RawCredentials();
+        decodeLegacyRequest(buf, length, credentials);
+        return credentials.toRequest();
+    }
+
+    /**
+     * Декодирует запрос в исходном формате без копирования строк: запоминает их
+     * положение в массиве буфера.
+     *
+     * @param buf Буфер с массивом, запрос начинается с позиции 0.
+     * @param length Длина запроса.
+     * @param credentials Данные авторизации для заполнения.
+     *
+     * @throws SocketAuthorizationFailedException Если запрос некорректен.
+     */
+    static void decodeLegacyRequest(ByteBuffer buf, int length, RawCredentials credentials)
+            throws SocketAuthorizationFailedException {
+        byte[] array = buf.array();
+        int start = buf.arrayOffset();
+        credentials.reset(array, 0, true);
+        if (length < 4) {
+            throw new SocketAuthorizationFailedException("Malformed handshake request");
+        }
+        int loginLength = getUnsignedShort(array, start);
+        int passwordOffset = 2 + loginLength + 2;
+        if (passwordOffset > length) {
+            throw new SocketAuthorizationFailedException("Malformed handshake request");
+        }
+        int passwordLength = getUnsignedShort(array, start + passwordOffset - 2);
+        if (passwordOffset + passwordLength != length) {
+            throw new SocketAuthorizationFailedException("Malformed handshake request");
+        }
+        credentials.setLogin(start + 2, loginLength);
+        credentials.setPassword(start + passwordOffset, passwordLength);
+    }
+
+    /**
+     * Декодирует кадр ответа.
+     *
+     * @param frame Буфер, содержащий кадр целиком с текущей позиции.
+     *
+     * @return Ответ.
+     *
+     * @throws SocketAuthorizationFailedException Если кадр некорректен.
+     */
+    static HandshakeResponse decodeResponse(ByteBuffer frame) throws SocketAuthorizationFailedException {
+        int bodyLength = bodyLength(frame);
+        byte verdict = frame.get(frame.position() + 2);
+        ByteBuffer body = body(frame, bodyLength);
+
+        byte[] ticket = null;
+        int accepted = 0;
+        try {
+            while (body.hasRemaining()) {
+                int type = body.get() & 0xFF;
+                int length = body.getShort() & 0xFFFF;
+                if (type == FIELD_TICKET) {
+                    checkLength("ticket", length, SessionTickets.MAX_TICKET_LENGTH);
+                    ticket = new byte[length];
+                    body.get(ticket);
+                } else if (type == FIELD_MULTIPLEXING) {
+                    accepted |= FLAG_MULTIPLEXING;
+                    skip(body, length);
+                } else if (type == FIELD_COMPRESSION) {
+                    accepted |= FLAG_COMPRESSION;
+                    skip(body, length);
+                } else {
+                    skip(body, length);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new SocketAuthorizationFailedException("Truncated handshake frame");
+        }
+        return new HandshakeResponse(verdict, ticket, accepted);
+    }
+
+    private static ByteBuffer body(ByteBuffer frame, int bodyLength) throws SocketAuthorizationFailedException {
+        if (frame.remaining() < HEADER_LENGTH + bodyLength) {
+            throw new SocketAuthorizationFailedException("Truncated handshake frame");
+        }
+        ByteBuffer body = frame.duplicate();
+        body.position(frame.position() + HEADER_LENGTH);
+        body.limit(body.position() + bodyLength);
+        return body;
+    }
+
+    private static int getUnsignedShort(byte[] array, int pos) {
+        return (array[pos] & 0xFF) << 8 | array[pos + 1] & 0xFF;
+    }
+
+    private static void putField(ByteBuffer buf, int type, byte[] value) {
+        buf.put((byte) type).putShort((short) value.length).put(value);
+    }
+
+    private static void skip(ByteBuffer body, int length) {
+        if (length > body.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        body.position(body.position() + length);
+    }
+
+    private static void checkLength(String field, int length, int max) throws SocketAuthorizationFailedException {
+        if (length > max) {
+            throw new SocketAuthorizationFailedException(
+                    "Handshake " + field + " is too long: " + length + " > " + max);
+        }
+    }
+
+    /** Запрос авторизации. */
+    static final class HandshakeRequest {
+
+        /** Флаги запроса. */
+        final int flags;
+        final String login;
+        final String password;
+        /** Билет возобновления сессии или null. */
+        final byte[] ticket;
+
+        HandshakeRequest(int flags, String login, String password, byte[] ticket) {
+            this.flags = flags;
+            this.login = login;
+            this.password = password;
+            this.ticket = ticket;
+        }
+    }
+
+    /** Ответ на запрос авторизации. */
+    static final class HandshakeResponse {
+
+        /** Результат авторизации. */
+        final byte verdict;
+        /** Новый билет возобновления сессии или null. */
+        final byte[] ticket;
+        /** Флаги запроса, с которыми согласен сервер. */
+        final int accepted;
+
+        HandshakeResponse(byte verdict, byte[] ticket) {
+            this(verdict, ticket, 0);
+        }
+
+        HandshakeResponse(byte verdict, byte[] ticket, int accepted) {
+            this.verdict = verdict;
+            this.ticket = ticket;
+            this.accepted = accepted;
+        }
+    }
+
+    /**
+     * Кадр версии формата, отличной от {@link #VERSION}.
+     */
+    static final class UnsupportedVersionException extends SocketAuthorizationFailedException {
+
+        /** Версия кадра. */
+        final int version;
+
+        UnsupportedVersionException(int version) {
+            super("Unsupported handshake version " + version + ", expected " + VERSION);
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.rmi.auth;
+
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ограничение количества одновременных аутентификаций: общего и для одного адреса
+ * клиента. Разрешения выдаются и возвращаются без блокировок через CAS.
+ * Количество выполняющихся аутентификаций учитывается и без пределов.<br>
+ * <br>
+ * Счетчики адресов хранятся в таблице фиксированного размера по отпечатку адреса
+ * без проверки совпадений, поэтому адреса с одинаковым индексом делят счетчик, и
+ * ограничение для адреса может сработать раньше, но не позже предела.
+ */
+final class HandshakeLimiter {
+
+    /** Количество счетчиков адресов. */
+    private static final int ADDRESS_SLOTS = 4096;
+    /** Максимальное время ожидания разрешения между проверками, нс. */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    ////
+    /** Количество выполняющихся аутентификаций. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /** Количество выполняющихся аутентификаций по адресам. */
+    private final AtomicIntegerArray perAddress = new AtomicIntegerArray(ADDRESS_SLOTS);
+    /** Хэш адресов с ключом экземпляра, чтобы клиент не мог занять счетчик чужого адреса. */
+    private final AddressHasher hasher = new AddressHasher();
+    /** Потоки, ожидающие разрешения. */
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+    /** Общий предел, 0 - без ограничения. */
+    private volatile int maxInFlight;
+    /** Предел для адреса, 0 - без ограничения. */
+    private volatile int maxPerAddress;
+    /** Поведение при достижении общего предела. */
+    private volatile OverloadPolicy policy = OverloadPolicy.REJECT;
+
+    /**
+     * Изменяет пределы. Действует на последующие соединения.
+     *
+     * @param maxInFlight Общий предел, 0 - без ограничения.
+     * @param maxPerAddress Предел для адреса клиента, 0 - без ограничения.
+     * @param policy Поведение при достижении общего предела.
+     */
+    void configure(int maxInFlight, int maxPerAddress, OverloadPolicy policy) {
+        this.maxInFlight = maxInFlight;
+        this.maxPerAddress = maxPerAddress;
+        this.policy = policy;
+        wakeWaiters();
+    }
+
+    /**
+     * @return Количество выполняющихся аутентификаций.
+     */
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private boolean isBlocking() {
+        return policy == OverloadPolicy.BLOCK && maxInFlight > 0;
+    }
+
+    private boolean hasCapacity() {
+        int max = maxInFlight;
+        return max <= 0 || inFlight.get() < max;
+    }
+
+    /**
+     * @return Можно ли принимать новые соединения: общий предел не достигнут или
+     *      прием при перегрузке не приостанавливается.
+     */
+    boolean canAccept() {
+        return !isBlocking() || hasCapacity();
+    }
+
+    /**
+     * Ожидает, пока можно будет принимать новые соединения.
+     *
+     * @param timeout Максимальное время ожидания, мс.
+     *
+     * @return Результат {@link #canAccept()} по окончании ожидания.
+     */
+    boolean awaitCapacity(long timeout) {
+        if (canAccept()) {
+            return true;
+        }
+
+        Thread current = Thread.currentThread();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        waiters.offer(current);
+        try {
+            while (!canAccept()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || current.isInterrupted()) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+            }
+            return true;
+        } finally {
+            waiters.remove(current);
+        }
+    }
+
+    /**
+     * Получает разрешение на аутентификацию соединения.
+     *
+     * @param address Адрес клиента или null, если неизвестен.
+     *
+     * @return False, если предел достигнут.
+     */
+    boolean tryAcquire(InetAddress address) {
+        while (true) {
+            int current = inFlight.get();
+            int max = maxInFlight;
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+
+        int slot = slot(address);
+        while (true) {
+            int current = perAddress.get(slot);
+            int max = maxPerAddress;
+            if (max > 0 && current >= max) {
+                release();
+                return false;
+            }
+            if (perAddress.compareAndSet(slot, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Возвращает разрешение, полученное {@link #tryAcquire(InetAddress)}.
+     */
+    void release(InetAddress address) {
+        perAddress.decrementAndGet(slot(address));
+        release();
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        wakeWaiters();
+    }
+
+    private void wakeWaiters() {
+        Thread waiter = waiters.peek();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private int slot(InetAddress address) {
+        if (address == null) {
+            return 0;
+        }
+        return hasher.hash(address) & (ADDRESS_SLOTS - 1);
+    }
+}
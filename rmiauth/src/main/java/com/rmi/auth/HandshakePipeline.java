@@ -0,0 +1,154 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Конвейерный прием соединений. Отдельный поток принимает соединения серверного
+ * сокета и передает аутентификацию в пул потоков, а {@link #take(int)} возвращает
+ * уже авторизованные сокеты из очереди готовых соединений. Таким образом медленный
+ * клиент не задерживает прием соединений остальных клиентов.
+ */
+final class HandshakePipeline {
+
+    /** Пауза после ошибки accept(), чтобы не нагружать процессор при нехватке дескрипторов. */
+    private static final long ACCEPT_FAILURE_PAUSE_MILLIS = 10;
+    /** Период проверки закрытия конвейера при ожидании места для соединения, мс. */
+    private static final long CAPACITY_WAIT_MILLIS = 1000;
+    ////
+    private final ServerSocket sock;
+    /** Аутентификация принятых соединений. */
+    private final ServerSocketAuthenticator authenticator;
+    /** Пул потоков аутентификации. */
+    private final Executor executor;
+    /** Авторизованные сокеты. */
+    private final AcceptedSocketQueue ready = new AcceptedSocketQueue();
+    /** Поток приема соединений. */
+    private final Thread acceptor;
+    ////
+    private static final Logger log = Logger.getLogger(HandshakePipeline.class.getName());
+
+    public HandshakePipeline(ServerSocket sock, ServerSocketAuthenticator authenticator, Executor executor) {
+        if (sock == null) {
+            throw new NullPointerException("sock");
+        }
+        if (authenticator == null) {
+            throw new NullPointerException("authenticator");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+
+        this.sock = sock;
+        this.authenticator = authenticator;
+        this.executor = executor;
+
+        acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "RMI auth acceptor-" + sock.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Возвращает очередной авторизованный сокет.
+     *
+     * @param timeout Время ожидания в миллисекундах, 0 - без ограничения.
+     *
+     * @return Авторизованный сокет.
+     *
+     * @throws IOException Если серверный сокет закрыт, истекло время ожидания
+     *      или произошла ошибка приема соединения.
+     */
+    public Socket take(int timeout) throws IOException {
+        return ready.take(timeout);
+    }
+
+    /**
+     * Закрывает конвейер и все авторизованные, но еще не выданные сокеты.
+     * Сам серверный сокет должен быть закрыт вызывающей стороной.
+     */
+    public void close() {
+        ready.close();
+    }
+
+    private void acceptLoop() {
+        while (!ready.isClosed()) {
+            if (!authenticator.awaitCapacity(CAPACITY_WAIT_MILLIS)) {
+                // соединения ожидают в очереди ядра
+                continue;
+            }
+
+            final Socket socket;
+            try {
+                socket = sock.accept();
+            } catch (IOException e) {
+                if (ready.isClosed() || sock.isClosed()) {
+                    ready.close();
+                    return;
+                }
+
+                log.log(Level.WARNING, "Failed to accept connection", e);
+                ready.fail(e);
+                pause();
+                continue;
+            }
+            if (!authenticator.admit(socket)) {
+                continue;
+            }
+
+            final long acceptedAt = System.nanoTime();
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        authorize(socket, acceptedAt);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.log(Level.WARNING, "Handshake executor rejected connection", e);
+                authenticator.release(socket.getInetAddress());
+                AcceptedSocketQueue.closeQuietly(socket);
+            }
+        }
+    }
+
+    private void authorize(final Socket accepted, long acceptedAt) {
+        // поток освобождается, не дожидаясь ответа авторизатора
+        authenticator.authenticateAsync(accepted, ready, acceptedAt).whenComplete(new BiConsumer<Socket, Throwable>() {
+
+            @Override
+            public void accept(Socket socket, Throwable failure) {
+                if (failure != null) {
+                    log.log(Level.FINE, "Socket connection handshake failed", failure);
+                    AcceptedSocketQueue.closeQuietly(accepted);
+                    return;
+                }
+
+                if (socket != null) {
+                    // мультиплексированное соединение передает свои потоки в очередь само
+                    ready.offer(socket);
+                }
+            }
+        });
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(ACCEPT_FAILURE_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.rmi.auth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика аутентификации соединений серверных сокетов фабрики.
+ * Счетчики не создают конкуренции между потоками аутентификации.<br>
+ * <br>
+ * Каждый серверный сокет фабрики регистрирует статистику в платформенном
+ * MBeanServer под именем <tt>com.rmi.auth:type=HandshakeStatistics,port=&lt;порт&gt;</tt>
+ * на время своей работы. Длительности указываются в наносекундах.
+ */
+public final class HandshakeStatistics implements HandshakeStatisticsMBean {
+
+    /** Количество принятых соединений, включая отклоненные до аутентификации. */
+    private final LongAdder acceptedConnections = new LongAdder();
+    /** Количество соединений, не прошедших авторизацию. */
+    private final LongAdder failedAuthorizations = new LongAdder();
+    /** Количество соединений, закрытых по истечении срока аутентификации. */
+    private final LongAdder expiredHandshakes = new LongAdder();
+    /** Количество соединений, отклоненных до аутентификации. */
+    private final LongAdder rejectedConnections = new LongAdder();
+    /** Количество соединений, отклоненных из-за предела одновременных аутентификаций. */
+    private final LongAdder overloadedConnections = new LongAdder();
+    /** Количество полных TLS-рукопожатий. */
+    private final LongAdder fullTlsHandshakes = new LongAdder();
+    /** Количество сокращенных TLS-рукопожатий. */
+    private final LongAdder resumedTlsHandshakes = new LongAdder();
+    /** Количество проверок данных авторизации. */
+    private final LongAdder credentialChecks = new LongAdder();
+    /** Суммарное время проверок данных авторизации, нс. */
+    private final LongAdder credentialCheckNanos = new LongAdder();
+    /** Количество локальных соединений, авторизованных по учетным данным процесса. */
+    private final LongAdder peerAuthorizations = new LongAdder();
+    /** Количество локальных соединений, не прошедших авторизацию по учетным данным процесса. */
+    private final LongAdder peerRejections = new LongAdder();
+    /** Длительность аутентификации от приема соединения до отправки ответа об успехе. */
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+    /** Длительность TLS-рукопожатий. */
+    private final LatencyHistogram tlsHandshakeLatency = new LatencyHistogram();
+    /** Длительность проверок авторизатором. */
+    private final LatencyHistogram authorizerLatency = new LatencyHistogram();
+    /** Ограничение одновременных аутентификаций. */
+    private final HandshakeLimiter limiter;
+
+    HandshakeStatistics(HandshakeLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * @return Количество принятых соединений, включая отклоненные до аутентификации.
+     */
+    @Override
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    /**
+     * @return Количество авторизованных соединений.
+     */
+    @Override
+    public long getAuthorizedConnections() {
+        return handshakeLatency.getCount();
+    }
+
+    /**
+     * @return Количество соединений, не прошедших авторизацию или отправивших
+     *      некорректный запрос.
+     */
+    @Override
+    public long getFailedAuthorizations() {
+        return failedAuthorizations.sum();
+    }
+
+    /**
+     * @return Количество соединений, аутентификация которых выполняется в данный момент.
+     */
+    @Override
+    public int getHandshakesInFlight() {
+        return limiter.inFlight();
+    }
+
+    /**
+     * @return Количество соединений, закрытых по истечении срока аутентификации.
+     */
+    @Override
+    public long getExpiredHandshakes() {
+        return expiredHandshakes.sum();
+    }
+
+    /**
+     * @return Количество соединений, отклоненных до аутентификации из-за
+     *      превышения количества неудач с адреса клиента.
+     */
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    /**
+     * @return Количество соединений, отклоненных из-за превышения предела
+     *      одновременных аутентификаций.
+     */
+    @Override
+    public long getOverloadedConnections() {
+        return overloadedConnections.sum();
+    }
+
+    /**
+     * @return Количество TLS-соединений, установленных с полным рукопожатием.
+     */
+    @Override
+    public long getFullTlsHandshakes() {
+        return fullTlsHandshakes.sum();
+    }
+
+    /**
+     * @return Количество TLS-соединений, возобновивших сессию из кэша с
+     *      сокращенным рукопожатием.
+     */
+    @Override
+    public long getResumedTlsHandshakes() {
+        return resumedTlsHandshakes.sum();
+    }
+
+    /**
+     * @return Суммарное время завершенных TLS-рукопожатий в наносекундах.
+     */
+    @Override
+    public long getTlsHandshakeTime() {
+        return tlsHandshakeLatency.getTotalTime();
+    }
+
+    /**
+     * @return Количество проверок данных авторизации, включая неудачные.
+     */
+    @Override
+    public long getCredentialChecks() {
+        return credentialChecks.sum();
+    }
+
+    /**
+     * @return Суммарное время проверок данных авторизации в наносекундах: от начала
+     *      чтения запроса после TLS-рукопожатия до решения авторизатора.
+     */
+    @Override
+    public long getCredentialCheckTime() {
+        return credentialCheckNanos.sum();
+    }
+
+    /**
+     * @return Количество соединений через сокет Unix, авторизованных по учетным
+     *      данным процесса клиента.
+     */
+    @Override
+    public long getPeerAuthorizations() {
+        return peerAuthorizations.sum();
+    }
+
+    /**
+     * @return Количество соединений через сокет Unix, не прошедших авторизацию по
+     *      учетным данным процесса клиента.
+     */
+    @Override
+    public long getPeerRejections() {
+        return peerRejections.sum();
+    }
+
+    /**
+     * @return Длительность аутентификации авторизованных соединений от приема
+     *      соединения до отправки ответа об успехе, включая TLS-рукопожатие,
+     *      ожидание в очереди пула и проверку авторизатором.
+     */
+    public LatencyHistogram getHandshakeLatency() {
+        return handshakeLatency;
+    }
+
+    /**
+     * @return Длительность завершенных TLS-рукопожатий.
+     */
+    public LatencyHistogram getTlsHandshakeLatency() {
+        return tlsHandshakeLatency;
+    }
+
+    /**
+     * @return Длительность проверок логина и пароля авторизатором. Билеты
+     *      возобновления сессии проверяются без авторизатора и не учитываются.
+     */
+    public LatencyHistogram getAuthorizerLatency() {
+        return authorizerLatency;
+    }
+
+    @Override
+    public long getHandshakeLatencyP50() {
+        return handshakeLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getHandshakeLatencyP99() {
+        return handshakeLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getHandshakeLatencyP999() {
+        return handshakeLatency.getPercentile(0.999);
+    }
+
+    @Override
+    public long getTlsHandshakeLatencyP50() {
+        return tlsHandshakeLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getTlsHandshakeLatencyP99() {
+        return tlsHandshakeLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getTlsHandshakeLatencyP999() {
+        return tlsHandshakeLatency.getPercentile(0.999);
+    }
+
+    @Override
+    public long getAuthorizerLatencyP50() {
+        return authorizerLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getAuthorizerLatencyP99() {
+        return authorizerLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getAuthorizerLatencyP999() {
+        return authorizerLatency.getPercentile(0.999);
+    }
+
+    void connectionAccepted() {
+        acceptedConnections.increment();
+    }
+
+    void connectionAuthorized(long nanos) {
+        handshakeLatency.record(nanos);
+    }
+
+    void authorizationFailed() {
+        failedAuthorizations.increment();
+    }
+
+    void authorizerCompleted(long nanos) {
+        authorizerLatency.record(nanos);
+    }
+
+    void handshakeExpired() {
+        expiredHandshakes.increment();
+    }
+
+    void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    void connectionOverloaded() {
+        overloadedConnections.increment();
+    }
+
+    void tlsHandshakeCompleted(boolean resumed, long nanos) {
+        (resumed ? resumedTlsHandshakes : fullTlsHandshakes).increment();
+        tlsHandshakeLatency.record(nanos);
+    }
+
+    void credentialsChecked(long nanos) {
+        credentialChecks.increment();
+        credentialCheckNanos.add(nanos);
+    }
+
+    void peerChecked(boolean authorized) {
+        (authorized ? peerAuthorizations : peerRejections).increment();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("HandshakeStatistics [");
+        builder.append("acceptedConnections=").append(getAcceptedConnections());
+        builder.append(", authorizedConnections=").append(getAuthorizedConnections());
+        builder.append(", failedAuthorizations=").append(getFailedAuthorizations());
+        builder.append(", expiredHandshakes=").append(getExpiredHandshakes());
+        builder.append(", rejectedConnections=").append(getRejectedConnections());
+        builder.append(", overloadedConnections=").append(getOverloadedConnections());
+        builder.append(", fullTlsHandshakes=").append(getFullTlsHandshakes());
+        builder.append(", resumedTlsHandshakes=").append(getResumedTlsHandshakes());
+        builder.append(", tlsHandshakeTime=").append(getTlsHandshakeTime());
+        builder.append(", credentialChecks=").append(getCredentialChecks());
+        builder.append(", credentialCheckTime=").append(getCredentialCheckTime());
+        builder.append(", peerAuthorizations=").append(getPeerAuthorizations());
+        builder.append(", peerRejections=").append(getPeerRejections());
+        builder.append(", handshakesInFlight=").append(getHandshakesInFlight());
+        builder.append(", handshakeLatency=").append(handshakeLatency);
+        builder.append(", authorizerLatency=").append(authorizerLatency);
+        builder.append("]");
+        return builder.toString();
+    }
+}
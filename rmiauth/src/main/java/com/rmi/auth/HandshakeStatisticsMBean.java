@@ -0,0 +1,55 @@
+package com.rmi.auth;
+
+/**
+ * Атрибуты JMX статистики аутентификации серверного сокета.
+ *
+ * @see HandshakeStatistics
+ */
+public interface HandshakeStatisticsMBean {
+
+    long getAcceptedConnections();
+
+    long getAuthorizedConnections();
+
+    long getFailedAuthorizations();
+
+    int getHandshakesInFlight();
+
+    long getExpiredHandshakes();
+
+    long getRejectedConnections();
+
+    long getOverloadedConnections();
+
+    long getFullTlsHandshakes();
+
+    long getResumedTlsHandshakes();
+
+    long getTlsHandshakeTime();
+
+    long getCredentialChecks();
+
+    long getCredentialCheckTime();
+
+    long getPeerAuthorizations();
+
+    long getPeerRejections();
+
+    long getHandshakeLatencyP50();
+
+    long getHandshakeLatencyP99();
+
+    long getHandshakeLatencyP999();
+
+    long getTlsHandshakeLatencyP50();
+
+    long getTlsHandshakeLatencyP99();
+
+    long getTlsHandshakeLatencyP999();
+
+    long getAuthorizerLatencyP50();
+
+    long getAuthorizerLatencyP99();
+
+    long getAuthorizerLatencyP999();
+}
@@ -0,0 +1,233 @@
+package com.rmi.auth;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Таймер на основе хешированного колеса для сроков аутентификации соединений.
+ * Все сроки обслуживаются одним потоком, стоимость постановки и отмены срока O(1),
+ * точность срабатывания ограничена длительностью такта.
+ */
+final class HandshakeTimer {
+
+    /** Длительность такта по умолчанию, мс. */
+    private static final long DEFAULT_TICK_MILLIS = 50;
+    /** Количество ячеек колеса по умолчанию, степень двойки. */
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    /** Максимальное количество новых сроков, переносимых в колесо за один такт. */
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+    ////
+    private static volatile HandshakeTimer shared;
+    ////
+    /** Длительность такта, нс. */
+    private final long tickNanos;
+    /** Ячейки колеса, доступны только потоку таймера. */
+    private final Bucket[] wheel;
+    private final int mask;
+    /** Новые сроки, еще не перенесенные в колесо. */
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    /** Время запуска таймера, нс. */
+    private final long startTime;
+    /** Номер текущего такта, доступен только потоку таймера. */
+    private long tick;
+    ////
+    private static final Logger log = Logger.getLogger(HandshakeTimer.class.getName());
+
+    HandshakeTimer(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis = " + tickMillis);
+        }
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("wheelSize = " + wheelSize);
+        }
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+
+        Thread worker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                workerLoop();
+            }
+        }, "RMI auth handshake timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return Общий таймер, создается при первом обращении.
+     */
+    static HandshakeTimer shared() {
+        HandshakeTimer timer = shared;
+        if (timer == null) {
+            synchronized (HandshakeTimer.class) {
+                timer = shared;
+                if (timer == null) {
+                    timer = new HandshakeTimer(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+                    shared = timer;
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Планирует выполнение задачи по истечении срока. Задача выполняется в потоке
+     * таймера и должна быть быстрой.
+     *
+     * @param task Задача.
+     * @param delayMillis Срок в миллисекундах.
+     *
+     * @return Срок, который можно отменить.
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void workerLoop() {
+        while (true) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    // поток таймера не завершается
+                }
+            }
+
+            transferPending();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = pending.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.isCancelled()) {
+                continue;
+            }
+
+            long expireTick = Math.max((timeout.deadline - startTime) / tickNanos, tick);
+            timeout.remainingRounds = (expireTick - tick) / wheel.length;
+            wheel[(int) (expireTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                bucket.remove(timeout);
+            } else if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /** Запланированный срок. */
+    static final class Timeout {
+
+        private static final int ST_PENDING = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+        ////
+        private final Runnable task;
+        /** Момент срабатывания, нс. */
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_PENDING);
+        /** Количество оборотов колеса до срабатывания, доступно только потоку таймера. */
+        private long remainingRounds;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Отменяет срок.
+         *
+         * @return True, если срок отменен до срабатывания, false, если задача уже
+         *      выполнена или выполняется.
+         */
+        boolean cancel() {
+            return state.compareAndSet(ST_PENDING, ST_CANCELLED) || state.get() == ST_CANCELLED;
+        }
+
+        boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Handshake timer task failed", e);
+            }
+        }
+    }
+
+    /** Двусвязный список сроков одной ячейки колеса. */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
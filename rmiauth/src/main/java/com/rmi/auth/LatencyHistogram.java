@@ -0,0 +1,157 @@
+package com.rmi.auth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с логарифмическими интервалами: каждый интервал
+ * от 2<sup>n</sup> до 2<sup>n+1</sup> нс, начиная с 1 мкс, делится на четыре
+ * равные части, поэтому погрешность процентилей не превышает 25%. Счетчики
+ * интервалов не создают конкуренции между потоками, запись не выделяет память.<br>
+ * <br>
+ * Значения накапливаются с момента создания. Для оценки за период можно вычесть
+ * снимки {@link #getBucketCounts()}, сделанные в начале и конце периода.
+ */
+public final class LatencyHistogram {
+
+    /** Степень двойки нижней границы первого интервала после начального, нс. */
+    private static final int MIN_EXPONENT = 10;
+    /** Степень двойки нижней границы последнего интервала, нс (около 18 минут). */
+    private static final int MAX_EXPONENT = 40;
+    /** Двоичный логарифм количества частей интервала. */
+    private static final int SUB_BITS = 2;
+    /** Количество частей интервала. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Количество счетчиков: начальный, части интервалов и последний. */
+    private static final int BUCKETS = 1 + (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 1;
+    ////
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    /** Суммарная длительность, нс. */
+    private final LongAdder total = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos Длительность, нс.
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            // часы могут идти назад между ядрами на некоторых платформах
+            nanos = 0;
+        }
+        buckets[bucket(nanos)].increment();
+        total.add(nanos);
+    }
+
+    /**
+     * @return Количество записанных значений.
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return Суммарная длительность, нс.
+     */
+    public long getTotalTime() {
+        return total.sum();
+    }
+
+    /**
+     * @param quantile Квантиль от 0 до 1, например 0.99.
+     *
+     * @return Верхняя граница интервала, в который попадает квантиль, нс, или 0,
+     *      если значений нет.
+     */
+    public long getPercentile(double quantile) {
+        if (!(quantile >= 0 && quantile <= 1)) {
+            throw new IllegalArgumentException("quantile = " + quantile);
+        }
+
+        long[] counts = getBucketCounts();
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    /**
+     * @return Снимок количества значений в интервалах. Границы интервалов
+     *      возвращает {@link #getBucketBounds()}.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return Верхние границы интервалов, нс, граница последнего интервала -
+     *      {@link Long#MAX_VALUE}.
+     */
+    public static long[] getBucketBounds() {
+        long[] bounds = new long[BUCKETS];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = upperBound(i);
+        }
+        return bounds;
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < 1L << MIN_EXPONENT) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket == 0) {
+            return 1L << MIN_EXPONENT;
+        }
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("LatencyHistogram [");
+        builder.append("count=").append(getCount());
+        builder.append(", totalTime=").append(getTotalTime());
+        builder.append(", p50=").append(getPercentile(0.5));
+        builder.append(", p99=").append(getPercentile(0.99));
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package com.rmi.auth;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Правила доступа к методам удаленного объекта: какие методы разрешены роли и
+ * какие роли у логина. Используются {@link AuthorizingExporter} при экспорте и
+ * копируются, поэтому последующие изменения на экспортированные объекты не
+ * влияют. Не потокобезопасен.
+ */
+public final class MethodAccessRules {
+
+    /** Имя, разрешающее все методы удаленных интерфейсов. */
+    public static final String ALL_METHODS = "*";
+    ////
+    /** Имена разрешенных методов по ролям. */
+    private final Map<String, Set<String>> roleMethods = new HashMap<String, Set<String>>();
+    /** Роли по логинам. */
+    private final Map<String, Set<String>> loginRoles = new HashMap<String, Set<String>>();
+
+    /**
+     * Разрешает роли вызов методов.
+     *
+     * @param role Роль.
+     * @param methods Имена методов удаленных интерфейсов, включая все перегрузки,
+     *      или {@link #ALL_METHODS}.
+     *
+     * @return Этот объект.
+     */
+    public MethodAccessRules grant(String role, String... methods) {
+        if (role == null) {
+            throw new NullPointerException("role");
+        }
+        for (String method : methods) {
+            if (method == null) {
+                throw new NullPointerException("method");
+            }
+        }
+
+        Set<String> granted = roleMethods.get(role);
+        if (granted == null) {
+            granted = new HashSet<String>();
+            roleMethods.put(role, granted);
+        }
+        Collections.addAll(granted, methods);
+        return this;
+    }
+
+    /**
+     * Назначает логину роли.
+     *
+     * @param login Логин.
+     * @param roles Роли.
+     *
+     * @return Этот объект.
+     */
+    public MethodAccessRules assign(String login, String... roles) {
+        if (login == null) {
+            throw new NullPointerException("login");
+        }
+        for (String role : roles) {
+            if (role == null) {
+                throw new NullPointerException("role");
+            }
+        }
+
+        Set<String> assigned = loginRoles.get(login);
+        if (assigned == null) {
+            assigned = new HashSet<String>();
+            loginRoles.put(login, assigned);
+        }
+        Collections.addAll(assigned, roles);
+        return this;
+    }
+
+    /**
+     * Строит битовые множества разрешенных методов для логинов.
+     *
+     * @param ordinals Номера методов по именам; у перегрузок разные номера.
+     * @param methodCount Количество методов.
+     *
+     * @return Битовые множества по логинам, бит номера метода установлен, если
+     *      вызов разрешен.
+     *
+     * @throws IllegalArgumentException Если в правилах указан неизвестный метод.
+     */
+    Map<String, long[]> compile(Map<String, int[]> ordinals, int methodCount) {
+        Map<String, long[]> roleBits = new HashMap<String, long[]>();
+        for (Map.Entry<String, Set<String>> entry : roleMethods.entrySet()) {
+            long[] bits = new long[(methodCount + 63) >>> 6];
+            for (String method : entry.getValue()) {
+                if (ALL_METHODS.equals(method)) {
+                    for (int i = 0; i < methodCount; i++) {
+                        bits[i >>> 6] |= 1L << i;
+                    }
+                    continue;
+                }
+                int[] overloads = ordinals.get(method);
+                if (overloads == null) {
+                    throw new IllegalArgumentException("method = " + method);
+                }
+                for (int ordinal : overloads) {
+                    bits[ordinal >>> 6] |= 1L << ordinal;
+                }
+            }
+            roleBits.put(entry.getKey(), bits);
+        }
+
+        Map<String, long[]> loginBits = new HashMap<String, long[]>();
+        for (Map.Entry<String, Set<String>> entry : loginRoles.entrySet()) {
+            long[] bits = new long[(methodCount + 63) >>> 6];
+            for (String role : entry.getValue()) {
+                long[] granted = roleBits.get(role);
+                if (granted == null) {
+                    continue;
+                }
+                for (int i = 0; i < bits.length; i++) {
+                    bits[i] |= granted[i];
+                }
+            }
+            loginBits.put(entry.getKey(), bits);
+        }
+        return loginBits;
+    }
+}
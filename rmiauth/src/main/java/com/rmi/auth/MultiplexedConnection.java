@@ -0,0 +1,775 @@
+package com.rmi.auth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Мультиплексирование виртуальных соединений поверх одного авторизованного
+ * соединения. Клиент открывает виртуальные соединения, сервер передает их в
+ * accept() как обычные авторизованные сокеты.<br>
+ * <br>
+ * Кадр: <tt>[тип][номер потока, 4 байта][длина, 2 байта][данные]</tt>.
+ * Каждый поток имеет собственное окно передачи: отправитель передает не больше
+ * данных, чем получатель разрешил кадрами {@link #FRAME_WINDOW}, поэтому медленный
+ * читатель одного потока не задерживает остальные, а буфер потока ограничен.
+ * Кадр {@link #FRAME_CLOSE} означает, что отправитель больше не передает данные
+ * в поток; поток удаляется после закрытия с обеих сторон. Количество открытых
+ * потоков соединения ограничено {@link #MAX_STREAMS}. Открытие потока с номером не
+ * больше открытого ранее и данные для неоткрывавшегося потока закрывают соединение
+ * как нарушение протокола. Обе стороны закрывают соединение, простаивающее без
+ * потоков.<br>
+ * <br>
+ * Поток чтения кадров не пишет в соединение: кадры окна и завершения ставятся в
+ * очередь и записываются потоком записи или ближайшей записью кадра данных, иначе
+ * при заполненных буферах отправки обеих сторон потоки чтения ожидали бы друг друга.
+ */
+final class MultiplexedConnection {
+
+    /** Кадр открытия потока клиентом. */
+    static final int FRAME_OPEN = 1;
+    /** Кадр данных потока. */
+    static final int FRAME_DATA = 2;
+    /** Кадр увеличения окна передачи потока: 4 байта приращения. */
+    static final int FRAME_WINDOW = 3;
+    /** Кадр завершения передачи в поток. */
+    static final int FRAME_CLOSE = 4;
+    /** Длина заголовка кадра. */
+    static final int HEADER_LENGTH = 7;
+    /** Максимальная длина данных кадра. */
+    static final int MAX_PAYLOAD = 16384;
+    /** Начальное окно передачи потока. */
+    static final int INITIAL_WINDOW = 65536;
+    /** Максимальное количество открытых потоков соединения. */
+    static final int MAX_STREAMS = 256;
+    /**
+     * Время простоя клиентского соединения без потоков до закрытия, мс. Сервер
+     * закрывает простаивающее соединение через вдвое большее время, чтобы не закрыть
+     * его одновременно с открытием потока клиентом.
+     */
+    static final long IDLE_TIMEOUT = 60000;
+    /** Период проверки простоя соединения, мс. */
+    private static final int IDLE_CHECK_MILLIS = 1000;
+    ////
+    /** Физическое соединение. */
+    private final Socket socket;
+    private final InputStream in;
+    /** Поток записи кадров, доступ под блокировкой на самом объекте. */
+    private final DataOutputStream out;
+    /** Кадры окна и завершения, извлекаются под блокировкой {@link #out}. */
+    private final Queue<byte[]> control = new ConcurrentLinkedQueue<byte[]>();
+    /** Разрешения потоку записи по одному на кадр в {@link #control}. */
+    private final Semaphore controlQueued = new Semaphore(0);
+    /** Очередь принятых соединений сервера или null на стороне клиента. */
+    private final AcceptedSocketQueue accepted;
+    /** Участник соединения для {@link AuthContext} или null. */
+    private final Object principal;
+    /** Открытые потоки по номерам. */
+    private final ConcurrentMap<Integer, Stream> streams = new ConcurrentHashMap<Integer, Stream>();
+    /** Номер следующего потока клиента. */
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    /** Наибольший номер потока, открытого клиентом, на стороне сервера; доступ из потока чтения. */
+    private int lastOpenedId;
+    /** Время простоя соединения без потоков до закрытия, нс. */
+    private final long idleTimeout;
+    /** Ошибка, закрывшая соединение, или null. */
+    private volatile IOException failure;
+    /** Момент, с которого у соединения нет потоков, нс. */
+    private volatile long idleSince = System.nanoTime();
+    ////
+    private static final Logger log = Logger.getLogger(MultiplexedConnection.class.getName());
+
+    /**
+     * Конструктор. Запускает потоки чтения и записи кадров.
+     *
+     * @param socket Авторизованное соединение, для которого стороны согласовали
+     *      мультиплексирование.
+     * @param accepted Очередь, в которую передаются потоки, открытые клиентом,
+     *      или null на стороне клиента.
+     */
+    MultiplexedConnection(Socket socket, AcceptedSocketQueue accepted) throws IOException {
+        this(socket, accepted, null);
+    }
+
+    /**
+     * Конструктор. Запускает потоки чтения и записи кадров.
+     *
+     * @param socket Авторизованное соединение, для которого стороны согласовали
+     *      мультиплексирование.
+     * @param accepted Очередь, в которую передаются потоки, открытые клиентом,
+     *      или null на стороне клиента.
+     * @param principal Участник соединения, связываемый с потоками, читающими из
+     *      виртуальных соединений, или null.
+     */
+    MultiplexedConnection(Socket socket, AcceptedSocketQueue accepted, Object principal) throws IOException {
+        this.socket = socket;
+        this.accepted = accepted;
+        this.principal = principal;
+        this.in = new BufferedInputStream(socket.getInputStream(), MAX_PAYLOAD + HEADER_LENGTH);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), MAX_PAYLOAD + HEADER_LENGTH));
+
+        this.idleTimeout = (accepted == null ? IDLE_TIMEOUT : 2 * IDLE_TIMEOUT) * 1000000L;
+
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.setSoTimeout(IDLE_CHECK_MILLIS);
+
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "RMI auth mux-" + socket.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+
+        Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "RMI auth mux writer-" + socket.getRemoteSocketAddress());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return Открыто ли соединение.
+     */
+    boolean isOpen() {
+        return failure == null;
+    }
+
+    /**
+     * Открывает поток на стороне клиента. Вызовы не должны выполняться одновременно.
+     *
+     * @return Виртуальное соединение или null, если открыто {@link #MAX_STREAMS} потоков.
+     *
+     * @throws IOException Если соединение закрыто.
+     */
+    Socket openStream() throws IOException {
+        if (streams.size() >= MAX_STREAMS) {
+            return null;
+        }
+        int id = nextId.getAndIncrement();
+        Stream stream = new Stream(id);
+        streams.put(id, stream);
+        try {
+            writeFrame(FRAME_OPEN, id, null, 0, 0);
+        } catch (IOException e) {
+            streams.remove(id);
+            throw e;
+        }
+        return stream.socket;
+    }
+
+    /**
+     * Закрывает соединение и все его потоки.
+     */
+    void close() {
+        fail(new SocketException("Multiplexed connection closed"));
+    }
+
+    private void readLoop() {
+        byte[] header = new byte[HEADER_LENGTH];
+        try {
+            while (true) {
+                if (!readHeader(header)) {
+                    fail(new EOFException("Multiplexed connection closed by peer"));
+                    return;
+                }
+
+                int type = header[0];
+                int id = (header[1] & 0xFF) << 24 | (header[2] & 0xFF) << 16 | (header[3] & 0xFF) << 8 | header[4] & 0xFF;
+                int length = (header[5] & 0xFF) << 8 | header[6] & 0xFF;
+                if (length > MAX_PAYLOAD) {
+                    throw new IOException("Multiplexed frame is too long: " + length);
+                }
+                byte[] payload = new byte[length];
+                readFully(payload, 0, length);
+
+                dispatch(type, id, payload);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void dispatch(int type, int id, byte[] payload) throws IOException {
+        Stream stream = streams.get(id);
+        switch (type) {
+            case FRAME_OPEN:
+                // клиент открывает потоки с возрастающими номерами
+                if (accepted == null || id <= lastOpenedId) {
+                    throw new IOException("Unexpected multiplexed stream " + id);
+                }
+                if (streams.size() >= MAX_STREAMS) {
+                    throw new IOException("Too many multiplexed streams");
+                }
+                lastOpenedId = id;
+                stream = new Stream(id);
+                streams.put(id, stream);
+                accepted.offer(new PrincipalSocket(stream.socket, principal));
+                break;
+            case FRAME_DATA:
+                if (stream != null) {
+                    stream.receive(payload);
+                } else if (wasOpened(id)) {
+                    // поток закрыт с этой стороны, окно возвращается отправителю
+                    queueWindow(id, payload.length);
+                } else {
+                    throw new IOException("Data for unknown multiplexed stream " + id);
+                }
+                break;
+            case FRAME_WINDOW:
+                if (payload.length != 4) {
+                    throw new IOException("Malformed multiplexed window frame");
+                }
+                if (stream != null) {
+                    stream.grant((payload[0] & 0xFF) << 24 | (payload[1] & 0xFF) << 16
+                            | (payload[2] & 0xFF) << 8 | payload[3] & 0xFF);
+                }
+                break;
+            case FRAME_CLOSE:
+                if (stream != null) {
+                    stream.remoteClosed();
+                }
+                break;
+            default:
+                throw new IOException("Unknown multiplexed frame type " + type);
+        }
+    }
+
+    /**
+     * Читает заголовок кадра, ожидая между кадрами с проверкой простоя.
+     *
+     * @return False, если соединение закрыто другой стороной или по простою.
+     */
+    private boolean readHeader(byte[] header) throws IOException {
+        while (true) {
+            int first;
+            try {
+                first = in.read();
+            } catch (SocketTimeoutException e) {
+                if (streams.isEmpty() && System.nanoTime() - idleSince > idleTimeout) {
+                    log.log(Level.FINE, "Closing idle multiplexed connection {0}", socket);
+                    return false;
+                }
+                continue;
+            }
+            if (first < 0) {
+                return false;
+            }
+            header[0] = (byte) first;
+            readFully(header, 1, HEADER_LENGTH - 1);
+            return true;
+        }
+    }
+
+    /**
+     * Читает ровно <tt>length</tt> байт. Таймаут чтения физического соединения
+     * служит только для проверки простоя и не прерывает чтение кадра.
+     */
+    private void readFully(byte[] b, int off, int length) throws IOException {
+        int end = off + length;
+        while (off < end) {
+            int n;
+            try {
+                n = in.read(b, off, end - off);
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            if (n < 0) {
+                throw new EOFException("Multiplexed connection closed by peer");
+            }
+            off += n;
+        }
+    }
+
+    /**
+     * Записывает кадры окна и завершения из очереди, пока соединение открыто.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                controlQueued.acquire();
+                if (failure != null) {
+                    return;
+                }
+                synchronized (out) {
+                    writeControl();
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(new SocketException("Interrupted"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Записывает кадры из очереди без сброса буфера. Вызывается под блокировкой
+     * {@link #out}, поэтому кадр, поставленный в очередь, записывается раньше
+     * кадров, записываемых после постановки.
+     */
+    private void writeControl() throws IOException {
+        byte[] frame;
+        while ((frame = control.poll()) != null) {
+            out.write(frame);
+        }
+    }
+
+    /**
+     * Ставит кадр без данных или с короткими данными в очередь потока записи.
+     */
+    private void queueFrame(int type, int id, byte[] payload) {
+        if (failure != null) {
+            return;
+        }
+        byte[] frame = new byte[HEADER_LENGTH + payload.length];
+        frame[0] = (byte) type;
+        frame[1] = (byte) (id >>> 24);
+        frame[2] = (byte) (id >>> 16);
+        frame[3] = (byte) (id >>> 8);
+        frame[4] = (byte) id;
+        frame[5] = (byte) (payload.length >>> 8);
+        frame[6] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, HEADER_LENGTH, payload.length);
+        control.offer(frame);
+        controlQueued.release();
+    }
+
+    private void writeFrame(int type, int id, byte[] b, int off, int length) throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw closedException(e);
+        }
+
+        synchronized (out) {
+            try {
+                writeControl();
+                out.writeByte(type);
+                out.writeInt(id);
+                out.writeShort(length);
+                if (length > 0) {
+                    out.write(b, off, length);
+                }
+                out.flush();
+            } catch (IOException ex) {
+                fail(ex);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * @return Открывался ли поток с указанным номером.
+     */
+    private boolean wasOpened(int id) {
+        return id > 0 && id <= (accepted != null ? lastOpenedId : nextId.get() - 1);
+    }
+
+    private void queueWindow(int id, int increment) {
+        byte[] payload = {(byte) (increment >>> 24), (byte) (increment >>> 16), (byte) (increment >>> 8), (byte) increment};
+        queueFrame(FRAME_WINDOW, id, payload);
+    }
+
+    private void fail(IOException e) {
+        if (failure != null) {
+            return;
+        }
+        failure = e;
+        log.log(Level.FINE, "Multiplexed connection closed", e);
+
+        AcceptedSocketQueue.closeQuietly(socket);
+        controlQueued.release();
+        for (Stream stream : streams.values()) {
+            stream.wakeUp();
+        }
+        streams.clear();
+    }
+
+    private void removeStream(Stream stream) {
+        if (streams.remove(stream.id, stream) && streams.isEmpty()) {
+            idleSince = System.nanoTime();
+        }
+    }
+
+    private static SocketException closedException(IOException cause) {
+        SocketException e = new SocketException("Multiplexed connection closed");
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * Виртуальное соединение. Доступ к состоянию под блокировкой на самом объекте.
+     */
+    private final class Stream {
+
+        final int id;
+        final StreamSocket socket;
+        /** Полученные, но не прочитанные данные. */
+        private final ArrayDeque<byte[]> received = new ArrayDeque<byte[]>();
+        /** Позиция чтения в первом блоке полученных данных. */
+        private int receivedOffset;
+        /** Объем полученных, но не прочитанных данных. */
+        private int receivedLength;
+        /** Прочитанные данные, о которых отправитель еще не уведомлен. */
+        private int consumed;
+        /** Оставшееся окно передачи. */
+        private int sendWindow = INITIAL_WINDOW;
+        /** Другая сторона завершила передачу. */
+        private boolean remoteClosed;
+        /** Эта сторона завершила передачу. */
+        private boolean localClosed;
+        /** Чтение закрыто этой стороной. */
+        private boolean inputClosed;
+        /** Таймаут чтения, мс. */
+        private int soTimeout;
+
+        Stream(int id) {
+            this.id = id;
+            this.socket = new StreamSocket(MultiplexedConnection.this.socket, this);
+        }
+
+        synchronized void receive(byte[] data) throws IOException {
+            if (inputClosed) {
+                // чтение закрыто, данные отбрасываются, окно возвращается отправителю
+                queueWindow(id, data.length);
+                return;
+            }
+            if (receivedLength + data.length > INITIAL_WINDOW) {
+                throw new IOException("Multiplexed stream " + id + " window exceeded");
+            }
+            if (data.length > 0) {
+                received.add(data);
+                receivedLength += data.length;
+            }
+            notifyAll();
+        }
+
+        synchronized void grant(int increment) {
+            sendWindow += increment;
+            notifyAll();
+        }
+
+        synchronized void remoteClosed() {
+            remoteClosed = true;
+            if (localClosed) {
+                removeStream(this);
+            }
+            notifyAll();
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            int credit = 0;
+            synchronized (this) {
+                long deadline = soTimeout > 0 ? System.nanoTime() + soTimeout * 1000000L : 0;
+                while (receivedLength == 0) {
+                    if (inputClosed) {
+                        throw new SocketException("Socket is closed");
+                    }
+                    if (remoteClosed) {
+                        return -1;
+                    }
+                    if (failure != null) {
+                        throw closedException(failure);
+                    }
+                    await(deadline);
+                }
+
+                n = 0;
+                while (n < len && receivedLength > 0) {
+                    byte[] head = received.peek();
+                    int count = Math.min(len - n, head.length - receivedOffset);
+                    System.arraycopy(head, receivedOffset, b, off + n, count);
+                    n += count;
+                    receivedOffset += count;
+                    receivedLength -= count;
+                    if (receivedOffset == head.length) {
+                        received.poll();
+                        receivedOffset = 0;
+                    }
+                }
+
+                consumed += n;
+                if (consumed >= INITIAL_WINDOW / 2 && !remoteClosed) {
+                    credit = consumed;
+                    consumed = 0;
+                }
+            }
+            if (credit > 0) {
+                queueWindow(id, credit);
+            }
+            return n;
+        }
+
+        synchronized int available() {
+            return receivedLength;
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n;
+                synchronized (this) {
+                    while (sendWindow == 0 && !localClosed && failure == null) {
+                        await(0);
+                    }
+                    if (localClosed) {
+                        throw new SocketException("Socket output is shutdown");
+                    }
+                    if (failure != null) {
+                        throw closedException(failure);
+                    }
+                    n = Math.min(Math.min(len, sendWindow), MAX_PAYLOAD);
+                    sendWindow -= n;
+                }
+                writeFrame(FRAME_DATA, id, b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        synchronized void shutdownOutput() {
+            if (localClosed) {
+                return;
+            }
+            localClosed = true;
+            // кадр ставится в очередь до удаления потока, поэтому опережает
+            // кадр открытия потока, который займет освободившееся место
+            queueFrame(FRAME_CLOSE, id, new byte[0]);
+            if (remoteClosed) {
+                removeStream(this);
+            }
+            notifyAll();
+        }
+
+        void close() throws IOException {
+            synchronized (this) {
+                inputClosed = true;
+                received.clear();
+                receivedLength = 0;
+                notifyAll();
+            }
+            shutdownOutput();
+        }
+
+        synchronized boolean isClosed() {
+            return inputClosed && localClosed;
+        }
+
+        private void await(long deadline) throws IOException {
+            try {
+                if (deadline == 0) {
+                    wait();
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                wait(remaining / 1000000L + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("Interrupted");
+            }
+        }
+    }
+
+    /**
+     * Виртуальный сокет потока. Адреса берутся из физического соединения, настройки
+     * физического соединения общие для всех потоков и не изменяются.
+     */
+    private static final class StreamSocket extends SocketWrap {
+
+        private final Stream stream;
+        private final InputStream input;
+        private final OutputStream output;
+
+        StreamSocket(Socket physical, final Stream stream) {
+            super(physical);
+            this.stream = stream;
+            this.input = new InputStream() {
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    int n = read(b, 0, 1);
+                    return n < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    return stream.read(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return stream.available();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    stream.close();
+                }
+            };
+            this.output = new OutputStream() {
+
+                @Override
+                public void write(int b) throws IOException {
+                    stream.write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    stream.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    stream.close();
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return output;
+        }
+
+        @Override
+        public SocketChannel getChannel() {
+            return null;
+        }
+
+        @Override
+        public synchronized void setSoTimeout(int timeout) throws SocketException {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout can't be negative");
+            }
+            synchronized (stream) {
+                stream.soTimeout = timeout;
+            }
+        }
+
+        @Override
+        public synchronized int getSoTimeout() throws SocketException {
+            synchronized (stream) {
+                return stream.soTimeout;
+            }
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean on) throws SocketException {
+            // кадры отправляются без задержки
+        }
+
+        @Override
+        public void setSoLinger(boolean on, int linger) throws SocketException {
+        }
+
+        @Override
+        public void setOOBInline(boolean on) throws SocketException {
+        }
+
+        @Override
+        public void sendUrgentData(int data) throws IOException {
+            throw new SocketException("Urgent data is not supported by multiplexed streams");
+        }
+
+        @Override
+        public synchronized void setSendBufferSize(int size) throws SocketException {
+        }
+
+        @Override
+        public synchronized void setReceiveBufferSize(int size) throws SocketException {
+        }
+
+        @Override
+        public void setKeepAlive(boolean on) throws SocketException {
+        }
+
+        @Override
+        public void setTrafficClass(int tc) throws SocketException {
+        }
+
+        @Override
+        public void setReuseAddress(boolean on) throws SocketException {
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            stream.close();
+        }
+
+        @Override
+        public void shutdownInput() throws IOException {
+            synchronized (stream) {
+                stream.inputClosed = true;
+                stream.notifyAll();
+            }
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            stream.shutdownOutput();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return stream.isClosed();
+        }
+
+        @Override
+        public boolean isInputShutdown() {
+            synchronized (stream) {
+                return stream.inputClosed;
+            }
+        }
+
+        @Override
+        public boolean isOutputShutdown() {
+            synchronized (stream) {
+                return stream.localClosed;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "MultiplexedSocket[stream=" + stream.id + ", connection=" + sock + "]";
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Клиентский реестр мультиплексированных соединений по адресам серверов и режимам
+ * фабрик. Соединение используется только с теми данными авторизации, с которыми
+ * оно авторизовано.
+ */
+final class MultiplexedConnections {
+
+    /** Общий реестр клиентских фабрик сокетов. */
+    static final MultiplexedConnections SHARED = new MultiplexedConnections();
+    ////
+    private final ConcurrentMap<Object, Slot> slots = new ConcurrentHashMap<Object, Slot>();
+    ////
+    private static final Logger log = Logger.getLogger(MultiplexedConnections.class.getName());
+
+    /**
+     * Открывает виртуальное соединение с сервером. Если открытого соединения с теми же
+     * данными авторизации нет, устанавливает новое; одновременные вызовы ожидают его
+     * установки, чтобы использовать одно соединение.
+     *
+     * @param key Адрес сервера и режимы фабрики.
+     * @param authData Данные авторизации.
+     * @param connector Установка и авторизация соединения с запросом мультиплексирования.
+     *
+     * @return Виртуальное соединение или обычное авторизованное соединение, если
+     *      сервер не согласился на мультиплексирование.
+     *
+     * @throws IOException Если соединение не удалось установить или авторизовать.
+     */
+    Socket open(Object key, AuthData authData, Connector connector) throws IOException {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            Slot created = new Slot();
+            slot = slots.putIfAbsent(key, created);
+            if (slot == null) {
+                slot = created;
+            }
+        }
+
+        synchronized (slot) {
+            MultiplexedConnection connection = slot.connection;
+            if (connection != null && connection.isOpen() && slot.authData.equals(authData)) {
+                try {
+                    Socket stream = connection.openStream();
+                    if (stream != null) {
+                        return stream;
+                    }
+                    // в соединении открыто максимальное количество потоков: новые потоки
+                    // открываются в новом соединении, прежнее закроется по простою
+                    connection = null;
+                } catch (IOException e) {
+                    log.log(Level.FINE, "Multiplexed connection failed, reconnecting", e);
+                }
+            }
+            if (connection != null) {
+                connection.close();
+            }
+            slot.connection = null;
+            slot.authData = null;
+
+            ClientSideSocketAuthorizationImpl authorization = connector.connect();
+            if (!authorization.isMultiplexed()) {
+                // сервер не поддерживает мультиплексирование
+                return authorization.authorizedSocket();
+            }
+            connection = new MultiplexedConnection(authorization.authorizedSocket(), null);
+            slot.connection = connection;
+            slot.authData = authData;
+            return connection.openStream();
+        }
+    }
+
+    /**
+     * Установка авторизованного соединения.
+     */
+    interface Connector {
+
+        /**
+         * Устанавливает соединение и выполняет авторизацию с запросом мультиплексирования.
+         *
+         * @return Выполненная авторизация.
+         *
+         * @throws IOException .
+         */
+        ClientSideSocketAuthorizationImpl connect() throws IOException;
+    }
+
+    /** Соединение с сервером, доступ под блокировкой на самом объекте. */
+    private static final class Slot {
+
+        MultiplexedConnection connection;
+        /** Данные авторизации соединения. */
+        AuthData authData;
+    }
+}
@@ -0,0 +1,699 @@
+package com.rmi.auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
+
+/**
+ * Серверный сокет, принимающий соединения через {@link ServerSocketChannel}.
+ * Данные авторизации читаются и разбираются в неблокирующем режиме несколькими
+ * потоками селекторов, поэтому одновременные рукопожатия не занимают по потоку
+ * каждое. Полностью прочитанный запрос проверяется авторизатором, после чего
+ * соединение переводится в блокирующий режим, и авторизованный сокет передается
+ * в accept(). Соединения, не прошедшие аутентификацию, закрываются без генерации
+ * исключения.<br>
+ * <br>
+ * Если при достижении предела одновременных аутентификаций прием приостанавливается,
+ * первый селектор снимает интерес к приему соединений до освобождения места.
+ */
+final class NioServerSocketAuthWrap extends ServerSocket {
+
+    /** Период проверки соединений, закрытых по истечении срока аутентификации, мс. */
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    /** Пауза после ошибки accept(), чтобы не нагружать процессор при нехватке дескрипторов. */
+    private static final long ACCEPT_FAILURE_PAUSE_MILLIS = 10;
+    ////
+    private final ServerSocketChannel channel;
+    /** Аутентификация принятых соединений. */
+    private final ServerSocketAuthenticator authenticator;
+    /**
+     * Пул потоков, в котором начинается проверка запросов, или null для проверки
+     * в потоке селектора.
+     */
+    private final Executor executor;
+    /** Авторизованные сокеты. */
+    private final AcceptedSocketQueue ready = new AcceptedSocketQueue();
+    /** Потоки селекторов, первый из них также принимает соединения. */
+    private final SelectorLoop[] loops;
+    /** Ключ приема соединений в первом селекторе. */
+    private SelectionKey acceptKey;
+    /** Приостановлен ли прием соединений до освобождения места. */
+    private volatile boolean acceptPaused;
+    /** Номер потока селектора для следующего соединения. */
+    private int nextLoop;
+    /** Таймаут accept(). */
+    private volatile int soTimeout;
+    /** Имя MBean статистики или null. */
+    private volatile ObjectName mbean;
+    ////
+    private static final Logger log = Logger.getLogger(NioServerSocketAuthWrap.class.getName());
+
+    public NioServerSocketAuthWrap(int port, AsyncAuthorizer authorizer, ServerSocketAuthConfig config,
+            int selectorThreads) throws IOException {
+        if (selectorThreads <= 0) {
+            throw new IllegalArgumentException("selectorThreads = " + selectorThreads);
+        }
+
+        this.authenticator = new ServerSocketAuthenticator(authorizer, config);
+        this.executor = config.handshakeExecutor;
+
+        this.channel = ServerSocketChannel.open();
+        this.loops = new SelectorLoop[selectorThreads];
+        try {
+            channel.socket().bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new SelectorLoop(Selector.open());
+            }
+            acceptKey = channel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        int localPort = channel.socket().getLocalPort();
+        mbean = StatisticsMBeans.register(StatisticsMBeans.serverName(localPort), config.statistics);
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "RMI auth selector-" + localPort + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Возвращает очередное авторизованное соединение.
+     */
+    public Socket accept() throws IOException {
+        return ready.take(soTimeout);
+    }
+
+    /**
+     * Принимает все ожидающие соединения и распределяет их по потокам селекторов.
+     * Вызывается в потоке первого селектора.
+     */
+    private void acceptPending() {
+        while (true) {
+            if (!authenticator.canAccept()) {
+                // соединения ожидают в очереди ядра
+                acceptKey.interestOps(0);
+                acceptPaused = true;
+                return;
+            }
+
+            SocketChannel accepted;
+            try {
+                accepted = channel.accept();
+            } catch (IOException e) {
+                if (ready.isClosed() || !channel.isOpen()) {
+                    return;
+                }
+
+                log.log(Level.WARNING, "Failed to accept connection", e);
+                ready.fail(e);
+                pause();
+                return;
+            }
+            if (accepted == null) {
+                return;
+            }
+            if (!authenticator.admit(accepted.socket())) {
+                continue;
+            }
+
+            Handshake handshake;
+            try {
+                accepted.configureBlocking(false);
+                handshake = new Handshake(accepted);
+            } catch (IOException e) {
+                log.log(Level.FINE, "Failed to configure accepted connection", e);
+                authenticator.release(accepted.socket().getInetAddress());
+                closeQuietly(accepted);
+                continue;
+            }
+
+            SelectorLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            loop.register(handshake);
+        }
+    }
+
+    /**
+     * Завершает рукопожатие после того, как запрос прочитан полностью и соединение
+     * переведено в блокирующий режим: начинает проверку запроса авторизатором,
+     * а ответ отправляет по ее завершении.
+     */
+    private void authorize(final Handshake handshake) {
+        if (handshake.request == null) {
+            authorizeRaw(handshake);
+            return;
+        }
+
+        final HandshakeCodec.HandshakeRequest request = handshake.request;
+        handshake.request = null;
+        authenticator.decide(request).whenComplete(new BiConsumer<HandshakeCodec.HandshakeResponse, Throwable>() {
+
+            @Override
+            public void accept(HandshakeCodec.HandshakeResponse response, Throwable failure) {
+                if (failure != null) {
+                    log.log(Level.WARNING, "Authorizer failed", failure);
+                    response = new HandshakeCodec.HandshakeResponse(SocketAuthorizationImpl.AUTH_FAILED, null);
+                }
+                respond(handshake, request.login, response);
+            }
+        });
+    }
+
+    /**
+     * Проверяет запрос, оставленный в буфере, авторизатором, работающим с буфером
+     * запроса, и возвращает буфер в пул.
+     */
+    private void authorizeRaw(Handshake handshake) {
+        HandshakeCodec.HandshakeResponse response;
+        String login = null;
+        RawCredentials credentials = RawCredentials.local();
+        try {
+            handshake.decode(credentials);
+            response = authenticator.decideRaw(credentials);
+            if (response.verdict != SocketAuthorizationImpl.AUTH_SUCCEEDED || authenticator.retainsLogin()) {
+                login = credentials.login();
+            }
+        } catch (SocketAuthorizationFailedException e) {
+            // запрос уже проверен при чтении
+            log.log(Level.WARNING, "Socket connection handshake failed", e);
+            response = new HandshakeCodec.HandshakeResponse(SocketAuthorizationImpl.AUTH_FAILED, null);
+        } finally {
+            credentials.clear();
+            handshake.release();
+        }
+        respond(handshake, login, response);
+    }
+
+    /**
+     * Возобновляет прием соединений, приостановленный до освобождения места.
+     * Вызывается в потоке первого селектора.
+     */
+    private void resumeAccept() {
+        if (acceptPaused && authenticator.canAccept() && acceptKey.isValid()) {
+            acceptPaused = false;
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private void respond(Handshake handshake, String login, HandshakeCodec.HandshakeResponse response) {
+        Socket socket = handshake.channel.socket();
+        int accepted = response.verdict == SocketAuthorizationImpl.AUTH_SUCCEEDED
+                ? authenticator.accepted(handshake.flags) : 0;
+        try {
+            OutputStream out = socket.getOutputStream();
+            if (handshake.legacy) {
+                out.write(response.verdict);
+            } else {
+                ServerSideSocketAuthorizationImpl.writeResponse(out, response.verdict, response.ticket, accepted);
+            }
+            authenticator.finishDeadline(handshake.deadline);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Socket connection handshake failed", e);
+            handshake.abort();
+            return;
+        }
+
+        if (response.verdict != SocketAuthorizationImpl.AUTH_SUCCEEDED) {
+            log.log(Level.FINE, "Socket connection authorization failed: {0}", login);
+            authenticator.recordFailure(socket);
+            handshake.abort();
+            return;
+        }
+        authenticator.recordSuccess(socket, handshake.acceptedAt);
+        handshake.finish();
+
+        byte[] leftover = handshake.leftover;
+        Socket authorized;
+        try {
+            authorized = authenticator.deliver(
+                    leftover != null ? new PrefetchedSocket(socket, leftover) : socket, accepted, login, ready);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Socket connection handshake failed", e);
+            return;
+        }
+        if (authorized != null) {
+            ready.offer(authorized);
+        }
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="Делегирование методов ServerSocket">
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout can't be negative");
+        }
+        soTimeout = timeout;
+    }
+
+    public void setReuseAddress(boolean on) throws SocketException {
+        channel.socket().setReuseAddress(on);
+    }
+
+    public synchronized void setReceiveBufferSize(int size) throws SocketException {
+        channel.socket().setReceiveBufferSize(size);
+    }
+
+    public void setPerformancePreferences(int connectionTime, int latency, int bandwidth) {
+        channel.socket().setPerformancePreferences(connectionTime, latency, bandwidth);
+    }
+
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    public boolean isBound() {
+        return channel.socket().isBound();
+    }
+
+    public synchronized int getSoTimeout() throws IOException {
+        return soTimeout;
+    }
+
+    public boolean getReuseAddress() throws SocketException {
+        return channel.socket().getReuseAddress();
+    }
+
+    public synchronized int getReceiveBufferSize() throws SocketException {
+        return channel.socket().getReceiveBufferSize();
+    }
+
+    public SocketAddress getLocalSocketAddress() {
+        return channel.socket().getLocalSocketAddress();
+    }
+
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    public InetAddress getInetAddress() {
+        return channel.socket().getInetAddress();
+    }
+
+    /**
+     * Канал используется для приема неавторизованных соединений и не предоставляется.
+     *
+     * @return null.
+     */
+    public ServerSocketChannel getChannel() {
+        return null;
+    }
+
+    public void close() throws IOException {
+        StatisticsMBeans.unregister(mbean);
+        ready.close();
+        try {
+            channel.close();
+        } finally {
+            for (SelectorLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.wakeup();
+                }
+            }
+        }
+    }
+
+    public void bind(SocketAddress endpoint, int backlog) throws IOException {
+        throw new SocketException("Already bound");
+    }
+
+    public void bind(SocketAddress endpoint) throws IOException {
+        throw new SocketException("Already bound");
+    }
+    //</editor-fold>
+
+    private static void closeQuietly(SocketChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException e) {
+            log.log(Level.FINEST, "Failed to close channel", e);
+        }
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(ACCEPT_FAILURE_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Состояние рукопожатия: чтение запроса в буфер из пула, затем авторизация.
+     * До передачи в авторизацию доступно только потоку своего селектора.
+     */
+    private final class Handshake {
+
+        final SocketChannel channel;
+        /** Адрес клиента. */
+        final InetAddress address;
+        /** Занимает ли соединение место в пределе одновременных аутентификаций. */
+        private final AtomicBoolean admitted = new AtomicBoolean(true);
+        /** Срок аутентификации или null. */
+        final HandshakeTimer.Timeout deadline;
+        /** Время приема соединения по {@link System#nanoTime()}. */
+        final long acceptedAt = System.nanoTime();
+        /**
+         * Буфер запроса или null после его разбора. Для авторизатора, работающего с
+         * буфером запроса, сохраняется до проверки запроса.
+         */
+        ByteBuffer buf = HandshakeBufferPool.acquire();
+        /** Длина прочитанного запроса. */
+        int length;
+        /** Прочитанный запрос или null, если запрос проверяется в буфере. */
+        HandshakeCodec.HandshakeRequest request;
+        /** Запрос в исходном формате, ответ - один байт. */
+        boolean legacy;
+        /** Флаги запроса. */
+        int flags;
+        /** Данные, прочитанные вслед за запросом, или null. */
+        byte[] leftover;
+
+        Handshake(SocketChannel channel) {
+            this.channel = channel;
+            this.address = channel.socket().getInetAddress();
+            this.deadline = authenticator.startDeadline(channel.socket());
+        }
+
+        /**
+         * Читает доступные данные.
+         *
+         * @return Прочитан ли запрос полностью.
+         *
+         * @throws IOException Если соединение закрыто или запрос некорректен.
+         */
+        boolean read() throws IOException {
+            if (channel.read(buf) < 0) {
+                throw new SocketException("Connection closed before authorization");
+            }
+
+            int length = HandshakeCodec.requestLength(buf);
+            if (length < 0 || buf.position() < length) {
+                if (!buf.hasRemaining()) {
+                    // запрос в исходном формате длиннее кадра
+                    buf = HandshakeBufferPool.grow(buf, length < 0 ? HandshakeCodec.legacyReadLimit(buf) : length);
+                }
+                return false;
+            }
+
+            this.length = length;
+            legacy = buf.get(0) != HandshakeCodec.MAGIC;
+            if (buf.position() > length) {
+                // клиент с оптимистичной авторизацией отправил данные RMI вслед за запросом
+                leftover = new byte[buf.position() - length];
+                System.arraycopy(buf.array(), buf.arrayOffset() + length, leftover, 0, leftover.length);
+            }
+            buf.flip();
+
+            RawCredentials credentials = RawCredentials.local();
+            try {
+                decode(credentials);
+                flags = legacy ? 0 : credentials.flags();
+                // запрос длиннее кадра проверяется через строки
+                if (buf.capacity() > HandshakeCodec.MAX_FRAME_LENGTH || !authenticator.canAuthorizeRaw(credentials)) {
+                    request = credentials.toRequest();
+                    release();
+                }
+            } finally {
+                credentials.clear();
+            }
+            return true;
+        }
+
+        /**
+         * Декодирует прочитанный запрос без копирования полей.
+         */
+        void decode(RawCredentials credentials) throws SocketAuthorizationFailedException {
+            if (legacy) {
+                HandshakeCodec.decodeLegacyRequest(buf, length, credentials);
+            } else {
+                HandshakeCodec.decodeRequest(buf, credentials);
+            }
+        }
+
+        /**
+         * Отвечает на запрос неподдерживаемой версии кадром версии сервера. Ответ
+         * короче буфера отправки нового соединения, поэтому записывается без ожидания.
+         */
+        void rejectVersion() {
+            ByteBuffer response = ByteBuffer.allocate(HandshakeCodec.HEADER_LENGTH);
+            HandshakeCodec.encodeResponse(response, SocketAuthorizationImpl.AUTH_UNSUPPORTED_VERSION, null);
+            response.flip();
+            try {
+                channel.write(response);
+            } catch (IOException e) {
+                log.log(Level.FINE, "Failed to send supported handshake version", e);
+            }
+        }
+
+        void release() {
+            if (buf != null) {
+                HandshakeBufferPool.release(buf);
+                buf = null;
+            }
+        }
+
+        /**
+         * Освобождает место соединения в пределе одновременных аутентификаций.
+         * Повторные вызовы ничего не делают.
+         */
+        void finish() {
+            if (admitted.compareAndSet(true, false)) {
+                authenticator.release(address);
+                if (acceptPaused) {
+                    loops[0].selector.wakeup();
+                }
+            }
+        }
+
+        void abort() {
+            release();
+            finish();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Поток селектора, читающий запросы авторизации своих соединений.
+     */
+    private final class SelectorLoop implements Runnable {
+
+        final Selector selector;
+        /** Соединения, переданные потоку для регистрации. */
+        private final Queue<Handshake> pending = new ConcurrentLinkedQueue<Handshake>();
+        /** Незавершенные рукопожатия потока. */
+        private final Set<Handshake> active = new HashSet<Handshake>();
+        /** Рукопожатия с полностью прочитанным запросом. */
+        private final List<Handshake> completed = new ArrayList<Handshake>();
+        private long lastSweep = System.nanoTime();
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(Handshake handshake) {
+            pending.offer(handshake);
+            if (this != loops[0]) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!ready.isClosed()) {
+                    registerPending();
+                    if (this == loops[0]) {
+                        resumeAccept();
+                    }
+                    selector.select(SWEEP_INTERVAL_MILLIS);
+                    if (ready.isClosed()) {
+                        break;
+                    }
+
+                    processSelected();
+                    if (!completed.isEmpty()) {
+                        // снимаем регистрацию отмененных ключей, иначе канал нельзя
+                        // перевести в блокирующий режим
+                        selector.selectNow();
+                        dispatchCompleted();
+                    }
+                    sweep();
+                }
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Selector failed", e);
+            } finally {
+                shutdown();
+            }
+        }
+
+        private void registerPending() {
+            Handshake handshake;
+            while ((handshake = pending.poll()) != null) {
+                try {
+                    handshake.channel.register(selector, SelectionKey.OP_READ, handshake);
+                    active.add(handshake);
+                } catch (IOException e) {
+                    // соединение уже закрыто по истечении срока
+                    handshake.abort();
+                }
+            }
+        }
+
+        private void processSelected() {
+            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+
+                if (key.isAcceptable()) {
+                    acceptPending();
+                    registerPending();
+                    continue;
+                }
+
+                Handshake handshake = (Handshake) key.attachment();
+                try {
+                    if (handshake.read()) {
+                        key.cancel();
+                        active.remove(handshake);
+                        completed.add(handshake);
+                    }
+                } catch (IOException e) {
+                    log.log(Level.FINE, "Socket connection handshake failed", e);
+                    if (e instanceof HandshakeCodec.UnsupportedVersionException) {
+                        handshake.rejectVersion();
+                    }
+                    if (e instanceof SocketAuthorizationFailedException) {
+                        authenticator.recordFailure(handshake.channel.socket());
+                    }
+                    key.cancel();
+                    active.remove(handshake);
+                    handshake.abort();
+                }
+            }
+        }
+
+        private void dispatchCompleted() {
+            for (final Handshake handshake : completed) {
+                try {
+                    handshake.channel.configureBlocking(true);
+                } catch (IOException e) {
+                    log.log(Level.FINE, "Socket connection handshake failed", e);
+                    handshake.abort();
+                    continue;
+                }
+
+                if (executor == null) {
+                    authorize(handshake);
+                    continue;
+                }
+                try {
+                    executor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            authorize(handshake);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    log.log(Level.WARNING, "Handshake executor rejected connection", e);
+                    handshake.abort();
+                }
+            }
+            completed.clear();
+        }
+
+        /**
+         * Возвращает в пул буферы соединений, закрытых по истечении срока
+         * аутентификации, и освобождает их места: ключи таких соединений
+         * отменяются без участия селектора.
+         */
+        private void sweep() {
+            long now = System.nanoTime();
+            if (now - lastSweep < SWEEP_INTERVAL_MILLIS * 1000000L) {
+                return;
+            }
+            lastSweep = now;
+
+            for (Iterator<Handshake> it = active.iterator(); it.hasNext();) {
+                Handshake handshake = it.next();
+                if (!handshake.channel.isOpen()) {
+                    it.remove();
+                    handshake.release();
+                    handshake.finish();
+                }
+            }
+        }
+
+        private void shutdown() {
+            for (Handshake handshake : active) {
+                handshake.abort();
+            }
+            active.clear();
+            Handshake handshake;
+            while ((handshake = pending.poll()) != null) {
+                handshake.abort();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.log(Level.FINEST, "Failed to close selector", e);
+            }
+        }
+    }
+
+    /**
+     * Сокет, из которого сначала читаются данные, полученные вместе с запросом
+     * авторизации.
+     */
+    private static final class PrefetchedSocket extends SocketWrap {
+
+        private final byte[] prefetched;
+        private InputStream in;
+
+        PrefetchedSocket(Socket sock, byte[] prefetched) {
+            super(sock);
+            this.prefetched = prefetched;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new SequenceInputStream(new ByteArrayInputStream(prefetched), sock.getInputStream());
+            }
+            return in;
+        }
+    }
+}
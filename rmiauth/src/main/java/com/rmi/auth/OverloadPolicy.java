@@ -0,0 +1,20 @@
+package com.rmi.auth;
+
+/**
+ * Поведение серверного сокета при достижении предела одновременных аутентификаций.
+ *
+ * @see ServerSocketAuthConfig#setHandshakeLimit(int, int, OverloadPolicy)
+ */
+public enum OverloadPolicy {
+
+    /**
+     * Прием новых соединений приостанавливается до завершения одной из
+     * аутентификаций, и очередь соединений накапливается в ядре (backlog).
+     * Соединения, превысившие предел для адреса клиента, отклоняются.
+     */
+    BLOCK,
+    /**
+     * Новые соединения принимаются и сразу закрываются сбросом без чтения данных.
+     */
+    REJECT
+}
@@ -0,0 +1,60 @@
+package com.rmi.auth;
+
+/**
+ * Учетные данные процесса на другой стороне локального соединения, полученные от
+ * операционной системы.
+ *
+ * @see PeerCredentialsAuthorizer
+ */
+public final class PeerCredentials {
+
+    /** Имя пользователя процесса. */
+    public final String user;
+    /** Имя группы процесса. */
+    public final String group;
+
+    /**
+     * Конструктор.
+     *
+     * @param user Имя пользователя процесса.
+     * @param group Имя группы процесса.
+     */
+    public PeerCredentials(String user, String group) {
+        if (user == null) {
+            throw new NullPointerException("user");
+        }
+        if (group == null) {
+            throw new NullPointerException("group");
+        }
+
+        this.user = user;
+        this.group = group;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PeerCredentials)) {
+            return false;
+        }
+        PeerCredentials other = (PeerCredentials) obj;
+        return user.equals(other.user) && group.equals(other.group);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * user.hashCode() + group.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("PeerCredentials [");
+        builder.append("user=").append(user);
+        builder.append(", group=").append(group);
+        builder.append("]");
+        return builder.toString();
+    }
+}
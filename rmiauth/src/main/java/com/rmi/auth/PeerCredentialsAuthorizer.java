@@ -0,0 +1,20 @@
+package com.rmi.auth;
+
+/**
+ * Авторизатор локальных соединений по учетным данным процесса клиента, которые
+ * сообщает операционная система. Вызывается в потоке приема соединений, поэтому
+ * не должен выполнять долгих операций.
+ *
+ * @see AuthUnixRMIServerSocketFactory
+ */
+public interface PeerCredentialsAuthorizer {
+
+    /**
+     * Выполняет авторизацию.
+     *
+     * @param peer Учетные данные процесса клиента.
+     *
+     * @return True, если авторизация успешна, false в противном случае.
+     */
+    boolean authorize(PeerCredentials peer);
+}
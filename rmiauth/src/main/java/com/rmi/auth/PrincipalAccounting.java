@@ -0,0 +1,66 @@
+package com.rmi.auth;
+
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Учет трафика и соединений по логинам. Счетчики не создают конкуренции между
+ * потоками, снимок собирается только по запросу.
+ */
+final class PrincipalAccounting {
+
+    /** Счетчики по логинам. Логины добавляются только после успешной авторизации. */
+    private final ConcurrentMap<String, Counters> principals = new ConcurrentHashMap<String, Counters>();
+
+    /**
+     * Оборачивает авторизованное соединение для учета.
+     *
+     * @param socket Авторизованное соединение.
+     * @param login Логин, с которым соединение авторизовано.
+     *
+     * @return Соединение, учитывающее трафик.
+     */
+    Socket wrap(Socket socket, String login) {
+        Counters counters = principals.get(login);
+        if (counters == null) {
+            Counters created = new Counters();
+            counters = principals.putIfAbsent(login, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return new AccountedSocket(socket, counters);
+    }
+
+    /**
+     * @return Снимок учета по логинам.
+     */
+    Map<String, PrincipalTraffic> snapshot() {
+        Map<String, PrincipalTraffic> snapshot = new HashMap<String, PrincipalTraffic>();
+        for (Map.Entry<String, Counters> entry : principals.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /** Счетчики логина. */
+    static final class Counters {
+
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder openConnections = new LongAdder();
+        final LongAdder totalConnections = new LongAdder();
+        /** Суммарное время жизни закрытых соединений, нс. */
+        final LongAdder connectionNanos = new LongAdder();
+
+        PrincipalTraffic snapshot(String login) {
+            return new PrincipalTraffic(login, bytesIn.sum(), bytesOut.sum(), openConnections.sum(),
+                    totalConnections.sum(), connectionNanos.sum());
+        }
+    }
+}
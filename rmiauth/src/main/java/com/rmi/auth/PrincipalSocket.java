@@ -0,0 +1,94 @@
+package com.rmi.auth;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Сокет, связывающий участника соединения с потоком, читающим из сокета, для
+ * {@link AuthContext}. Транспорт RMI выполняет вызовы разных соединений в общем
+ * пуле потоков, поэтому связывание выполняется при каждом чтении, в том числе
+ * null для соединений без связывания, и снимается при конце потока, ошибке
+ * чтения и закрытии сокета.
+ */
+final class PrincipalSocket extends SocketWrap {
+
+    /** Логин, учетные данные процесса или null, если связывание не включено. */
+    private final Object principal;
+    private InputStream in;
+
+    /**
+     * Конструктор.
+     *
+     * @param sock Авторизованное соединение.
+     * @param principal Логин, учетные данные процесса или null, если связывание не включено.
+     */
+    PrincipalSocket(Socket sock, Object principal) {
+        super(sock);
+
+        this.principal = principal;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            in = new FilterInputStream(sock.getInputStream()) {
+
+                @Override
+                public int read() throws IOException {
+                    AuthContext.bind(principal);
+                    try {
+                        int b = in.read();
+                        if (b < 0) {
+                            AuthContext.unbind();
+                        }
+                        return b;
+                    } catch (IOException e) {
+                        AuthContext.unbind();
+                        throw e;
+                    }
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    AuthContext.bind(principal);
+                    try {
+                        int n = in.read(b, off, len);
+                        if (n < 0) {
+                            AuthContext.unbind();
+                        }
+                        return n;
+                    } catch (IOException e) {
+                        AuthContext.unbind();
+                        throw e;
+                    }
+                }
+            };
+        }
+        return in;
+    }
+
+    /**
+     * Закрывает соединение и снимает связывание с вызывающим потоком.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            AuthContext.unbind();
+        }
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "PrincipalSocket[" + sock + "]";
+    }
+}
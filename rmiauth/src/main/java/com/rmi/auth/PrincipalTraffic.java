@@ -0,0 +1,46 @@
+package com.rmi.auth;
+
+/**
+ * Снимок учета соединений одного логина на сервере.
+ *
+ * @see ServerSocketAuthConfig#getPrincipalTraffic()
+ */
+public final class PrincipalTraffic {
+
+    /** Логин. */
+    public final String login;
+    /** Количество байт, полученных от клиента после авторизации. */
+    public final long bytesIn;
+    /** Количество байт, отправленных клиенту после авторизации. */
+    public final long bytesOut;
+    /** Количество открытых соединений. */
+    public final long openConnections;
+    /** Количество авторизованных соединений, включая закрытые. */
+    public final long totalConnections;
+    /** Суммарное время жизни закрытых соединений, нс. */
+    public final long connectionTime;
+
+    PrincipalTraffic(String login, long bytesIn, long bytesOut, long openConnections, long totalConnections,
+            long connectionTime) {
+        this.login = login;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.openConnections = openConnections;
+        this.totalConnections = totalConnections;
+        this.connectionTime = connectionTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("PrincipalTraffic [");
+        builder.append("login=").append(login);
+        builder.append(", bytesIn=").append(bytesIn);
+        builder.append(", bytesOut=").append(bytesOut);
+        builder.append(", openConnections=").append(openConnections);
+        builder.append(", totalConnections=").append(totalConnections);
+        builder.append(", connectionTime=").append(connectionTime);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.rmi.auth;
+
+/**
+ * Авторизатор, проверяющий логин и пароль непосредственно в буфере запроса, без
+ * создания строк и {@link AuthData}. Вызывается синхронно в потоке, прочитавшем
+ * запрос. Используется сервером, если передан фабрике серверных сокетов как
+ * {@link Authorizer}; метод {@link #authorize(AuthData)} вызывается для запросов,
+ * которые нельзя проверить без декодирования, например, с символом U+0000 в
+ * исходном формате.
+ *
+ * @see RawCredentials
+ */
+public interface RawAuthorizer extends Authorizer {
+
+    /**
+     * Выполняет авторизацию.
+     *
+     * @param credentials Данные авторизации, доступные только во время вызова.
+     *
+     * @return True, если авторизация успешна, false в противном случае.
+     */
+    boolean authorize(RawCredentials credentials);
+}
@@ -0,0 +1,226 @@
+package com.rmi.auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Данные авторизации в буфере запроса: логин и пароль в кодировке UTF-8 без
+ * создания строк. Экземпляр заимствован у сервера на время вызова
+ * {@link RawAuthorizer#authorize(RawCredentials)}: буфер переиспользуется и
+ * обнуляется после вызова, поэтому ни экземпляр, ни массив {@link #array()}
+ * нельзя сохранять или изменять.
+ *
+ * @see RawAuthorizer
+ */
+public final class RawCredentials {
+
+    /** Экземпляры для повторного использования потоками сервера. */
+    private static final ThreadLocal<RawCredentials> local = new ThreadLocal<RawCredentials>() {
+
+        @Override
+        protected RawCredentials initialValue() {
+            return new RawCredentials();
+        }
+    };
+    ////
+    private byte[] array;
+    /** Флаги запроса. */
+    private int flags;
+    /** Запрос в исходном формате: строки в модифицированной кодировке UTF-8. */
+    private boolean legacy;
+    private int loginOffset = -1;
+    private int loginLength;
+    private int passwordOffset = -1;
+    private int passwordLength;
+    /** Смещение билета возобновления сессии, -1 - билета нет. */
+    private int ticketOffset = -1;
+    private int ticketLength;
+
+    RawCredentials() {
+    }
+
+    /**
+     * @return Экземпляр текущего потока для декодирования запроса.
+     */
+    static RawCredentials local() {
+        return local.get();
+    }
+
+    /**
+     * @return Буфер, содержащий логин и пароль.
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * @return Смещение логина в {@link #array()}.
+     */
+    public int loginOffset() {
+        return loginOffset;
+    }
+
+    /**
+     * @return Длина логина в байтах.
+     */
+    public int loginLength() {
+        return loginLength;
+    }
+
+    /**
+     * @return Смещение пароля в {@link #array()}.
+     */
+    public int passwordOffset() {
+        return passwordOffset;
+    }
+
+    /**
+     * @return Длина пароля в байтах.
+     */
+    public int passwordLength() {
+        return passwordLength;
+    }
+
+    /**
+     * @param login Логин в кодировке UTF-8.
+     *
+     * @return Совпадает ли логин.
+     */
+    public boolean loginEquals(byte[] login) {
+        if (login.length != loginLength) {
+            return false;
+        }
+        for (int i = 0; i < loginLength; i++) {
+            if (array[loginOffset + i] != login[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Сравнивает пароль за время, не зависящее от позиции первого различия.
+     *
+     * @param password Пароль в кодировке UTF-8.
+     *
+     * @return Совпадает ли пароль.
+     */
+    public boolean passwordEquals(byte[] password) {
+        if (password.length != passwordLength) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < passwordLength; i++) {
+            diff |= array[passwordOffset + i] ^ password[i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * @return Логин. Создает строку.
+     */
+    public String login() {
+        return new String(array, loginOffset, loginLength, HandshakeCodec.UTF8);
+    }
+
+    /**
+     * @return Пароль. Создает строку.
+     */
+    public String password() {
+        return new String(array, passwordOffset, passwordLength, HandshakeCodec.UTF8);
+    }
+
+    void reset(byte[] array, int flags, boolean legacy) {
+        this.array = array;
+        this.flags = flags;
+        this.legacy = legacy;
+        this.loginOffset = -1;
+        this.loginLength = 0;
+        this.passwordOffset = -1;
+        this.passwordLength = 0;
+        this.ticketOffset = -1;
+        this.ticketLength = 0;
+    }
+
+    /** Освобождает ссылку на буфер. */
+    void clear() {
+        reset(null, 0, false);
+    }
+
+    void setLogin(int offset, int length) {
+        loginOffset = offset;
+        loginLength = length;
+    }
+
+    void setPassword(int offset, int length) {
+        passwordOffset = offset;
+        passwordLength = length;
+    }
+
+    void setTicket(int offset, int length) {
+        ticketOffset = offset;
+        ticketLength = length;
+    }
+
+    boolean hasCredentials() {
+        return loginOffset >= 0 && passwordOffset >= 0;
+    }
+
+    boolean hasTicket() {
+        return ticketOffset >= 0;
+    }
+
+    int flags() {
+        return flags;
+    }
+
+    /**
+     * @return Совпадают ли байты логина и пароля с кодировкой UTF-8. Модифицированная
+     *      кодировка запросов в исходном формате отличается только для символа
+     *      U+0000 и дополнительных символов.
+     */
+    boolean isUtf8() {
+        if (!legacy) {
+            return true;
+        }
+        return isUtf8(loginOffset, loginLength) && isUtf8(passwordOffset, passwordLength);
+    }
+
+    private boolean isUtf8(int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int b = array[i] & 0xFF;
+            // 0xC0 0x80 - символ U+0000, 0xED - суррогатная пара
+            if (b == 0xC0 || b == 0xED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Запрос со строками и копией билета.
+     *
+     * @throws SocketAuthorizationFailedException Если строки в исходном формате
+     *      некорректны.
+     */
+    HandshakeCodec.HandshakeRequest toRequest() throws SocketAuthorizationFailedException {
+        byte[] ticket = null;
+        if (ticketOffset >= 0) {
+            ticket = new byte[ticketLength];
+            System.arraycopy(array, ticketOffset, ticket, 0, ticketLength);
+        }
+        if (!legacy) {
+            return new HandshakeCodec.HandshakeRequest(flags, login(), password(), ticket);
+        }
+
+        try {
+            // строке предшествует ее длина в формате DataOutput.writeUTF
+            String login = new DataInputStream(new ByteArrayInputStream(array, loginOffset - 2, loginLength + 2)).readUTF();
+            String password = new DataInputStream(new ByteArrayInputStream(array, passwordOffset - 2, passwordLength + 2)).readUTF();
+            return new HandshakeCodec.HandshakeRequest(flags, login, password, ticket);
+        } catch (IOException e) {
+            throw new SocketAuthorizationFailedException("Malformed handshake request");
+        }
+    }
+}
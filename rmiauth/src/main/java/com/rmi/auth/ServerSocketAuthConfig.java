@@ -0,0 +1,238 @@
+package com.rmi.auth;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+/**
+ * Настройки серверной аутентификации фабрики серверных сокетов, доступные через
+ * <tt>getConfig()</tt> фабрики. Настройки, кроме {@link #setHandshakeLimit(int, int, OverloadPolicy)},
+ * считываются при создании серверного сокета и действуют на серверные сокеты,
+ * созданные после изменения. Статистика и учет соединений общие для всех серверных сокетов фабрики.
+ *
+ * @see AuthRMIServerSocketFactory#getConfig()
+ * @see AuthSslRMIServerSocketFactory#getConfig()
+ * @see AuthNioRMIServerSocketFactory#getConfig()
+ */
+public final class ServerSocketAuthConfig {
+
+    /**
+     * Пул потоков, в котором выполняется аутентификация принятых соединений,
+     * или null, если аутентификация выполняется в потоке, вызвавшем accept().
+     */
+    volatile Executor handshakeExecutor;
+    /**
+     * Общий срок аутентификации соединения в миллисекундах, включая TLS-рукопожатие,
+     * 0 - без ограничения.
+     */
+    volatile long handshakeTimeout;
+    /** Билеты возобновления сессии или null, если возобновление не используется. */
+    volatile SessionTickets sessionTickets;
+    /**
+     * Счетчики неудачных аутентификаций по адресам клиентов или null, если
+     * соединения не отклоняются. Общие для всех серверных сокетов фабрики.
+     */
+    volatile FailureTracker failureTracker;
+    /** Согласен ли сервер мультиплексировать соединения по запросу клиента. */
+    volatile boolean multiplexing;
+    /** Настройки сжатия или null, если сжатие не поддерживается. */
+    volatile CompressionSettings compression;
+    /** Учитывается ли трафик авторизованных соединений по логинам. */
+    volatile boolean principalAccounting;
+    /** Связывается ли логин соединения с потоком удаленного вызова. */
+    volatile boolean principalContext;
+    /**
+     * Ограничение одновременных аутентификаций, общее для всех серверных сокетов
+     * фабрики. Изменение пределов действует сразу.
+     */
+    final HandshakeLimiter handshakeLimiter = new HandshakeLimiter();
+    /** Статистика аутентификации серверных сокетов фабрики. */
+    final HandshakeStatistics statistics = new HandshakeStatistics(handshakeLimiter);
+    /** Учет трафика по логинам, общий для всех серверных сокетов фабрики. */
+    final PrincipalAccounting accounting = new PrincipalAccounting();
+
+    /**
+     * Конструктор. Создается фабрикой серверных сокетов.
+     */
+    ServerSocketAuthConfig() {
+    }
+
+    /**
+     * Устанавливает пул потоков, в котором выполняется аутентификация принятых
+     * соединений. Для виртуальных потоков (Java 21+) можно передать
+     * <tt>Executors.newVirtualThreadPerTaskExecutor()</tt>.<br>
+     * <br>
+     * Для блокирующих фабрик включает конвейерный режим приема соединений: поток
+     * accept() только принимает соединения, а поток пула выполняет TLS-рукопожатие,
+     * если оно есть, и читает данные авторизации; время обоих этапов учитывается в
+     * {@link HandshakeStatistics}. Для {@link AuthNioRMIServerSocketFactory} в пуле
+     * вызывается только авторизатор, а без пула он вызывается в потоке селектора, что
+     * допустимо для {@link AsyncAuthorizer}, не блокирующих вызывающий поток, и
+     * быстрых синхронных авторизаторов, не обращающихся к внешним системам. Ответ
+     * {@link AsyncAuthorizer} отправляется клиенту по завершении его стадии.
+     *
+     * @param handshakeExecutor Пул потоков аутентификации или null для
+     *      аутентификации в потоке, вызвавшем accept(), или в потоке селектора.
+     */
+    public void setHandshakeExecutor(Executor handshakeExecutor) {
+        this.handshakeExecutor = handshakeExecutor;
+    }
+
+    /**
+     * Устанавливает общий срок аутентификации соединения, включая чтение данных
+     * авторизации и TLS-рукопожатие. По истечении срока соединение закрывается
+     * и учитывается в {@link HandshakeStatistics#getExpiredHandshakes()}.
+     *
+     * @param handshakeTimeout Срок в миллисекундах, 0 - без ограничения.
+     */
+    public void setHandshakeTimeout(long handshakeTimeout) {
+        if (handshakeTimeout < 0) {
+            throw new IllegalArgumentException("handshakeTimeout = " + handshakeTimeout);
+        }
+        this.handshakeTimeout = handshakeTimeout;
+    }
+
+    /**
+     * Включает возобновление сессий: после успешной авторизации клиент получает
+     * билет, защищенный HMAC, и предъявляет его при следующих соединениях вместо
+     * логина и пароля, без обращения к авторизатору. Клиентская фабрика должна быть
+     * создана с режимом {@link ClientAuthOption#SESSION_RESUMPTION}.
+     *
+     * @param ticketKey Ключ HMAC не короче 16 байт, общий для серверов, принимающих
+     *      билеты друг друга, или null для случайного ключа.
+     * @param ticketLifetime Время жизни билета в миллисекундах, 0 - возобновление
+     *      сессий отключено.
+     */
+    public void setSessionResumption(byte[] ticketKey, long ticketLifetime) {
+        if (ticketLifetime < 0) {
+            throw new IllegalArgumentException("ticketLifetime = " + ticketLifetime);
+        }
+        this.sessionTickets = ticketLifetime > 0 ? new SessionTickets(ticketKey, ticketLifetime) : null;
+    }
+
+    /**
+     * Включает отклонение соединений с адресов клиентов, превысивших количество
+     * неудачных аутентификаций. Такие соединения закрываются сразу после приема, без
+     * чтения данных авторизации и обращения к авторизатору, и учитываются в
+     * {@link HandshakeStatistics#getRejectedConnections()}. Счетчик неудач адреса
+     * уменьшается вдвое за каждый период полураспада и сбрасывается при успешной
+     * аутентификации. Таблица счетчиков имеет фиксированный размер.
+     *
+     * @param maxFailures Количество неудач, после которого соединения отклоняются,
+     *      0 - соединения не отклоняются.
+     * @param halfLife Период полураспада счетчика неудач в миллисекундах.
+     */
+    public void setFailureLimit(int maxFailures, long halfLife) {
+        if (maxFailures < 0) {
+            throw new IllegalArgumentException("maxFailures = " + maxFailures);
+        }
+        this.failureTracker = maxFailures > 0
+                ? new FailureTracker(FailureTracker.DEFAULT_CAPACITY, maxFailures, halfLife)
+                : null;
+    }
+
+    /**
+     * Ограничивает количество одновременных аутентификаций серверных сокетов
+     * фабрики, общее и для одного адреса клиента, чтобы медленные или
+     * неотвечающие клиенты не занимали ресурсы сервера без ограничения. Соединения
+     * сверх предела для адреса закрываются сразу после приема и учитываются в
+     * {@link HandshakeStatistics#getOverloadedConnections()}; при достижении общего
+     * предела поведение определяется {@code policy}. Текущая загрузка доступна
+     * через {@link HandshakeStatistics#getHandshakesInFlight()}.<br>
+     * <br>
+     * Действует сразу, в том числе на уже созданные серверные сокеты.
+     *
+     * @param maxInFlight Общий предел, 0 - без ограничения.
+     * @param maxPerAddress Предел для адреса клиента, 0 - без ограничения.
+     * @param policy Поведение при достижении общего предела.
+     */
+    public void setHandshakeLimit(int maxInFlight, int maxPerAddress, OverloadPolicy policy) {
+        if (maxInFlight < 0) {
+            throw new IllegalArgumentException("maxInFlight = " + maxInFlight);
+        }
+        if (maxPerAddress < 0) {
+            throw new IllegalArgumentException("maxPerAddress = " + maxPerAddress);
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        handshakeLimiter.configure(maxInFlight, maxPerAddress, policy);
+    }
+
+    /**
+     * Разрешает мультиплексирование: клиент с режимом {@link ClientAuthOption#MULTIPLEXING}
+     * авторизует одно соединение и открывает в нем виртуальные соединения, которые
+     * accept() возвращает как обычные авторизованные сокеты без повторной аутентификации.
+     * Клиенты без этого режима не затрагиваются. Блокирующие фабрики без пула
+     * {@link #setHandshakeExecutor(Executor)} читают данные авторизации в
+     * ограниченном пуле, создаваемом серверным сокетом.
+     *
+     * @param multiplexing Разрешено ли мультиплексирование.
+     */
+    public void setMultiplexing(boolean multiplexing) {
+        this.multiplexing = multiplexing;
+    }
+
+    /**
+     * Разрешает сжатие данных соединений клиентов с режимом {@link ClientAuthOption#COMPRESSION}.
+     * Каждая сторона сжимает отправляемые данные со своими настройками; блоки короче
+     * порога и несжимаемые блоки передаются без сжатия.
+     *
+     * @param level Уровень сжатия данных сервера от {@link Deflater#BEST_SPEED} до
+     *      {@link Deflater#BEST_COMPRESSION} или {@link Deflater#DEFAULT_COMPRESSION},
+     *      {@link Deflater#NO_COMPRESSION} - сжатие отключено.
+     * @param threshold Минимальная длина сжимаемого блока в байтах.
+     */
+    public void setCompression(int level, int threshold) {
+        this.compression = level != Deflater.NO_COMPRESSION ? new CompressionSettings(level, threshold) : null;
+    }
+
+    /**
+     * Включает учет трафика, количества и времени жизни авторизованных соединений
+     * по логинам. Учитываются данные, передаваемые по сети; мультиплексированное
+     * соединение учитывается как одно. Соединения, авторизованные по учетным
+     * данным процесса через сокет Unix, не учитываются.
+     *
+     * @param principalAccounting Вести ли учет.
+     */
+    public void setPrincipalAccounting(boolean principalAccounting) {
+        this.principalAccounting = principalAccounting;
+    }
+
+    /**
+     * @return Снимок учета соединений по логинам, собираемый при вызове, или пустой
+     *      снимок, если учет не включен.
+     *
+     * @see #setPrincipalAccounting(boolean)
+     */
+    public Map<String, PrincipalTraffic> getPrincipalTraffic() {
+        return accounting.snapshot();
+    }
+
+    /**
+     * Включает связывание логина авторизованного соединения с потоком, выполняющим
+     * удаленный вызов: реализация удаленного объекта получает его через
+     * {@link AuthContext#getLogin()} без повторной проверки данных авторизации.
+     *
+     * @param principalContext Связывать ли логин.
+     */
+    public void setPrincipalContext(boolean principalContext) {
+        this.principalContext = principalContext;
+    }
+
+    /**
+     * @return Связывается ли логин соединения с потоком удаленного вызова.
+     *
+     * @see #setPrincipalContext(boolean)
+     */
+    public boolean isPrincipalContext() {
+        return principalContext;
+    }
+
+    /**
+     * @return Статистика аутентификации серверных сокетов фабрики.
+     */
+    public HandshakeStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -7,6 +7,13 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
 
 /**
  * Обертка над серверным сокетом, которая выполняет аутентификацию, принимая
@@ -16,27 +23,102 @@ import java.nio.channels.ServerSocketChannel;
  */
 final class ServerSocketAuthWrap extends ServerSocket {
 
+    /** Период проверки закрытия серверного сокета при ожидании места для соединения, мс. */
+    private static final long CAPACITY_WAIT_MILLIS = 1000;
+    /** Количество потоков пула аутентификации, создаваемого для мультиплексирования. */
+    private static final int DEFAULT_HANDSHAKE_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** Вместимость очереди пула аутентификации, создаваемого для мультиплексирования. */
+    private static final int DEFAULT_HANDSHAKE_QUEUE = 256;
+    /** Время простоя потока пула аутентификации до завершения, с. */
+    private static final long DEFAULT_HANDSHAKE_KEEP_ALIVE = 60;
+    ////
     private final ServerSocket sock;
-    /** Авторизатор соединений. */
-    private final Authorizer authorizer;
-
-    public ServerSocketAuthWrap(ServerSocket sock, Authorizer authorizer) throws IOException {
+    /** Аутентификация принятых соединений. */
+    private final ServerSocketAuthenticator authenticator;
+    /** Конвейер аутентификации или null, если аутентификация выполняется в accept(). */
+    private final HandshakePipeline pipeline;
+    /** Пул аутентификации, созданный серверным сокетом, или null. */
+    private final ExecutorService ownExecutor;
+    /** Таймаут accept() в конвейерном режиме. */
+    private volatile int pipelineSoTimeout;
+    /** Имя MBean статистики или null, если зарегистрировать не удалось. */
+    private final ObjectName mbean;
+
+    public ServerSocketAuthWrap(ServerSocket sock, AsyncAuthorizer authorizer, ServerSocketAuthConfig config) throws IOException {
         this.sock = sock;
 
-        if (authorizer == null) {
-            throw new NullPointerException("authorizer");
+        this.authenticator = new ServerSocketAuthenticator(authorizer, config);
+
+        Executor handshakeExecutor = config.handshakeExecutor;
+        if (handshakeExecutor == null && config.multiplexing) {
+            // виртуальные соединения передаются в accept() через очередь конвейера;
+            // данные авторизации читаются в ограниченном пуле, а не в потоке приема,
+            // иначе медленный клиент задерживал бы прием остальных соединений
+            ownExecutor = newHandshakeExecutor(sock.getLocalPort());
+            handshakeExecutor = ownExecutor;
+        } else {
+            ownExecutor = null;
         }
-        this.authorizer = authorizer;
-    }
-
+        this.pipeline = handshakeExecutor != null
+                ? new HandshakePipeline(sock, authenticator, handshakeExecutor)
+                : null;
+        this.mbean = StatisticsMBeans.register(StatisticsMBeans.serverName(sock.getLocalPort()), config.statistics);
+    }
+
+    /**
+     * Создает ограниченный пул аутентификации. Соединения сверх очереди пула
+     * закрываются конвейером.
+     */
+    private static ExecutorService newHandshakeExecutor(final int port) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_HANDSHAKE_THREADS, DEFAULT_HANDSHAKE_THREADS,
+                DEFAULT_HANDSHAKE_KEEP_ALIVE, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_HANDSHAKE_QUEUE),
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "RMI auth handshake " + port);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Принимает соединение и выполняет его аутентификацию.<br>
+     * <br>
+     * В конвейерном режиме возвращает уже авторизованное соединение из очереди,
+     * а соединения, не прошедшие аутентификацию, закрываются без генерации исключения.
+     * Соединения с адресов, превысивших количество неудач, и соединения сверх предела
+     * одновременных аутентификаций закрываются сразу после приема в любом режиме.
+     * Если при достижении предела прием приостанавливается, accept() ожидает
+     * освобождения места без учета таймаута.
+     */
     public Socket accept() throws IOException {
-        Socket socket = sock.accept();
-        new ServerSideSocketAuthorizationImpl(socket, authorizer).checkAuthorized();
-        return socket;
+        if (pipeline != null) {
+            return pipeline.take(pipelineSoTimeout);
+        }
+
+        Socket socket;
+        do {
+            while (!authenticator.awaitCapacity(CAPACITY_WAIT_MILLIS)) {
+                if (sock.isClosed()) {
+                    throw new SocketException("Socket is closed");
+                }
+            }
+            socket = sock.accept();
+        } while (!authenticator.admit(socket));
+        return authenticator.authenticate(socket);
     }
 
     //<editor-fold defaultstate="collapsed" desc="Делегирование методов ServerSocket">
     public synchronized void setSoTimeout(int timeout) throws SocketException {
+        if (pipeline != null) {
+            // поток приема соединений должен ожидать без таймаута
+            pipelineSoTimeout = timeout;
+            return;
+        }
         sock.setSoTimeout(timeout);
     }
 
@@ -61,6 +143,9 @@ final class ServerSocketAuthWrap extends ServerSocket {
     }
 
     public synchronized int getSoTimeout() throws IOException {
+        if (pipeline != null) {
+            return pipelineSoTimeout;
+        }
         return sock.getSoTimeout();
     }
 
@@ -89,7 +174,14 @@ final class ServerSocketAuthWrap extends ServerSocket {
     }
 
     public void close() throws IOException {
+        StatisticsMBeans.unregister(mbean);
         sock.close();
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
     }
 
     public void bind(SocketAddress endpoint, int backlog) throws IOException {
@@ -0,0 +1,427 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Выполняет аутентификацию принятого соединения с учетом настроек серверного сокета.
+ * Реализация потокобезопасна.
+ */
+final class ServerSocketAuthenticator {
+
+    /** Авторизатор соединений. */
+    private final AsyncAuthorizer authorizer;
+    /** Авторизатор, проверяющий данные в буфере запроса, или null. */
+    private final RawAuthorizer rawAuthorizer;
+    /** Общий срок аутентификации в миллисекундах, 0 - без ограничения. */
+    private final long handshakeTimeout;
+    /** Билеты возобновления сессии или null. */
+    private final SessionTickets sessionTickets;
+    /** Статистика аутентификации. */
+    private final HandshakeStatistics statistics;
+    /** Счетчики неудач по адресам клиентов или null. */
+    private final FailureTracker failureTracker;
+    /** Ограничение одновременных аутентификаций. */
+    private final HandshakeLimiter limiter;
+    /** Режимы соединения, с которыми сервер согласен по запросу клиента. */
+    private final int features;
+    /** Настройки сжатия или null, если сжатие не поддерживается. */
+    private final CompressionSettings compression;
+    /** Учет трафика по логинам или null, если учет не ведется. */
+    private final PrincipalAccounting accounting;
+    /** Связывается ли логин соединения с потоком удаленного вызова. */
+    private final boolean principalContext;
+    ////
+    private static final Logger log = Logger.getLogger(ServerSocketAuthenticator.class.getName());
+
+    public ServerSocketAuthenticator(AsyncAuthorizer authorizer, ServerSocketAuthConfig config) {
+        if (authorizer == null) {
+            throw new NullPointerException("authorizer");
+        }
+
+        this.authorizer = authorizer;
+        this.rawAuthorizer = ServerSideSocketAuthorizationImpl.rawAuthorizer(authorizer);
+        this.handshakeTimeout = config.handshakeTimeout;
+        this.sessionTickets = config.sessionTickets;
+        this.statistics = config.statistics;
+        this.failureTracker = config.failureTracker;
+        this.limiter = config.handshakeLimiter;
+        this.compression = config.compression;
+        this.accounting = config.principalAccounting ? config.accounting : null;
+        this.principalContext = config.principalContext;
+        this.features = (config.multiplexing ? HandshakeCodec.FLAG_MULTIPLEXING : 0)
+                | (compression != null ? HandshakeCodec.FLAG_COMPRESSION : 0);
+    }
+
+    /**
+     * @param flags Флаги запроса авторизации.
+     *
+     * @return Режимы соединения, с которыми сервер согласен по запросу.
+     */
+    int accepted(int flags) {
+        return features & flags;
+    }
+
+    /**
+     * @return Нужен ли логин авторизованного соединения для {@link #deliver(Socket, int, String, AcceptedSocketQueue)}.
+     */
+    boolean retainsLogin() {
+        return accounting != null || principalContext;
+    }
+
+    /**
+     * Передает авторизованное соединение с согласованными режимами: сжатое соединение
+     * оборачивается, мультиплексированное передает свои потоки в очередь само.
+     * Трафик учитывается до сжатия, мультиплексированное соединение учитывается
+     * как одно. Логин, или null, если связывание не включено, связывается с потоком,
+     * читающим из соединения, переданного в accept().
+     *
+     * @param socket Авторизованное соединение.
+     * @param accepted Режимы соединения, согласованные с клиентом.
+     * @param login Логин соединения или null, если он не сохранялся.
+     * @param streams Очередь принятых соединений.
+     *
+     * @return Соединение для accept() или null, если соединение мультиплексируется.
+     *
+     * @throws IOException Если соединение не удалось подготовить, оно закрывается.
+     */
+    Socket deliver(Socket socket, int accepted, String login, AcceptedSocketQueue streams) throws IOException {
+        if (accounting != null && login != null) {
+            socket = accounting.wrap(socket, login);
+        }
+        try {
+            if ((accepted & HandshakeCodec.FLAG_COMPRESSION) != 0) {
+                socket = new CompressedSocket(socket, compression);
+            }
+        } catch (IOException e) {
+            AcceptedSocketQueue.closeQuietly(socket);
+            throw e;
+        }
+        Object principal = principalContext ? login : null;
+        if ((accepted & HandshakeCodec.FLAG_MULTIPLEXING) != 0) {
+            multiplex(socket, streams, principal);
+            return null;
+        }
+        // null связывается, чтобы поток пула RMI не сохранил логин другого соединения
+        return new PrincipalSocket(socket, principal);
+    }
+
+    /**
+     * Начинает мультиплексирование авторизованного соединения. Виртуальные соединения,
+     * открытые клиентом, передаются в очередь. В случае ошибки соединение закрывается.
+     *
+     * @param socket Авторизованное соединение.
+     * @param streams Очередь принятых соединений.
+     * @param principal Логин для {@link AuthContext} или null.
+     */
+    private void multiplex(Socket socket, AcceptedSocketQueue streams, Object principal) {
+        try {
+            new MultiplexedConnection(socket, streams, principal);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to start multiplexed connection", e);
+            AcceptedSocketQueue.closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Ожидает, пока можно будет принимать новые соединения, если при достижении
+     * предела одновременных аутентификаций прием приостанавливается.
+     *
+     * @param timeout Максимальное время ожидания, мс.
+     *
+     * @return False, если время ожидания истекло.
+     */
+    boolean awaitCapacity(long timeout) {
+        return limiter.awaitCapacity(timeout);
+    }
+
+    /**
+     * @return Можно ли принимать новые соединения без ожидания.
+     */
+    boolean canAccept() {
+        return limiter.canAccept();
+    }
+
+    /**
+     * Проверяет, допускается ли соединение до аутентификации, и занимает место
+     * в пределе одновременных аутентификаций. Соединения с адресов, превысивших
+     * количество неудач, и соединения сверх предела закрываются сбросом без чтения
+     * данных. Место допущенного соединения освобождается {@link #authenticateAsync(Socket, AcceptedSocketQueue, long)}
+     * или вызовом {@link #release(InetAddress)}.
+     *
+     * @param socket Принятое соединение.
+     *
+     * @return False, если соединение отклонено и закрыто.
+     */
+    boolean admit(Socket socket) {
+        statistics.connectionAccepted();
+        InetAddress address = socket.getInetAddress();
+        if (failureTracker != null && address != null && failureTracker.isBlocked(address)) {
+            log.log(Level.FINE, "Rejecting connection from {0}: too many authentication failures", address);
+            statistics.connectionRejected();
+            reset(socket);
+            return false;
+        }
+        if (!limiter.tryAcquire(address)) {
+            log.log(Level.FINE, "Rejecting connection from {0}: too many concurrent handshakes", address);
+            statistics.connectionOverloaded();
+            reset(socket);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Освобождает место допущенного соединения в пределе одновременных аутентификаций.
+     *
+     * @param address Адрес клиента, полученный до закрытия соединения.
+     */
+    void release(InetAddress address) {
+        limiter.release(address);
+    }
+
+    private static void reset(Socket socket) {
+        try {
+            // RST вместо FIN, чтобы не оставлять соединение в TIME_WAIT
+            socket.setSoLinger(true, 0);
+        } catch (IOException e) {
+            log.log(Level.FINEST, "Failed to set SO_LINGER", e);
+        }
+        AcceptedSocketQueue.closeQuietly(socket);
+    }
+
+    /**
+     * Учитывает неудачную аутентификацию соединения.
+     */
+    void recordFailure(Socket socket) {
+        // счетчик адреса обновляется до статистики, по которой можно ожидать неудачу
+        trackFailure(socket);
+        statistics.authorizationFailed();
+    }
+
+    /**
+     * Учитывает неудачу в счетчике адреса клиента.
+     */
+    private void trackFailure(Socket socket) {
+        InetAddress address = socket.getInetAddress();
+        if (failureTracker != null && address != null) {
+            failureTracker.recordFailure(address);
+        }
+    }
+
+    /**
+     * Учитывает успешную аутентификацию соединения.
+     *
+     * @param socket Авторизованное соединение.
+     * @param acceptedAt Время приема соединения по {@link System#nanoTime()}.
+     */
+    void recordSuccess(Socket socket, long acceptedAt) {
+        statistics.connectionAuthorized(System.nanoTime() - acceptedAt);
+        InetAddress address = socket.getInetAddress();
+        if (failureTracker != null && address != null) {
+            failureTracker.recordSuccess(address);
+        }
+    }
+
+    /**
+     * Выполняет TLS-рукопожатие отдельным этапом до чтения данных авторизации,
+     * иначе оно выполняется неявно при первом чтении. Сессия, созданная до начала
+     * рукопожатия, возобновлена из кэша.
+     *
+     * @param socket Принятое соединение.
+     */
+    private void startTlsHandshake(Socket socket) throws IOException {
+        if (!(socket instanceof SSLSocket)) {
+            return;
+        }
+
+        SSLSocket sslSocket = (SSLSocket) socket;
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        sslSocket.startHandshake();
+        long elapsed = System.nanoTime() - start;
+
+        SSLSession session = sslSocket.getSession();
+        statistics.tlsHandshakeCompleted(session.getCreationTime() < startedAt, elapsed);
+    }
+
+    /**
+     * Выполняет аутентификацию соединения. Срок аутентификации охватывает как чтение
+     * данных авторизации, так и TLS-рукопожатие, которое выполняется при первом чтении.
+     * В случае неудачи сокет будет закрыт.
+     *
+     * @param socket Принятое соединение.
+     *
+     * @return Авторизованное соединение.
+     *
+     * @throws IOException Если аутентификация не пройдена или не уложилась в срок.
+     */
+    public Socket authenticate(Socket socket) throws IOException {
+        return SocketAuthorizationImpl.await(authenticateAsync(socket, null, System.nanoTime()));
+    }
+
+    /**
+     * Выполняет аутентификацию соединения: выполняет TLS-рукопожатие и читает данные
+     * авторизации в вызывающем потоке, а ответ клиенту отправляет по завершении проверки авторизатором,
+     * не блокируя вызывающий поток. В случае неудачи сокет будет закрыт.
+     * По завершении освобождает место соединения, занятое {@link #admit(Socket)}.
+     *
+     * @param socket Принятое соединение.
+     * @param streams Очередь, в которую передаются виртуальные соединения, если
+     *      клиент запросил мультиплексирование, или null, если мультиплексирование
+     *      не поддерживается вызывающей стороной.
+     * @param acceptedAt Время приема соединения по {@link System#nanoTime()}.
+     *
+     * @return Стадия, завершающаяся авторизованным соединением, null, если соединение
+     *      мультиплексируется, или ошибкой, если аутентификация не пройдена или не
+     *      уложилась в срок.
+     */
+    CompletionStage<Socket> authenticateAsync(final Socket socket, final AcceptedSocketQueue streams,
+            final long acceptedAt) {
+        final InetAddress address = socket.getInetAddress();
+        final HandshakeTimer.Timeout deadline = startDeadline(socket);
+        final CompletableFuture<Socket> result = new CompletableFuture<Socket>();
+
+        final ServerSideSocketAuthorizationImpl authorization = new ServerSideSocketAuthorizationImpl(socket,
+                authorizer, sessionTickets, streams != null ? features : features & ~HandshakeCodec.FLAG_MULTIPLEXING,
+                statistics, retainsLogin());
+        CompletionStage<Void> authorized;
+        final long credentialsStartedAt;
+        try {
+            startTlsHandshake(socket);
+            credentialsStartedAt = System.nanoTime();
+            authorized = authorization.authorizeAsync();
+        } catch (IOException e) {
+            if (e instanceof SocketAuthorizationFailedException) {
+                recordFailure(socket);
+            }
+            release(address);
+            result.completeExceptionally(deadline != null && !deadline.cancel() ? deadlineExpired(e) : e);
+            return result;
+        }
+
+        authorized.whenComplete(new BiConsumer<Void, Throwable>() {
+
+            @Override
+            public void accept(Void ignored, Throwable failure) {
+                release(address);
+                statistics.credentialsChecked(System.nanoTime() - credentialsStartedAt);
+                if (failure != null) {
+                    if (failure instanceof SocketAuthorizationFailedException) {
+                        recordFailure(socket);
+                    }
+                    if (deadline != null && !deadline.cancel() && failure instanceof IOException) {
+                        failure = deadlineExpired((IOException) failure);
+                    }
+                    result.completeExceptionally(failure);
+                    return;
+                }
+
+                try {
+                    finishDeadline(deadline);
+                    recordSuccess(socket, acceptedAt);
+                    result.complete(deliver(socket, authorization.accepted(), authorization.login(), streams));
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Проверяет декодированный запрос авторизации.
+     *
+     * @param request Запрос авторизации.
+     *
+     * @return Стадия, завершающаяся ответом на запрос.
+     */
+    CompletionStage<HandshakeCodec.HandshakeResponse> decide(HandshakeCodec.HandshakeRequest request) {
+        return ServerSideSocketAuthorizationImpl.decide(request, authorizer, sessionTickets, statistics);
+    }
+
+    /**
+     * @param credentials Декодированный запрос авторизации.
+     *
+     * @return Можно ли проверить запрос в буфере через {@link #decideRaw(RawCredentials)}.
+     */
+    boolean canAuthorizeRaw(RawCredentials credentials) {
+        return ServerSideSocketAuthorizationImpl.canAuthorizeRaw(credentials, rawAuthorizer, sessionTickets);
+    }
+
+    /**
+     * Синхронно проверяет запрос авторизации в буфере без создания строк.
+     *
+     * @param credentials Декодированный запрос авторизации.
+     *
+     * @return Ответ на запрос.
+     */
+    HandshakeCodec.HandshakeResponse decideRaw(RawCredentials credentials) {
+        return ServerSideSocketAuthorizationImpl.decideRaw(credentials, rawAuthorizer, sessionTickets, statistics);
+    }
+
+    /**
+     * Запускает отсчет срока аутентификации соединения.
+     *
+     * @param socket Соединение, которое будет закрыто по истечении срока.
+     *
+     * @return Срок или null, если срок не ограничен.
+     */
+    HandshakeTimer.Timeout startDeadline(Socket socket) {
+        if (handshakeTimeout <= 0) {
+            return null;
+        }
+        return HandshakeTimer.shared().schedule(new DeadlineTask(socket), handshakeTimeout);
+    }
+
+    /**
+     * Завершает отсчет срока аутентификации соединения.
+     *
+     * @param deadline Срок, полученный из {@link #startDeadline(Socket)}.
+     *
+     * @throws SocketTimeoutException Если срок уже истек и соединение закрыто.
+     */
+    void finishDeadline(HandshakeTimer.Timeout deadline) throws SocketTimeoutException {
+        if (deadline != null && !deadline.cancel()) {
+            // срок истек одновременно с окончанием аутентификации, сокет уже закрыт
+            throw deadlineExpired(null);
+        }
+    }
+
+    private SocketTimeoutException deadlineExpired(IOException cause) {
+        SocketTimeoutException e = new SocketTimeoutException(
+                "Socket connection handshake deadline of " + handshakeTimeout + " ms expired");
+        if (cause != null) {
+            e.initCause(cause);
+        }
+        return e;
+    }
+
+    /** Закрывает соединение по истечении срока аутентификации. */
+    private final class DeadlineTask implements Runnable {
+
+        private final Socket socket;
+
+        DeadlineTask(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            log.log(Level.FINE, "Socket connection handshake deadline expired: {0}", socket);
+
+            statistics.handshakeExpired();
+            trackFailure(socket);
+            AcceptedSocketQueue.closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.rmi.auth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Клиентский кэш билетов возобновления сессии по адресам серверов.
+ * Билет действителен только для тех данных авторизации, с которыми он получен.
+ */
+final class SessionTicketCache {
+
+    /** Общий кэш клиентских фабрик сокетов. */
+    static final SessionTicketCache SHARED = new SessionTicketCache();
+    ////
+    private final Map<String, Entry> tickets = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param endpoint Адрес сервера.
+     * @param authData Текущие данные авторизации для сервера.
+     *
+     * @return Билет или null, если билета нет или он получен с другими данными авторизации.
+     */
+    byte[] get(String endpoint, AuthData authData) {
+        Entry entry = tickets.get(endpoint);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.authData.equals(authData)) {
+            tickets.remove(endpoint, entry);
+            return null;
+        }
+        return entry.ticket;
+    }
+
+    void put(String endpoint, AuthData authData, byte[] ticket) {
+        tickets.put(endpoint, new Entry(authData, ticket));
+    }
+
+    /**
+     * Удаляет билет, если он не был заменен другим потоком.
+     */
+    void remove(String endpoint, byte[] ticket) {
+        Entry entry = tickets.get(endpoint);
+        if (entry != null && entry.ticket == ticket) {
+            tickets.remove(endpoint, entry);
+        }
+    }
+
+    static String endpoint(String host, int port) {
+        return host + ':' + port;
+    }
+
+    private static final class Entry {
+
+        final AuthData authData;
+        final byte[] ticket;
+
+        Entry(AuthData authData, byte[] ticket) {
+            this.authData = authData;
+            this.ticket = ticket;
+        }
+    }
+}
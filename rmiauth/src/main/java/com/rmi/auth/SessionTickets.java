@@ -0,0 +1,130 @@
+package com.rmi.auth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Выпускает и проверяет билеты возобновления сессии. Билет содержит логин и срок
+ * действия и защищен HMAC-SHA256, поэтому сервер проверяет его локально, без
+ * обращения к авторизатору. Для клиента билет непрозрачен. Реализация потокобезопасна.
+ */
+final class SessionTickets {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    /** Длина кода аутентификации. */
+    private static final int MAC_LENGTH = 32;
+    /** Версия формата билета. */
+    private static final byte TICKET_VERSION = 1;
+    /** Длина случайного ключа. */
+    private static final int KEY_LENGTH = 32;
+    /** Максимальная длина билета. */
+    static final int MAX_TICKET_LENGTH = 1024;
+    ////
+    private final SecretKeySpec key;
+    /** Время жизни билета, мс. */
+    private final long lifetime;
+    /** Алгоритм вычисления кода аутентификации для каждого потока. */
+    private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+            }
+        }
+    };
+
+    /**
+     * Конструктор.
+     *
+     * @param key Ключ HMAC или null для случайного ключа.
+     * @param lifetime Время жизни билета, мс.
+     */
+    SessionTickets(byte[] key, long lifetime) {
+        if (lifetime <= 0) {
+            throw new IllegalArgumentException("lifetime = " + lifetime);
+        }
+        if (key == null) {
+            key = new byte[KEY_LENGTH];
+            new SecureRandom().nextBytes(key);
+        } else if (key.length < 16) {
+            throw new IllegalArgumentException("Ticket key is too short: " + key.length);
+        }
+
+        this.key = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Выпускает билет.
+     *
+     * @param login Логин авторизованного клиента.
+     *
+     * @return Билет.
+     */
+    byte[] issue(String login) {
+        byte[] loginBytes = login.getBytes(UTF8);
+        int bodyLength = 1 + 8 + 2 + loginBytes.length;
+        if (bodyLength + MAC_LENGTH > MAX_TICKET_LENGTH) {
+            return null;
+        }
+
+        ByteBuffer ticket = ByteBuffer.allocate(bodyLength + MAC_LENGTH);
+        ticket.put(TICKET_VERSION);
+        ticket.putLong(System.currentTimeMillis() + lifetime);
+        ticket.putShort((short) loginBytes.length);
+        ticket.put(loginBytes);
+
+        Mac m = mac.get();
+        m.update(ticket.array(), 0, bodyLength);
+        ticket.put(m.doFinal());
+        return ticket.array();
+    }
+
+    /**
+     * Проверяет билет.
+     *
+     * @param ticket Билет.
+     *
+     * @return Логин, для которого выпущен билет, или null, если билет поврежден,
+     *      подделан или просрочен.
+     */
+    String verify(byte[] ticket) {
+        int bodyLength = ticket.length - MAC_LENGTH;
+        if (bodyLength < 1 + 8 + 2) {
+            return null;
+        }
+
+        Mac m = mac.get();
+        m.update(ticket, 0, bodyLength);
+        byte[] expected = m.doFinal();
+        byte[] actual = new byte[MAC_LENGTH];
+        System.arraycopy(ticket, bodyLength, actual, 0, MAC_LENGTH);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.wrap(ticket, 0, bodyLength);
+        if (body.get() != TICKET_VERSION) {
+            return null;
+        }
+        if (body.getLong() < System.currentTimeMillis()) {
+            return null;
+        }
+        int loginLength = body.getShort() & 0xFFFF;
+        if (loginLength != body.remaining()) {
+            return null;
+        }
+        return new String(ticket, body.position(), loginLength, UTF8);
+    }
+}
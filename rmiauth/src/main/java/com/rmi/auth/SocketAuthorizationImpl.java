@@ -1,9 +1,19 @@
 package com.rmi.auth;
 
-import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,11 +28,13 @@ abstract class SocketAuthorizationImpl {
     protected static final byte AUTH_SUCCEEDED = 0;
     /** Ответ на запрос авторизации: авторизация прошла неудачно. */
     protected static final byte AUTH_FAILED = 1;
+    /** Ответ на запрос авторизации: версия формата запроса не поддерживается. */
+    protected static final byte AUTH_UNSUPPORTED_VERSION = 2;
     ////
     /** Сокет. */
     protected final Socket socket;
     /** Авторизовано ли соединение. */
-    protected boolean authorized;
+    protected volatile boolean authorized;
 
     public SocketAuthorizationImpl(Socket socket) {
         if (socket == null) {
@@ -40,22 +52,169 @@ abstract class SocketAuthorizationImpl {
      */
     public abstract void checkAuthorized() throws IOException;
 
+    /**
+     * Читает из потока ровно <tt>length</tt> байт в буфер с его текущей позиции.
+     */
+    protected static void readFully(InputStream in, ByteBuffer buf, int length) throws IOException {
+        byte[] array = buf.array();
+        int off = buf.arrayOffset() + buf.position();
+        int end = off + length;
+        while (off < end) {
+            int n = in.read(array, off, end - off);
+            if (n < 0) {
+                throw new EOFException("Connection closed during authorization");
+            }
+            off += n;
+        }
+        buf.position(buf.position() + length);
+    }
+
+    /**
+     * Записывает буфер от начала до текущей позиции одним вызовом.
+     */
+    protected static void writeFully(OutputStream out, ByteBuffer buf) throws IOException {
+        out.write(buf.array(), buf.arrayOffset(), buf.position());
+        out.flush();
+    }
+
+    /**
+     * Ожидает завершения стадии. Прерывание потока не прекращает ожидание,
+     * но сохраняется в его статусе.
+     *
+     * @return Результат стадии.
+     *
+     * @throws IOException Если стадия завершилась ошибкой ввода-вывода.
+     */
+    static <T> T await(CompletionStage<T> stage) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return stage.toCompletableFuture().get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
 
 final class ClientSideSocketAuthorizationImpl extends SocketAuthorizationImpl {
 
     /** Данные авторизации. */
     private final AuthData authData;
+    /** Кэш билетов возобновления сессии или null, если возобновление не используется. */
+    private final SessionTicketCache tickets;
+    /** Адрес сервера для кэша билетов. */
+    private final String endpoint;
+    /** Используется ли формат запроса серверов, не поддерживающих кадры. */
+    private final boolean legacyProtocol;
+    /**
+     * Предлагаемые серверу режимы соединения: {@link HandshakeCodec#FLAG_MULTIPLEXING},
+     * {@link HandshakeCodec#FLAG_COMPRESSION}.
+     */
+    private final int features;
+    /** Настройки сжатия отправляемых данных или null, если сжатие не предлагается. */
+    private final CompressionSettings compression;
+    /** Отправленный билет возобновления сессии. */
+    private byte[] sentTicket;
+    /** Режимы соединения, с которыми согласился сервер. */
+    private volatile int accepted;
     ////
     private static final Logger log = Logger.getLogger(ClientSideSocketAuthorizationImpl.class.getName());
 
     public ClientSideSocketAuthorizationImpl(Socket socket, AuthData authData) {
+        this(socket, authData, null, null, false);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param socket Сокет.
+     * @param authData Данные авторизации.
+     * @param tickets Кэш билетов возобновления сессии или null.
+     * @param endpoint Адрес сервера для кэша билетов.
+     * @param legacyProtocol Использовать ли формат запроса серверов, не поддерживающих
+     *      кадры. Возобновление сессий в этом формате не поддерживается.
+     */
+    public ClientSideSocketAuthorizationImpl(Socket socket, AuthData authData,
+            SessionTicketCache tickets, String endpoint, boolean legacyProtocol) {
+        this(socket, authData, tickets, endpoint, legacyProtocol, false, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param socket Сокет.
+     * @param authData Данные авторизации.
+     * @param tickets Кэш билетов возобновления сессии или null.
+     * @param endpoint Адрес сервера для кэша билетов.
+     * @param legacyProtocol Использовать ли формат запроса серверов, не поддерживающих
+     *      кадры. Возобновление сессий и режимы соединения в этом формате не поддерживаются.
+     * @param multiplexing Предлагать ли серверу мультиплексирование соединения.
+     * @param compression Настройки сжатия отправляемых данных или null, если сжатие
+     *      не предлагается.
+     */
+    public ClientSideSocketAuthorizationImpl(Socket socket, AuthData authData, SessionTicketCache tickets,
+            String endpoint, boolean legacyProtocol, boolean multiplexing, CompressionSettings compression) {
         super(socket);
 
         if (authData == null) {
             throw new NullPointerException("authData");
         }
+        if (tickets != null && endpoint == null) {
+            throw new NullPointerException("endpoint");
+        }
         this.authData = authData;
+        this.tickets = legacyProtocol ? null : tickets;
+        this.endpoint = endpoint;
+        this.legacyProtocol = legacyProtocol;
+        this.compression = compression;
+        this.features = legacyProtocol ? 0 : (multiplexing ? HandshakeCodec.FLAG_MULTIPLEXING : 0)
+                | (compression != null ? HandshakeCodec.FLAG_COMPRESSION : 0);
+    }
+
+    /**
+     * @return Согласился ли сервер мультиплексировать соединение. Известно после
+     *      {@link #checkAuthorized()}.
+     */
+    boolean isMultiplexed() {
+        return (accepted & HandshakeCodec.FLAG_MULTIPLEXING) != 0;
+    }
+
+    /**
+     * @return Согласился ли сервер сжимать данные соединения. Известно после
+     *      {@link #checkAuthorized()}.
+     */
+    boolean isCompressed() {
+        return (accepted & HandshakeCodec.FLAG_COMPRESSION) != 0;
+    }
+
+    /**
+     * @return Авторизованное соединение: если сервер согласился сжимать данные,
+     *      сокет, сжимающий данные, иначе исходный сокет. Вызывается один раз после
+     *      {@link #checkAuthorized()}.
+     *
+     * @throws IOException .
+     */
+    Socket authorizedSocket() throws IOException {
+        return isCompressed() ? new CompressedSocket(socket, compression) : socket;
     }
 
     @Override
@@ -67,15 +226,80 @@ final class ClientSideSocketAuthorizationImpl extends SocketAuthorizationImpl {
         log.log(Level.FINEST, "Socket connection authorization on the client side, authData: {0}", authData);
 
         // авторизация еще не выполнена
-        // отправка логина и пароля
-        DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-        dos.writeUTF(authData.login);
-        dos.writeUTF(authData.password);
-        dos.flush();
-
-        // читаем ответ на запрос авторизации от сервера
-        int authResponse = socket.getInputStream().read();
-        if (authResponse == AUTH_SUCCEEDED) {
+        long start = System.nanoTime();
+        sendRequest();
+        try {
+            readResponse(socket.getInputStream());
+        } catch (SocketAuthorizationFailedException e) {
+            ClientHandshakeStatistics.SHARED.handshakeFailed();
+            throw e;
+        }
+        ClientHandshakeStatistics.SHARED.handshakeCompleted(System.nanoTime() - start);
+    }
+
+    /**
+     * Отправляет данные авторизации, не дожидаясь ответа сервера. Ответ будет прочитан
+     * при первом чтении из возвращенного сокета, поэтому данные приложения можно
+     * отправлять сразу.
+     *
+     * @return Сокет, проверяющий ответ на запрос авторизации перед первым чтением.
+     *
+     * @throws IOException .
+     */
+    public Socket authorizeOptimistically() throws IOException {
+        log.log(Level.FINEST, "Optimistic socket connection authorization on the client side, authData: {0}", authData);
+
+        sendRequest();
+        return new OptimisticallyAuthorizedSocket(socket);
+    }
+
+    /**
+     * Отправляет запрос авторизации одним вызовом записи. Вместе с билетом
+     * отправляются логин и пароль, чтобы при отклонении билета сервер проверил
+     * их без дополнительного обмена.
+     */
+    private void sendRequest() throws IOException {
+        OutputStream out = socket.getOutputStream();
+        if (legacyProtocol) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(request);
+            dos.writeUTF(authData.login);
+            dos.writeUTF(authData.password);
+            request.writeTo(out);
+            out.flush();
+            return;
+        }
+
+        int flags = 0;
+        if (tickets != null) {
+            flags |= HandshakeCodec.FLAG_SESSION_RESUMPTION;
+            sentTicket = tickets.get(endpoint, authData);
+        }
+        flags |= features;
+
+        ByteBuffer buf = HandshakeBufferPool.acquire();
+        try {
+            HandshakeCodec.encodeRequest(buf, new HandshakeCodec.HandshakeRequest(
+                    flags, authData.login, authData.password, sentTicket));
+            writeFully(out, buf);
+        } finally {
+            HandshakeBufferPool.release(buf);
+        }
+    }
+
+    /**
+     * Читает ответ на запрос авторизации.
+     */
+    private void readResponse(InputStream in) throws IOException {
+        boolean succeeded;
+        try {
+            succeeded = legacyProtocol ? in.read() == AUTH_SUCCEEDED : readResponseFrame(in);
+        } catch (EOFException e) {
+            // сервер закрывает соединение при неудачной авторизации
+            succeeded = false;
+        }
+
+        if (succeeded) {
             log.log(Level.FINEST, "Socket connection authorization successful");
             authorized = true;
         } else {
@@ -84,21 +308,227 @@ final class ClientSideSocketAuthorizationImpl extends SocketAuthorizationImpl {
             throw new SocketAuthorizationFailedException("Wrong authorization: " + authData);
         }
     }
+
+    private boolean readResponseFrame(InputStream in) throws IOException {
+        HandshakeCodec.HandshakeResponse response;
+        ByteBuffer buf = HandshakeBufferPool.acquire();
+        try {
+            readFully(in, buf, HandshakeCodec.HEADER_LENGTH);
+            buf.flip();
+            int bodyLength = HandshakeCodec.bodyLength(buf);
+            buf.limit(buf.capacity());
+            buf.position(HandshakeCodec.HEADER_LENGTH);
+            readFully(in, buf, bodyLength);
+            buf.flip();
+            response = HandshakeCodec.decodeResponse(buf);
+        } catch (HandshakeCodec.UnsupportedVersionException e) {
+            // сервер другой версии ответил кадром своей версии
+            socket.close();
+            throw new SocketAuthorizationFailedException("Server supports handshake version " + e.version
+                    + ", client uses " + HandshakeCodec.VERSION);
+        } catch (SocketAuthorizationFailedException e) {
+            socket.close();
+            throw e;
+        } finally {
+            HandshakeBufferPool.release(buf);
+        }
+
+        if (response.verdict != AUTH_SUCCEEDED) {
+            if (sentTicket != null) {
+                tickets.remove(endpoint, sentTicket);
+            }
+            return false;
+        }
+        if (response.ticket != null && tickets != null) {
+            tickets.put(endpoint, authData, response.ticket);
+        }
+        accepted = features & response.accepted;
+        return true;
+    }
+
+    /**
+     * Сокет, авторизация которого подтверждается сервером асинхронно. Ответ сервера
+     * читается перед первым чтением данных приложения.
+     */
+    private final class OptimisticallyAuthorizedSocket extends SocketWrap {
+
+        private final InputStream in;
+        /**
+         * Блокировка чтения ответа авторизации. Отдельна от монитора сокета, чтобы
+         * close() и setSoTimeout() не ожидали ответа сервера.
+         */
+        private final Object responseLock = new Object();
+
+        OptimisticallyAuthorizedSocket(Socket sock) throws IOException {
+            super(sock);
+
+            in = new FilterInputStream(sock.getInputStream()) {
+
+                @Override
+                public int read() throws IOException {
+                    awaitAuthorized();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    awaitAuthorized();
+                    return super.read(b, off, len);
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    awaitAuthorized();
+                    return super.skip(n);
+                }
+
+                @Override
+                public int available() throws IOException {
+                    return authorized ? super.available() : 0;
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return in;
+        }
+
+        private void awaitAuthorized() throws IOException {
+            if (authorized) {
+                return;
+            }
+
+            synchronized (responseLock) {
+                if (authorized) {
+                    return;
+                }
+
+                try {
+                    readResponse(sock.getInputStream());
+                    ClientHandshakeStatistics.SHARED.optimisticHandshakeCompleted();
+                } catch (SocketAuthorizationFailedException e) {
+                    ClientHandshakeStatistics.SHARED.handshakeFailed();
+                    throw e;
+                } catch (IOException e) {
+                    // сервер закрывает соединение при неудачной авторизации
+                    ClientHandshakeStatistics.SHARED.handshakeFailed();
+                    sock.close();
+                    SocketAuthorizationFailedException failure = new SocketAuthorizationFailedException(
+                            "Connection closed before authorization was confirmed: " + authData);
+                    failure.initCause(e);
+                    throw failure;
+                }
+            }
+        }
+    }
 }
 
 final class ServerSideSocketAuthorizationImpl extends SocketAuthorizationImpl {
 
-    private final Authorizer authorizer;
+    /** Ответ на успешную авторизацию без билета. */
+    private static final HandshakeCodec.HandshakeResponse SUCCEEDED
+            = new HandshakeCodec.HandshakeResponse(AUTH_SUCCEEDED, null);
+    /** Ответ на неудачную авторизацию. */
+    private static final HandshakeCodec.HandshakeResponse FAILED
+            = new HandshakeCodec.HandshakeResponse(AUTH_FAILED, null);
+    ////
+    private final AsyncAuthorizer authorizer;
+    /** Авторизатор, проверяющий данные в буфере запроса, или null. */
+    private final RawAuthorizer rawAuthorizer;
+    /** Билеты возобновления сессии или null, если возобновление не используется. */
+    private final SessionTickets tickets;
+    /** Режимы соединения, с которыми сервер согласен по запросу клиента. */
+    private final int features;
+    /** Статистика, в которой учитывается длительность проверки авторизатором, или null. */
+    private final HandshakeStatistics statistics;
+    /** Нужен ли логин авторизованного соединения при проверке в буфере запроса. */
+    private final boolean retainLogin;
+    /** Режимы авторизованного соединения, согласованные с клиентом. */
+    private volatile int accepted;
+    /** Логин авторизованного соединения. */
+    private volatile String login;
     ////
     private static final Logger log = Logger.getLogger(ServerSideSocketAuthorizationImpl.class.getName());
 
     public ServerSideSocketAuthorizationImpl(Socket socket, Authorizer authorizer) {
+        this(socket, new AsyncAuthorizerAdapter(authorizer), null);
+    }
+
+    public ServerSideSocketAuthorizationImpl(Socket socket, AsyncAuthorizer authorizer, SessionTickets tickets) {
+        this(socket, authorizer, tickets, 0);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param socket Сокет.
+     * @param authorizer Авторизатор.
+     * @param tickets Билеты возобновления сессии или null.
+     * @param features Режимы соединения, с которыми сервер согласен по запросу клиента:
+     *      флаги {@link HandshakeCodec#FLAG_MULTIPLEXING}, {@link HandshakeCodec#FLAG_COMPRESSION}.
+     */
+    public ServerSideSocketAuthorizationImpl(Socket socket, AsyncAuthorizer authorizer, SessionTickets tickets,
+            int features) {
+        this(socket, authorizer, tickets, features, null, false);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param socket Сокет.
+     * @param authorizer Авторизатор.
+     * @param tickets Билеты возобновления сессии или null.
+     * @param features Режимы соединения, с которыми сервер согласен по запросу клиента.
+     * @param statistics Статистика, в которой учитывается длительность проверки
+     *      авторизатором, или null.
+     * @param retainLogin Нужен ли логин авторизованного соединения: при проверке
+     *      в буфере запроса строка логина создается только по необходимости.
+     */
+    ServerSideSocketAuthorizationImpl(Socket socket, AsyncAuthorizer authorizer, SessionTickets tickets,
+            int features, HandshakeStatistics statistics, boolean retainLogin) {
         super(socket);
 
         if (authorizer == null) {
             throw new NullPointerException("authorizer");
         }
         this.authorizer = authorizer;
+        this.rawAuthorizer = rawAuthorizer(authorizer);
+        this.tickets = tickets;
+        this.features = features;
+        this.statistics = statistics;
+        this.retainLogin = retainLogin;
+    }
+
+    /**
+     * @return Режимы авторизованного соединения, согласованные с клиентом.
+     */
+    int accepted() {
+        return accepted;
+    }
+
+    /**
+     * @return Логин авторизованного соединения или null, если он не сохранялся.
+     */
+    String login() {
+        return login;
+    }
+
+    /**
+     * @return Авторизатор, проверяющий данные в буфере запроса, если он вызывается
+     *      синхронно, иначе null.
+     */
+    static RawAuthorizer rawAuthorizer(AsyncAuthorizer authorizer) {
+        if (authorizer instanceof RawAuthorizer) {
+            return (RawAuthorizer) authorizer;
+        }
+        if (authorizer instanceof AsyncAuthorizerAdapter) {
+            AsyncAuthorizerAdapter adapter = (AsyncAuthorizerAdapter) authorizer;
+            if (adapter.isInline() && adapter.getAuthorizer() instanceof RawAuthorizer) {
+                return (RawAuthorizer) adapter.getAuthorizer();
+            }
+        }
+        return null;
     }
 
     @Override
@@ -107,30 +537,288 @@ final class ServerSideSocketAuthorizationImpl extends SocketAuthorizationImpl {
             return;
         }
 
+        await(authorizeAsync());
+    }
+
+    /**
+     * Читает запрос авторизации и начинает его проверку. Ответ клиенту
+     * отправляется по завершении проверки в потоке, завершившем стадию авторизатора.
+     * В случае неудачной авторизации сокет будет закрыт.
+     *
+     * @return Стадия, завершающаяся после отправки ответа, или ошибкой
+     *      {@link SocketAuthorizationFailedException}, если авторизация не пройдена.
+     *
+     * @throws IOException Если запрос не удалось прочитать.
+     */
+    CompletionStage<Void> authorizeAsync() throws IOException {
+        if (authorized) {
+            return CompletableFuture.completedFuture(null);
+        }
+
         log.log(Level.FINEST, "Socket connection authorization on the server side");
 
         // авторизация еще не выполнена
-        // читаем логин и пароль
-        DataInputStream dis = new DataInputStream(socket.getInputStream());
-        DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-        String login = dis.readUTF();
-        String password = dis.readUTF();
-
-        AuthData authData = new AuthData(login, password);
-        if (authorizer.authorize(authData)) {
-            log.log(Level.FINEST, "Socket connection authorization succeeded with data: {0}", authData);
-
-            // авторизация успешна
-            dos.write(AUTH_SUCCEEDED);
+        // первый байт определяет формат запроса
+        InputStream in = socket.getInputStream();
+        int first = in.read();
+        if (first < 0) {
+            throw new EOFException("Connection closed before authorization");
+        }
+
+        final boolean legacy = (byte) first != HandshakeCodec.MAGIC;
+        SessionTickets requestTickets = legacy ? null : tickets;
+        final HandshakeCodec.HandshakeRequest request;
+        HandshakeCodec.HandshakeResponse rawResponse = null;
+        String rawLogin = null;
+        final int flags;
+        ByteBuffer buf = HandshakeBufferPool.acquire();
+        RawCredentials credentials = RawCredentials.local();
+        try {
+            if (legacy) {
+                // запрос клиентов, не поддерживающих кадры: логин и пароль в формате
+                // DataOutput.writeUTF, ответ - один байт; запрос длиннее кадра
+                // дочитывается в буфер большей вместимости и проверяется через строки
+                buf.put((byte) first);
+                int limit;
+                while ((limit = HandshakeCodec.legacyReadLimit(buf)) > buf.position()) {
+                    if (limit > buf.capacity()) {
+                        buf = HandshakeBufferPool.grow(buf, limit);
+                    }
+                    readFully(in, buf, limit - buf.position());
+                }
+                HandshakeCodec.decodeLegacyRequest(buf, buf.position(), credentials);
+            } else {
+                readFrame(in, buf);
+                HandshakeCodec.decodeRequest(buf, credentials);
+            }
+            flags = legacy ? 0 : credentials.flags();
+
+            if (buf.capacity() <= HandshakeCodec.MAX_FRAME_LENGTH
+                    && canAuthorizeRaw(credentials, rawAuthorizer, requestTickets)) {
+                // проверка без строк, пока буфер не возвращен в пул
+                request = null;
+                rawResponse = decideRaw(credentials, rawAuthorizer, requestTickets, statistics);
+                if (rawResponse.verdict != AUTH_SUCCEEDED || retainLogin) {
+                    rawLogin = credentials.login();
+                }
+            } else {
+                request = credentials.toRequest();
+            }
+        } catch (SocketAuthorizationFailedException e) {
+            log.log(Level.FINE, "Malformed handshake request: {0}", e.getMessage());
+            if (e instanceof HandshakeCodec.UnsupportedVersionException) {
+                rejectVersion();
+            }
+            socket.close();
+            throw e;
+        } finally {
+            credentials.clear();
+            HandshakeBufferPool.release(buf);
+        }
+
+        if (rawResponse != null) {
+            finish(legacy, flags, rawLogin, rawResponse);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        decide(request, authorizer, requestTickets, statistics).whenComplete(
+                new BiConsumer<HandshakeCodec.HandshakeResponse, Throwable>() {
+
+            @Override
+            public void accept(HandshakeCodec.HandshakeResponse response, Throwable failure) {
+                try {
+                    if (failure != null) {
+                        log.log(Level.WARNING, "Authorizer failed", failure);
+                        response = FAILED;
+                    }
+                    finish(legacy, flags, request.login, response);
+                    result.complete(null);
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Отправляет ответ на запрос авторизации.
+     *
+     * @param flags Флаги запроса.
+     */
+    private void finish(boolean legacy, int flags, String login, HandshakeCodec.HandshakeResponse response)
+            throws IOException {
+        int accept = legacy || response.verdict != AUTH_SUCCEEDED ? 0 : features & flags;
+        try {
+            OutputStream out = socket.getOutputStream();
+            if (legacy) {
+                out.write(response.verdict);
+                out.flush();
+            } else {
+                writeResponse(out, response.verdict, response.ticket, accept);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        if (response.verdict == AUTH_SUCCEEDED) {
+            accepted = accept;
+            this.login = login;
             authorized = true;
         } else {
-            log.log(Level.FINE, "Socket connection authorization failed with data: {0}", authData);
-
-            // неверные данные авторизации
-            dos.write(AUTH_FAILED);
-            dos.flush();
             socket.close(); // закрываем соединение
-            throw new SocketAuthorizationFailedException("Wrong authorization: " + authData);
+            throw new SocketAuthorizationFailedException("Wrong authorization: " + login);
+        }
+    }
+
+    /**
+     * Отвечает на запрос неподдерживаемой версии кадром версии сервера, чтобы клиент
+     * узнал поддерживаемую версию.
+     */
+    private void rejectVersion() {
+        try {
+            writeResponse(socket.getOutputStream(), AUTH_UNSUPPORTED_VERSION, null);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to send supported handshake version", e);
+        }
+    }
+
+    /**
+     * Чтение кадра запроса в буфер. Первый байт уже прочитан.
+     */
+    private static void readFrame(InputStream in, ByteBuffer buf) throws IOException {
+        buf.put(HandshakeCodec.MAGIC);
+        readFully(in, buf, HandshakeCodec.HEADER_LENGTH - 1);
+        buf.flip();
+        int bodyLength = HandshakeCodec.bodyLength(buf);
+        buf.limit(buf.capacity());
+        buf.position(HandshakeCodec.HEADER_LENGTH);
+        readFully(in, buf, bodyLength);
+        buf.flip();
+    }
+
+    /**
+     * @return Можно ли проверить запрос авторизатором, работающим с буфером
+     *      запроса: билет проверяется через строку логина.
+     */
+    static boolean canAuthorizeRaw(RawCredentials credentials, RawAuthorizer rawAuthorizer, SessionTickets tickets) {
+        return rawAuthorizer != null && credentials.isUtf8() && !(tickets != null && credentials.hasTicket());
+    }
+
+    /**
+     * Проверяет запрос авторизатором, работающим с буфером запроса.
+     *
+     * @param credentials Данные авторизации в буфере запроса.
+     * @param rawAuthorizer Авторизатор.
+     * @param tickets Билеты возобновления сессии или null.
+     * @param statistics Статистика для учета длительности проверки или null.
+     *
+     * @return Ответ на запрос.
+     */
+    static HandshakeCodec.HandshakeResponse decideRaw(RawCredentials credentials, RawAuthorizer rawAuthorizer,
+            SessionTickets tickets, HandshakeStatistics statistics) {
+        boolean authorized;
+        long start = System.nanoTime();
+        try {
+            authorized = rawAuthorizer.authorize(credentials);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Authorizer failed", e);
+            return FAILED;
+        } finally {
+            if (statistics != null) {
+                statistics.authorizerCompleted(System.nanoTime() - start);
+            }
+        }
+        if (!authorized) {
+            return FAILED;
+        }
+        if (tickets != null && (credentials.flags() & HandshakeCodec.FLAG_SESSION_RESUMPTION) != 0) {
+            return new HandshakeCodec.HandshakeResponse(AUTH_SUCCEEDED, tickets.issue(credentials.login()));
+        }
+        return SUCCEEDED;
+    }
+
+    /**
+     * Проверяет запрос авторизации: сначала билет возобновления сессии, если он
+     * предъявлен, затем логин и пароль.
+     *
+     * @param request Запрос авторизации.
+     * @param authorizer Авторизатор.
+     * @param tickets Билеты возобновления сессии или null.
+     * @param statistics Статистика для учета длительности проверки авторизатором или null.
+     *
+     * @return Стадия, завершающаяся ответом на запрос.
+     */
+    static CompletionStage<HandshakeCodec.HandshakeResponse> decide(final HandshakeCodec.HandshakeRequest request,
+            AsyncAuthorizer authorizer, final SessionTickets tickets, final HandshakeStatistics statistics) {
+        if (tickets != null && request.ticket != null && request.login.equals(tickets.verify(request.ticket))) {
+            log.log(Level.FINEST, "Socket connection session resumed for login: {0}", request.login);
+
+            // билет принят, новый билет не нужен
+            return CompletableFuture.completedFuture(SUCCEEDED);
+        }
+
+        final AuthData authData = new AuthData(request.login, request.password);
+        final long start = System.nanoTime();
+        CompletionStage<Boolean> authorization;
+        try {
+            authorization = authorizer.authorizeAsync(authData);
+        } catch (RuntimeException e) {
+            if (statistics != null) {
+                statistics.authorizerCompleted(System.nanoTime() - start);
+            }
+            CompletableFuture<HandshakeCodec.HandshakeResponse> failed
+                    = new CompletableFuture<HandshakeCodec.HandshakeResponse>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        if (statistics != null) {
+            // длительность учитывается и при завершении авторизатора с ошибкой
+            authorization = authorization.whenComplete(new BiConsumer<Boolean, Throwable>() {
+
+                @Override
+                public void accept(Boolean authorized, Throwable failure) {
+                    statistics.authorizerCompleted(System.nanoTime() - start);
+                }
+            });
+        }
+        return authorization.thenApply(new Function<Boolean, HandshakeCodec.HandshakeResponse>() {
+
+            @Override
+            public HandshakeCodec.HandshakeResponse apply(Boolean authorized) {
+                if (Boolean.TRUE.equals(authorized)) {
+                    log.log(Level.FINEST, "Socket connection authorization succeeded with data: {0}", authData);
+
+                    // авторизация успешна
+                    byte[] ticket = null;
+                    if (tickets != null && (request.flags & HandshakeCodec.FLAG_SESSION_RESUMPTION) != 0) {
+                        ticket = tickets.issue(request.login);
+                    }
+                    return new HandshakeCodec.HandshakeResponse(AUTH_SUCCEEDED, ticket);
+                }
+
+                log.log(Level.FINE, "Socket connection authorization failed with data: {0}", authData);
+
+                // неверные данные авторизации
+                return FAILED;
+            }
+        });
+    }
+
+    static void writeResponse(OutputStream out, byte verdict, byte[] ticket) throws IOException {
+        writeResponse(out, verdict, ticket, 0);
+    }
+
+    static void writeResponse(OutputStream out, byte verdict, byte[] ticket, int accepted) throws IOException {
+        ByteBuffer buf = HandshakeBufferPool.acquire();
+        try {
+            HandshakeCodec.encodeResponse(buf, verdict, ticket, accepted);
+            writeFully(out, buf);
+        } finally {
+            HandshakeBufferPool.release(buf);
         }
     }
 }
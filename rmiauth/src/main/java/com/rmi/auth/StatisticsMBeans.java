@@ -0,0 +1,98 @@
+package com.rmi.auth;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Регистрация статистики аутентификации в платформенном MBeanServer. Ошибки
+ * регистрации не мешают работе сокетов и только записываются в лог.
+ */
+final class StatisticsMBeans {
+
+    /** Домен имен MBean. */
+    static final String DOMAIN = "com.rmi.auth";
+    ////
+    private static final Logger log = Logger.getLogger(StatisticsMBeans.class.getName());
+
+    private StatisticsMBeans() {
+    }
+
+    /**
+     * @param port Порт серверного сокета.
+     *
+     * @return Имя MBean статистики серверного сокета.
+     */
+    static ObjectName serverName(int port) {
+        return name("type=HandshakeStatistics,port=" + port);
+    }
+
+    /**
+     * @return Имя MBean статистики клиентских фабрик.
+     */
+    static ObjectName clientName() {
+        return name("type=ClientHandshakeStatistics");
+    }
+
+    private static ObjectName name(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ':' + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(properties, e);
+        }
+    }
+
+    /**
+     * Регистрирует MBean. MBean с тем же именем, оставшийся от закрытого сокета,
+     * заменяется.
+     *
+     * @param name Имя.
+     * @param mbean Объект статистики.
+     *
+     * @return Имя или null, если зарегистрировать не удалось.
+     */
+    static ObjectName register(ObjectName name, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            try {
+                server.registerMBean(mbean, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(mbean, name);
+            }
+            return name;
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Failed to register MBean " + name, e);
+            return null;
+        } catch (SecurityException e) {
+            log.log(Level.WARNING, "Failed to register MBean " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Отменяет регистрацию MBean, если он еще зарегистрирован.
+     *
+     * @param name Имя, полученное из {@link #register(ObjectName, Object)}, или null.
+     */
+    static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.log(Level.FINE, "Failed to unregister MBean " + name, e);
+        } catch (SecurityException e) {
+            log.log(Level.FINE, "Failed to unregister MBean " + name, e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.rmi.auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Доступ к сокетам Unix (Java 16+) через отражение, поскольку библиотека собирается
+ * для Java 8. Сокет сервера RMI размещается в каталоге под именем, производным от
+ * TCP-порта сервера, поэтому клиент находит его по адресу из заглушки.
+ */
+final class UnixDomainSockets {
+
+    /** Семейство протоколов UNIX или null, если не поддерживается. */
+    private static final ProtocolFamily UNIX;
+    /** <tt>UnixDomainSocketAddress.of(Path)</tt>. */
+    private static final Method addressOf;
+    /** <tt>SocketChannel.open(ProtocolFamily)</tt>. */
+    private static final Method openChannel;
+    /** <tt>ServerSocketChannel.open(ProtocolFamily)</tt>. */
+    private static final Method openServerChannel;
+    /** <tt>ExtendedSocketOptions.SO_PEERCRED</tt> или null, если не поддерживается. */
+    private static final SocketOption<?> peerCredentials;
+    /** <tt>UnixDomainPrincipal.user()</tt>. */
+    private static final Method principalUser;
+    /** <tt>UnixDomainPrincipal.group()</tt>. */
+    private static final Method principalGroup;
+    ////
+    private static final Logger log = Logger.getLogger(UnixDomainSockets.class.getName());
+
+    static {
+        ProtocolFamily unix = null;
+        Method of = null;
+        Method open = null;
+        Method openServer = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            openServer = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (Exception e) {
+            // Java до 16
+            log.log(Level.FINE, "Unix domain sockets are not supported", e);
+            unix = null;
+        }
+        UNIX = unix;
+        addressOf = of;
+        openChannel = open;
+        openServerChannel = openServer;
+
+        SocketOption<?> option = null;
+        Method user = null;
+        Method group = null;
+        try {
+            option = (SocketOption<?>) Class.forName("jdk.net.ExtendedSocketOptions").getField("SO_PEERCRED").get(null);
+            Class<?> principal = Class.forName("jdk.net.UnixDomainPrincipal");
+            user = principal.getMethod("user");
+            group = principal.getMethod("group");
+        } catch (Exception e) {
+            // Java до 16 или платформа без SO_PEERCRED
+            log.log(Level.FINE, "Peer credentials are not supported", e);
+            option = null;
+        }
+        peerCredentials = option;
+        principalUser = user;
+        principalGroup = group;
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    /**
+     * @return Поддерживаются ли сокеты Unix с проверкой учетных данных клиента.
+     */
+    static boolean isSupported() {
+        return UNIX != null && peerCredentials != null;
+    }
+
+    /**
+     * @param directory Каталог сокетов.
+     * @param port TCP-порт сервера.
+     *
+     * @return Файл сокета сервера.
+     */
+    static File socketFile(File directory, int port) {
+        return new File(directory, "rmi-" + port + ".sock");
+    }
+
+    /**
+     * Создает серверный сокет. Файл, оставшийся от прежнего сервера, удаляется.
+     *
+     * @param file Файл сокета.
+     *
+     * @return Канал в блокирующем режиме.
+     *
+     * @throws IOException Если сокет не удалось создать.
+     */
+    static ServerSocketChannel bind(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new SocketException("Failed to delete stale socket file " + file);
+        }
+
+        ServerSocketChannel channel = (ServerSocketChannel) invoke(openServerChannel, null, UNIX);
+        try {
+            channel.bind(address(file));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Устанавливает соединение.
+     *
+     * @param file Файл сокета сервера.
+     *
+     * @return Канал в блокирующем режиме.
+     *
+     * @throws IOException Если соединение не удалось установить.
+     */
+    static SocketChannel connect(File file) throws IOException {
+        SocketChannel channel = (SocketChannel) invoke(openChannel, null, UNIX);
+        try {
+            channel.connect(address(file));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * @param channel Принятое соединение.
+     *
+     * @return Учетные данные процесса клиента.
+     *
+     * @throws IOException Если учетные данные не удалось получить.
+     */
+    static PeerCredentials peerCredentials(SocketChannel channel) throws IOException {
+        Object principal = channel.getOption(peerCredentials);
+        Object user = invoke(principalUser, principal);
+        Object group = invoke(principalGroup, principal);
+        return new PeerCredentials(((Principal) user).getName(), ((Principal) group).getName());
+    }
+
+    private static SocketAddress address(File file) throws IOException {
+        return (SocketAddress) invoke(addressOf, null, file.toPath());
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.rmi.auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Серверный сокет, принимающий соединения как через TCP с аутентификацией по
+ * логину и паролю, так и через сокет Unix с авторизацией по учетным данным
+ * процесса клиента, без обмена данными авторизации. Файл сокета Unix создается
+ * в каталоге под именем, производным от TCP-порта, и удаляется при закрытии.
+ */
+final class UnixServerSocketWrap extends ServerSocket {
+
+    /** Пауза после ошибки accept(), чтобы не нагружать процессор при нехватке дескрипторов. */
+    private static final long ACCEPT_FAILURE_PAUSE_MILLIS = 10;
+    ////
+    /** Серверный сокет TCP с аутентификацией. */
+    private final ServerSocket tcp;
+    /** Серверный сокет Unix. */
+    private final ServerSocketChannel channel;
+    /** Файл сокета Unix. */
+    private final File file;
+    /** Авторизатор локальных соединений. */
+    private final PeerCredentialsAuthorizer peerAuthorizer;
+    /** Статистика аутентификации. */
+    private final HandshakeStatistics statistics;
+    /** Авторизованные сокеты обоих видов. */
+    private final AcceptedSocketQueue ready = new AcceptedSocketQueue();
+    /** Таймаут accept(). */
+    private volatile int soTimeout;
+    ////
+    private static final Logger log = Logger.getLogger(UnixServerSocketWrap.class.getName());
+
+    public UnixServerSocketWrap(ServerSocket tcp, File directory, PeerCredentialsAuthorizer peerAuthorizer,
+            HandshakeStatistics statistics) throws IOException {
+        this.tcp = tcp;
+        this.peerAuthorizer = peerAuthorizer;
+        this.statistics = statistics;
+        this.file = UnixDomainSockets.socketFile(directory, tcp.getLocalPort());
+        try {
+            this.channel = UnixDomainSockets.bind(file);
+        } catch (IOException e) {
+            tcp.close();
+            throw e;
+        }
+
+        int port = tcp.getLocalPort();
+        Thread unixAcceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                acceptUnixLoop();
+            }
+        }, "RMI auth unix acceptor-" + port);
+        unixAcceptor.setDaemon(true);
+        unixAcceptor.start();
+
+        Thread tcpAcceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                acceptTcpLoop();
+            }
+        }, "RMI auth tcp acceptor-" + port);
+        tcpAcceptor.setDaemon(true);
+        tcpAcceptor.start();
+    }
+
+    /**
+     * Возвращает очередное авторизованное соединение TCP или Unix.
+     */
+    public Socket accept() throws IOException {
+        return ready.take(soTimeout);
+    }
+
+    private void acceptUnixLoop() {
+        while (!ready.isClosed()) {
+            SocketChannel accepted;
+            try {
+                accepted = channel.accept();
+            } catch (IOException e) {
+                if (ready.isClosed() || !channel.isOpen()) {
+                    return;
+                }
+
+                log.log(Level.WARNING, "Failed to accept Unix domain connection", e);
+                ready.fail(e);
+                pause();
+                continue;
+            }
+
+            authorize(accepted);
+        }
+    }
+
+    /**
+     * Проверяет учетные данные процесса клиента и передает соединение в accept().
+     * Учетные данные доступны удаленным вызовам через {@link AuthContext}.
+     * Соединения, не прошедшие авторизацию, закрываются без чтения данных.
+     */
+    private void authorize(SocketChannel accepted) {
+        PeerCredentials peer;
+        boolean authorized;
+        try {
+            peer = UnixDomainSockets.peerCredentials(accepted);
+            authorized = peerAuthorizer.authorize(peer);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to get peer credentials", e);
+            peer = null;
+            authorized = false;
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Authorizer failed", e);
+            peer = null;
+            authorized = false;
+        }
+
+        statistics.peerChecked(authorized);
+        if (!authorized) {
+            log.log(Level.FINE, "Unix domain connection authorization failed: {0}", peer);
+            try {
+                accepted.close();
+            } catch (IOException e) {
+                log.log(Level.FINEST, "Failed to close channel", e);
+            }
+            return;
+        }
+
+        log.log(Level.FINEST, "Unix domain connection authorized: {0}", peer);
+        ready.offer(new PrincipalSocket(new ChannelSocket(accepted), peer));
+    }
+
+    private void acceptTcpLoop() {
+        while (!ready.isClosed()) {
+            Socket accepted;
+            try {
+                accepted = tcp.accept();
+            } catch (SocketAuthorizationFailedException e) {
+                // соединение уже закрыто при аутентификации
+                log.log(Level.FINE, "Socket connection handshake failed", e);
+                continue;
+            } catch (IOException e) {
+                if (ready.isClosed() || tcp.isClosed()) {
+                    return;
+                }
+
+                log.log(Level.FINE, "Failed to accept TCP connection", e);
+                pause();
+                continue;
+            }
+
+            ready.offer(accepted);
+        }
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(ACCEPT_FAILURE_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //<editor-fold defaultstate="collapsed" desc="Делегирование методов ServerSocket">
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout can't be negative");
+        }
+        soTimeout = timeout;
+    }
+
+    public void setReuseAddress(boolean on) throws SocketException {
+        tcp.setReuseAddress(on);
+    }
+
+    public synchronized void setReceiveBufferSize(int size) throws SocketException {
+        tcp.setReceiveBufferSize(size);
+    }
+
+    public void setPerformancePreferences(int connectionTime, int latency, int bandwidth) {
+        tcp.setPerformancePreferences(connectionTime, latency, bandwidth);
+    }
+
+    public boolean isClosed() {
+        return tcp.isClosed();
+    }
+
+    public boolean isBound() {
+        return tcp.isBound();
+    }
+
+    public synchronized int getSoTimeout() throws IOException {
+        return soTimeout;
+    }
+
+    public boolean getReuseAddress() throws SocketException {
+        return tcp.getReuseAddress();
+    }
+
+    public synchronized int getReceiveBufferSize() throws SocketException {
+        return tcp.getReceiveBufferSize();
+    }
+
+    public SocketAddress getLocalSocketAddress() {
+        return tcp.getLocalSocketAddress();
+    }
+
+    public int getLocalPort() {
+        return tcp.getLocalPort();
+    }
+
+    public InetAddress getInetAddress() {
+        return tcp.getInetAddress();
+    }
+
+    /**
+     * Каналы используются для приема неавторизованных соединений и не предоставляются.
+     *
+     * @return null.
+     */
+    public ServerSocketChannel getChannel() {
+        return null;
+    }
+
+    public void close() throws IOException {
+        ready.close();
+        try {
+            tcp.close();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                if (!file.delete() && file.exists()) {
+                    log.log(Level.WARNING, "Failed to delete socket file {0}", file);
+                }
+            }
+        }
+    }
+
+    public void bind(SocketAddress endpoint, int backlog) throws IOException {
+        throw new SocketException("Already bound");
+    }
+
+    public void bind(SocketAddress endpoint) throws IOException {
+        throw new SocketException("Already bound");
+    }
+    //</editor-fold>
+}
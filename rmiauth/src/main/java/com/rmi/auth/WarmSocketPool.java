@@ -0,0 +1,261 @@
+package com.rmi.auth;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Пул заранее установленных и авторизованных соединений с одним сервером.
+ * Соединения создаются и проверяются в фоновом потоке: соединения старше
+ * максимального времени простоя и соединения, закрытые сервером, удаляются,
+ * а пул пополняется до заданного размера.<br>
+ * <br>
+ * Время простоя должно быть меньше времени, в течение которого сервер RMI ждет
+ * заголовок протокола в новом соединении (по умолчанию 60 секунд).
+ */
+final class WarmSocketPool {
+
+    /** Период обслуживания пулов, мс. */
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 1000;
+    /** Время ожидания данных при проверке соединения, мс. */
+    private static final int PROBE_TIMEOUT_MILLIS = 1;
+    /** Количество потоков обслуживания пулов. */
+    private static final int MAINTENANCE_THREADS = 2;
+    ////
+    private static volatile ScheduledExecutorService maintenance;
+    ////
+    private final String host;
+    private final int port;
+    /** Размер пула. */
+    private final int size;
+    /** Максимальное время простоя соединения, нс. */
+    private final long maxIdle;
+    /** Создание авторизованных соединений. */
+    private final Connector connector;
+    /** Свободные соединения, новые в конце. */
+    private final Deque<Entry> idle = new ConcurrentLinkedDeque<Entry>();
+    /** Запланировано ли внеочередное пополнение. */
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    /** Периодическое обслуживание. */
+    private final ScheduledFuture<?> task;
+    /** Закрыт ли пул. */
+    private volatile boolean closed;
+    ////
+    private static final Logger log = Logger.getLogger(WarmSocketPool.class.getName());
+
+    /**
+     * Конструктор. Пул начинает заполняться сразу.
+     *
+     * @param host Хост сервера.
+     * @param port Порт сервера.
+     * @param size Размер пула.
+     * @param maxIdle Максимальное время простоя соединения, мс.
+     * @param connector Создание авторизованных соединений.
+     */
+    WarmSocketPool(String host, int port, int size, long maxIdle, Connector connector) {
+        this.host = host;
+        this.port = port;
+        this.size = size;
+        this.maxIdle = TimeUnit.MILLISECONDS.toNanos(maxIdle);
+        this.connector = connector;
+
+        this.task = maintenance().scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                maintain();
+            }
+        }, 0, MAINTENANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Возвращает свободное соединение, авторизованное с указанными данными, и
+     * запускает пополнение пула.
+     *
+     * @param authData Текущие данные авторизации для сервера.
+     *
+     * @return Соединение или null, если свободных соединений нет.
+     */
+    Socket poll(AuthData authData) {
+        Socket socket = null;
+        Entry entry;
+        while (socket == null && (entry = idle.pollLast()) != null) {
+            if (isUsable(entry, authData, System.nanoTime()) && !entry.socket.isClosed()) {
+                socket = entry.socket;
+            } else {
+                AcceptedSocketQueue.closeQuietly(entry.socket);
+            }
+        }
+
+        scheduleRefill();
+        return socket;
+    }
+
+    /**
+     * Закрывает пул и все свободные соединения.
+     */
+    void close() {
+        closed = true;
+        task.cancel(false);
+
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            AcceptedSocketQueue.closeQuietly(entry.socket);
+        }
+    }
+
+    private void scheduleRefill() {
+        if (closed || !refillScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        maintenance().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                refillScheduled.set(false);
+                refill();
+            }
+        });
+    }
+
+    /**
+     * Удаляет устаревшие и закрытые сервером соединения и пополняет пул.
+     */
+    private void maintain() {
+        AuthData authData = connector.authData(host);
+        long now = System.nanoTime();
+        for (int i = idle.size(); i > 0; i--) {
+            Entry entry = idle.pollFirst();
+            if (entry == null) {
+                break;
+            }
+
+            if (isUsable(entry, authData, now) && isAlive(entry.socket)) {
+                idle.offerLast(entry);
+            } else {
+                log.log(Level.FINEST, "Evicting warm socket {0}", entry.socket);
+                AcceptedSocketQueue.closeQuietly(entry.socket);
+            }
+        }
+
+        refill();
+    }
+
+    private synchronized void refill() {
+        while (!closed && idle.size() < size) {
+            AuthData authData = connector.authData(host);
+            if (authData == null) {
+                return;
+            }
+
+            Socket socket;
+            try {
+                socket = connector.connect(host, port, authData);
+            } catch (IOException e) {
+                // повторим при следующем обслуживании
+                log.log(Level.FINE, "Failed to open warm socket to " + host + ":" + port, e);
+                return;
+            }
+
+            Entry entry = new Entry(socket, authData, System.nanoTime());
+            idle.offerLast(entry);
+            if (closed && idle.remove(entry)) {
+                // пул закрыт во время соединения
+                AcceptedSocketQueue.closeQuietly(socket);
+            }
+        }
+    }
+
+    private boolean isUsable(Entry entry, AuthData authData, long now) {
+        return now - entry.createdAt < maxIdle && entry.authData.equals(authData);
+    }
+
+    /**
+     * Проверяет, что сервер не закрыл соединение. До отправки клиентом заголовка
+     * RMI сервер не передает данных, поэтому любые прочитанные данные, как и
+     * конец потока, означают непригодное соединение.
+     */
+    private static boolean isAlive(Socket socket) {
+        if (socket.isClosed() || socket.isInputShutdown()) {
+            return false;
+        }
+
+        try {
+            socket.setSoTimeout(PROBE_TIMEOUT_MILLIS);
+            try {
+                socket.getInputStream().read();
+                return false;
+            } finally {
+                socket.setSoTimeout(0);
+            }
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ScheduledExecutorService maintenance() {
+        ScheduledExecutorService result = maintenance;
+        if (result == null) {
+            synchronized (WarmSocketPool.class) {
+                result = maintenance;
+                if (result == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                            MAINTENANCE_THREADS, new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "RMI auth warm pool");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    maintenance = result = executor;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Создание авторизованных соединений для пула. */
+    interface Connector {
+
+        /**
+         * @return Текущие данные авторизации для хоста или null.
+         */
+        AuthData authData(String host);
+
+        /**
+         * Устанавливает соединение и выполняет авторизацию.
+         */
+        Socket connect(String host, int port, AuthData authData) throws IOException;
+    }
+
+    private static final class Entry {
+
+        final Socket socket;
+        /** Данные, с которыми соединение авторизовано. */
+        final AuthData authData;
+        /** Момент создания, нс. */
+        final long createdAt;
+
+        Entry(Socket socket, AuthData authData, long createdAt) {
+            this.socket = socket;
+            this.authData = authData;
+            this.createdAt = createdAt;
+        }
+    }
+}
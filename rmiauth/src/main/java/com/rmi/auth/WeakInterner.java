@@ -0,0 +1,30 @@
+package com.rmi.auth;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Слабый пул равных объектов: возвращает ранее сохраненный экземпляр, равный
+ * переданному. Экземпляры, на которые нет других ссылок, удаляются сборщиком мусора.
+ */
+final class WeakInterner<T> {
+
+    private final Map<T, WeakReference<T>> instances = new WeakHashMap<T, WeakReference<T>>();
+
+    /**
+     * @param value Объект.
+     *
+     * @return Сохраненный экземпляр, равный объекту, или сам объект, если такого нет.
+     */
+    synchronized T intern(T value) {
+        WeakReference<T> ref = instances.get(value);
+        T existing = ref != null ? ref.get() : null;
+        if (existing != null) {
+            return existing;
+        }
+
+        instances.put(value, new WeakReference<T>(value));
+        return value;
+    }
+}
@@ -1,14 +1,45 @@
 package com.rmi.auth;
 
 import com.test.TestThreadsHelper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.rmi.AccessException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
+import java.util.zip.Deflater;
 import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -34,6 +65,8 @@ public class AuthRMISocketFactoryTest {
     private List<Socket> serverSideClientSockets;
     private AuthRMIClientSocketFactory clientSocketFactory;
     private AuthRMIServerSocketFactory serverSocketFactory;
+    /** Пул потоков аутентификации для тестов конвейерного режима. */
+    private ExecutorService handshakeExecutor;
     ////
     private final AuthData correctAuth = new AuthData("1", "1");
 
@@ -54,6 +87,7 @@ public class AuthRMISocketFactoryTest {
     public void setUp() throws Exception {
         clientSocketFactory = new AuthRMIClientSocketFactory();
         serverSocketFactory = new AuthRMIServerSocketFactory(new TestAuthorizer());
+        handshakeExecutor = Executors.newCachedThreadPool();
 
         clientSockets = Collections.synchronizedList(new LinkedList<Socket>());
         serverSideClientSockets = Collections.synchronizedList(new LinkedList<Socket>());
@@ -73,6 +107,10 @@ public class AuthRMISocketFactoryTest {
             serverSocket.close();
             serverSocket = null;
         }
+        handshakeExecutor.shutdownNow();
+        AuthRMIClientSocketFactory.removeHostAuthData(InetAddress.getLocalHost().getHostAddress());
+        AuthRMIClientSocketFactory.removeHostAuthData(InetAddress.getLocalHost().getHostName());
+        AuthRMIClientSocketFactory.setHostWarmPool("localhost", 0);
 
         Thread.sleep(100);
     }
@@ -130,10 +168,1007 @@ public class AuthRMISocketFactoryTest {
         threads.awaitThreads().checkThrowables();
     }
 
+    /** Конвейерный режим: зависший клиент не мешает авторизации остальных. */
+    @Test(timeout = 2000)
+    public void testPipelinedAcceptWithStalledClient() throws Throwable {
+        System.out.println("testPipelinedAcceptWithStalledClient");
+
+        openPipelinedServerSocket();
+
+        // клиент, который подключается и ничего не отправляет
+        Socket stalled = new Socket("localhost", serverSocket.getLocalPort());
+        clientSockets.add(stalled);
+
+        TestThreadsHelper threads = new TestThreadsHelper(NUM_THREADS, SEQUENTIAL) {
+
+            @Override
+            protected void run(int nThread) throws Exception {
+                Socket clSocket = openClientSocket(correctAuth);
+                clSocket.getOutputStream().write(17);
+            }
+        };
+
+        threads.startThreads();
+
+        for (int i = 0; i < NUM_THREADS; i++) {
+            Socket ssSocket = accept();
+            assertEquals(17, ssSocket.getInputStream().read());
+        }
+
+        threads.awaitThreads().checkThrowables();
+    }
+
+    /** Серверные фабрики сериализуются; настройки десериализованной фабрики по умолчанию. */
+    @Test(timeout = 2000)
+    public void testServerSocketFactorySerialization() throws Throwable {
+        System.out.println("testServerSocketFactorySerialization");
+
+        AuthRMIServerSocketFactory factory = new AuthRMIServerSocketFactory(new AcceptAllAuthorizer());
+        factory.getConfig().setHandshakeExecutor(handshakeExecutor);
+        AuthRMIServerSocketFactory copy = (AuthRMIServerSocketFactory) deserialize(serialize(factory));
+        assertNull(copy.getConfig().handshakeExecutor);
+
+        // клиент ожидает ответа сервера, поэтому accept() не должен аутентифицировать в этом потоке
+        copy.getConfig().setHandshakeExecutor(handshakeExecutor);
+        ServerSocket copySocket = copy.createServerSocket(0);
+        try {
+            clientSocketFactory.setHostAuthData("localhost", correctAuth);
+            Socket socket = clientSocketFactory.createSocket("localhost", copySocket.getLocalPort());
+            clientSockets.add(socket);
+            socket.getOutputStream().write(17);
+            Socket accepted = copySocket.accept();
+            serverSideClientSockets.add(accepted);
+            assertEquals(17, accepted.getInputStream().read());
+        } finally {
+            copySocket.close();
+        }
+
+        AuthNioRMIServerSocketFactory nio = new AuthNioRMIServerSocketFactory(new AcceptAllAuthorizer(), 1);
+        nio.getConfig().setHandshakeExecutor(handshakeExecutor);
+        assertNull(((AuthNioRMIServerSocketFactory) deserialize(serialize(nio))).getConfig().handshakeExecutor);
+    }
+
+    /** Соединение, не приславшее данные авторизации, закрывается по истечении срока. */
+    @Test(timeout = 2000)
+    public void testHandshakeDeadline() throws Throwable {
+        System.out.println("testHandshakeDeadline");
+
+        serverSocketFactory.getConfig().setHandshakeTimeout(200);
+        openPipelinedServerSocket();
+
+        Socket stalled = new Socket("localhost", serverSocket.getLocalPort());
+        clientSockets.add(stalled);
+
+        // сервер закрывает соединение, не отправив ответ
+        assertEquals(-1, stalled.getInputStream().read());
+        assertEquals(1, serverSocketFactory.getConfig().getStatistics().getExpiredHandshakes());
+
+        Socket clSocket = openClientSocket(correctAuth);
+        clSocket.getOutputStream().write(17);
+        assertEquals(17, accept().getInputStream().read());
+    }
+
+    /** Повторные соединения возобновляют сессию по билету без обращения к авторизатору. */
+    @Test(timeout = 2000)
+    public void testSessionResumption() throws Throwable {
+        System.out.println("testSessionResumption");
+
+        final AtomicInteger authorizations = new AtomicInteger();
+        serverSocketFactory = new AuthRMIServerSocketFactory(new Authorizer() {
+
+            @Override
+            public boolean authorize(AuthData authData) {
+                authorizations.incrementAndGet();
+                return new TestAuthorizer().authorize(authData);
+            }
+        });
+        serverSocketFactory.getConfig().setSessionResumption(null, 60000);
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.SESSION_RESUMPTION);
+        openPipelinedServerSocket();
+
+        for (int i = 0; i < 5; i++) {
+            Socket clSocket = openClientSocket(correctAuth);
+            clSocket.getOutputStream().write(17);
+            assertEquals(17, accept().getInputStream().read());
+        }
+        assertEquals(1, authorizations.get());
+
+        // билет, выпущенный другим сервером, отклоняется, и клиент авторизуется заново
+        serverSocket.close();
+        serverSocketFactory.getConfig().setSessionResumption(null, 60000);
+        openServerSocket();
+        for (int i = 0; i < 2; i++) {
+            Socket clSocket = openClientSocket(correctAuth);
+            clSocket.getOutputStream().write(17);
+            assertEquals(17, accept().getInputStream().read());
+        }
+        assertEquals(2, authorizations.get());
+    }
+
+    /** Оптимистичная авторизация: сокет возвращается до ответа сервера. */
+    @Test(timeout = 2000)
+    public void testOptimisticAuthorization() throws Throwable {
+        System.out.println("testOptimisticAuthorization");
+
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.OPTIMISTIC_AUTHORIZATION);
+
+        // сервер еще не принял соединение, но клиент уже отправляет данные
+        Socket clSocket = openClientSocket(correctAuth);
+        clSocket.getOutputStream().write(17);
+        Socket ssSocket = accept();
+        assertEquals(17, ssSocket.getInputStream().read());
+        ssSocket.getOutputStream().write(18);
+        assertEquals(18, clSocket.getInputStream().read());
+
+        Socket wrongSocket = openClientSocket(new AuthData("2", "3"));
+        wrongSocket.getOutputStream().write(17);
+        try {
+            accept();
+            fail("Исключение не сгенерировано");
+        } catch (SocketAuthorizationFailedException e) {
+        }
+        try {
+            wrongSocket.getInputStream().read();
+            fail("Исключение не сгенерировано");
+        } catch (SocketAuthorizationFailedException e) {
+        }
+    }
+
+    /** Ожидание ответа сервера при оптимистичной авторизации не блокирует закрытие сокета. */
+    @Test(timeout = 2000)
+    public void testOptimisticAuthorizationClose() throws Throwable {
+        System.out.println("testOptimisticAuthorizationClose");
+
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.OPTIMISTIC_AUTHORIZATION);
+        // сервер не отвечает на запрос авторизации
+        ServerSocket silent = new ServerSocket(0);
+        try {
+            clientSocketFactory.setHostAuthData("localhost", correctAuth);
+            final Socket clSocket = clientSocketFactory.createSocket("localhost", silent.getLocalPort());
+            clientSockets.add(clSocket);
+            FutureTask<Void> reader = new FutureTask<Void>(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    clSocket.getInputStream().read();
+                    return null;
+                }
+            });
+            Thread readerThread = new Thread(reader);
+            readerThread.setDaemon(true);
+            readerThread.start();
+            Thread.sleep(100);
+
+            clSocket.setSoTimeout(1000);
+            clSocket.close();
+            try {
+                reader.get();
+                fail("Исключение не сгенерировано");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            silent.close();
+        }
+    }
+
+    /** Клиенты, отправляющие логин и пароль без кадра, продолжают работать. */
+    @Test(timeout = 1000)
+    public void testLegacyClient() throws Throwable {
+        System.out.println("testLegacyClient");
+
+        TestThreadsHelper threads = new TestThreadsHelper(1) {
+
+            @Override
+            protected void run(int nThread) throws Exception {
+                Socket clSocket = new Socket("localhost", serverSocket.getLocalPort());
+                clientSockets.add(clSocket);
+                new ClientSideSocketAuthorizationImpl(clSocket, correctAuth, null, null, true).checkAuthorized();
+                clSocket.getOutputStream().write(17);
+            }
+        };
+
+        threads.startThreads();
+        assertEquals(17, accept().getInputStream().read());
+        threads.awaitThreads().checkThrowables();
+    }
+
+    /** Клиенты исходного формата с данными авторизации длиннее кадра продолжают работать. */
+    @Test(timeout = 3000)
+    public void testLegacyClientWithLongPassword() throws Throwable {
+        System.out.println("testLegacyClientWithLongPassword");
+
+        StringBuilder token = new StringBuilder();
+        while (token.length() < 3 * HandshakeCodec.MAX_FRAME_LENGTH) {
+            token.append("token");
+        }
+        final AuthData longAuth = new AuthData(correctAuth.login, token.toString());
+
+        AuthNioRMIServerSocketFactory nioFactory = new AuthNioRMIServerSocketFactory(new TestAuthorizer(), 1);
+        final ServerSocket nioSocket = nioFactory.createServerSocket(0);
+        try {
+            for (final ServerSocket server : Arrays.asList(serverSocket, nioSocket)) {
+                TestThreadsHelper threads = new TestThreadsHelper(1) {
+
+                    @Override
+                    protected void run(int nThread) throws Exception {
+                        Socket clSocket = new Socket("localhost", server.getLocalPort());
+                        clientSockets.add(clSocket);
+                        new ClientSideSocketAuthorizationImpl(clSocket, longAuth, null, null, true).checkAuthorized();
+                        clSocket.getOutputStream().write(17);
+                    }
+                };
+
+                threads.startThreads();
+                Socket ssSocket = server.accept();
+                serverSideClientSockets.add(ssSocket);
+                assertEquals(17, ssSocket.getInputStream().read());
+                threads.awaitThreads().checkThrowables();
+            }
+        } finally {
+            nioSocket.close();
+        }
+    }
+
+    /** Ожидание асинхронного авторизатора не занимает поток аутентификации. */
+    @Test(timeout = 2000)
+    public void testAsyncAuthorizer() throws Throwable {
+        System.out.println("testAsyncAuthorizer");
+
+        final List<CompletableFuture<Boolean>> pending = new CopyOnWriteArrayList<CompletableFuture<Boolean>>();
+
+        // единственный поток аутентификации
+        handshakeExecutor.shutdownNow();
+        handshakeExecutor = Executors.newSingleThreadExecutor();
+        serverSocketFactory = new AuthRMIServerSocketFactory(new AsyncAuthorizer() {
+
+            @Override
+            public CompletionStage<Boolean> authorizeAsync(AuthData authData) {
+                CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+                pending.add(result);
+                return result;
+            }
+        });
+        openPipelinedServerSocket();
+
+        TestThreadsHelper threads = new TestThreadsHelper(NUM_THREADS, SEQUENTIAL) {
+
+            @Override
+            protected void run(int nThread) throws Exception {
+                Socket clSocket = openClientSocket(correctAuth);
+                clSocket.getOutputStream().write(17);
+            }
+        };
+
+        threads.startThreads();
+
+        // все запросы прочитаны единственным потоком аутентификации
+        while (pending.size() < NUM_THREADS) {
+            Thread.sleep(10);
+        }
+        for (CompletableFuture<Boolean> result : pending) {
+            result.complete(true);
+        }
+
+        for (int i = 0; i < NUM_THREADS; i++) {
+            Socket ssSocket = accept();
+            assertEquals(17, ssSocket.getInputStream().read());
+        }
+
+        threads.awaitThreads().checkThrowables();
+    }
+
+    /** Серверная фабрика проверяет одновременные соединения пачкой. */
+    @Test(timeout = 2000)
+    public void testBatchingAuthorizer() throws Throwable {
+        System.out.println("testBatchingAuthorizer");
+
+        BatchingAuthorizerTest.RecordingBulkAuthorizer bulk = new BatchingAuthorizerTest.RecordingBulkAuthorizer();
+        // единственный поток аутентификации
+        handshakeExecutor.shutdownNow();
+        handshakeExecutor = Executors.newSingleThreadExecutor();
+        serverSocketFactory = new AuthRMIServerSocketFactory(
+                new BatchingAuthorizer(bulk, 1, TimeUnit.MINUTES, NUM_THREADS));
+        openPipelinedServerSocket();
+
+        TestThreadsHelper threads = new TestThreadsHelper(NUM_THREADS, SEQUENTIAL) {
+
+            @Override
+            protected void run(int nThread) throws Exception {
+                Socket clSocket = openClientSocket(correctAuth);
+                clSocket.getOutputStream().write(17);
+            }
+        };
+
+        threads.startThreads();
+
+        // пачка заполняется запросами, прочитанными единственным потоком аутентификации
+        for (int i = 0; i < NUM_THREADS; i++) {
+            Socket ssSocket = accept();
+            assertEquals(17, ssSocket.getInputStream().read());
+        }
+        assertEquals(1, bulk.batches.size());
+        assertEquals(NUM_THREADS, bulk.batches.get(0).size());
+
+        threads.awaitThreads().checkThrowables();
+    }
+
+    /**
+     * Неблокирующий прием: медленные клиенты и неверные данные авторизации не мешают
+     * остальным, данные оптимистичной авторизации и исходного формата принимаются.
+     */
+    @Test(timeout = 3000)
+    public void testNioServerSocket() throws Throwable {
+        System.out.println("testNioServerSocket");
+
+        serverSocket.close();
+        AuthNioRMIServerSocketFactory nioFactory = new AuthNioRMIServerSocketFactory(new TestAuthorizer(), 2);
+        nioFactory.getConfig().setHandshakeTimeout(500);
+        serverSocket = nioFactory.createServerSocket(0);
+        assertNull(serverSocket.getChannel());
+
+        // клиенты, которые подключаются и ничего не отправляют
+        for (int i = 0; i < NUM_THREADS; i++) {
+            clientSockets.add(new Socket("localhost", serverSocket.getLocalPort()));
+        }
+        try {
+            // отказ приходит клиенту без вызова accept()
+            openClientSocket(new AuthData("2", "3"));
+            fail("Исключение не сгенерировано");
+        } catch (SocketAuthorizationFailedException e) {
+        }
+
+        TestThreadsHelper threads = new TestThreadsHelper(NUM_THREADS, SEQUENTIAL) {
+
+            @Override
+            protected void run(int nThread) throws Exception {
+                Socket clSocket = openClientSocket(correctAuth);
+                clSocket.getOutputStream().write(17);
+            }
+        };
+
+        threads.startThreads();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            assertEquals(17, accept().getInputStream().read());
+        }
+        threads.awaitThreads().checkThrowables();
+
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.OPTIMISTIC_AUTHORIZATION);
+        Socket clSocket = openClientSocket(correctAuth);
+        clSocket.getOutputStream().write(new byte[] {17, 18});
+        Socket ssSocket = accept();
+        assertEquals(17, ssSocket.getInputStream().read());
+        assertEquals(18, ssSocket.getInputStream().read());
+        ssSocket.getOutputStream().write(19);
+        assertEquals(19, clSocket.getInputStream().read());
+
+        Socket legacySocket = new Socket("localhost", serverSocket.getLocalPort());
+        clientSockets.add(legacySocket);
+        new ClientSideSocketAuthorizationImpl(legacySocket, correctAuth, null, null, true).checkAuthorized();
+        legacySocket.getOutputStream().write(20);
+        assertEquals(20, accept().getInputStream().read());
+
+        // медленные клиенты закрываются по истечении срока аутентификации
+        while (nioFactory.getConfig().getStatistics().getExpiredHandshakes() < NUM_THREADS) {
+            Thread.sleep(10);
+        }
+        assertEquals(NUM_THREADS, nioFactory.getConfig().getStatistics().getExpiredHandshakes());
+    }
+
+    /** Авторизатор, работающий с буфером запроса, вызывается вместо декодирования строк. */
+    @Test(timeout = 2000)
+    public void testRawAuthorizer() throws Throwable {
+        System.out.println("testRawAuthorizer");
+
+        final AtomicInteger rawCalls = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        final byte[] login = correctAuth.login.getBytes("UTF-8");
+        final byte[] password = correctAuth.password.getBytes("UTF-8");
+        RawAuthorizer authorizer = new RawAuthorizer() {
+
+            @Override
+            public boolean authorize(RawCredentials credentials) {
+                rawCalls.incrementAndGet();
+                return credentials.loginEquals(login) && credentials.passwordEquals(password);
+            }
+
+            @Override
+            public boolean authorize(AuthData authData) {
+                calls.incrementAndGet();
+                return authData.equals(correctAuth);
+            }
+        };
+
+        serverSocketFactory = new AuthRMIServerSocketFactory(authorizer);
+        openPipelinedServerSocket();
+        checkRawAuthorizer();
+
+        serverSocket.close();
+        AuthNioRMIServerSocketFactory nioFactory = new AuthNioRMIServerSocketFactory(authorizer, 1);
+        serverSocket = nioFactory.createServerSocket(0);
+        checkRawAuthorizer();
+
+        assertEquals(6, rawCalls.get());
+        assertEquals(0, calls.get());
+    }
+
+    private void checkRawAuthorizer() throws Exception {
+        try {
+            openClientSocket(new AuthData("2", "3"));
+            fail("Исключение не сгенерировано");
+        } catch (SocketAuthorizationFailedException e) {
+        }
+
+        openClientSocket(correctAuth).getOutputStream().write(17);
+        assertEquals(17, accept().getInputStream().read());
+
+        Socket legacySocket = new Socket("localhost", serverSocket.getLocalPort());
+        clientSockets.add(legacySocket);
+        new ClientSideSocketAuthorizationImpl(legacySocket, correctAuth, null, null, true).checkAuthorized();
+        legacySocket.getOutputStream().write(20);
+        assertEquals(20, accept().getInputStream().read());
+    }
+
+    /** На запрос неподдерживаемой версии сервер отвечает поддерживаемой версией. */
+    @Test(timeout = 2000)
+    public void testUnsupportedVersion() throws Throwable {
+        System.out.println("testUnsupportedVersion");
+
+        openPipelinedServerSocket();
+        checkUnsupportedVersion();
+
+        serverSocket.close();
+        serverSocket = new AuthNioRMIServerSocketFactory(new TestAuthorizer(), 1).createServerSocket(0);
+        checkUnsupportedVersion();
+    }
+
+    private void checkUnsupportedVersion() throws Exception {
+        Socket socket = new Socket("localhost", serverSocket.getLocalPort());
+        clientSockets.add(socket);
+        socket.getOutputStream().write(new byte[] {HandshakeCodec.MAGIC, HandshakeCodec.VERSION + 1, 0, 0, 0});
+
+        byte[] response = new byte[HandshakeCodec.HEADER_LENGTH];
+        new DataInputStream(socket.getInputStream()).readFully(response);
+        assertEquals(HandshakeCodec.MAGIC, response[0]);
+        assertEquals(HandshakeCodec.VERSION, response[1]);
+        assertEquals(SocketAuthorizationImpl.AUTH_UNSUPPORTED_VERSION, response[2]);
+        assertEquals(-1, socket.getInputStream().read());
+    }
+
+    /** Соединения с адреса, превысившего количество неудач, отклоняются до аутентификации. */
+    @Test(timeout = 2000)
+    public void testFailureLimit() throws Throwable {
+        System.out.println("testFailureLimit");
+
+        serverSocketFactory.getConfig().setFailureLimit(2, 60000);
+        openPipelinedServerSocket();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                openClientSocket(new AuthData("2", "3"));
+                fail("Исключение не сгенерировано");
+            } catch (SocketAuthorizationFailedException e) {
+            }
+        }
+        // неудача учитывается сервером после отправки ответа
+        FailureTracker failureTracker = serverSocketFactory.getConfig().failureTracker;
+        while (!failureTracker.isBlocked(InetAddress.getByName("localhost"))) {
+            Thread.sleep(10);
+        }
+
+        try {
+            openClientSocket(correctAuth);
+            fail("Исключение не сгенерировано");
+        } catch (IOException e) {
+            assertFalse(e instanceof SocketAuthorizationFailedException);
+        }
+        assertEquals(1, serverSocketFactory.getConfig().getStatistics().getRejectedConnections());
+    }
+
+    /** Статистика серверного сокета публикуется через JMX и удаляется при закрытии. */
+    @Test(timeout = 2000)
+    public void testStatisticsMBean() throws Throwable {
+        System.out.println("testStatisticsMBean");
+
+        long clientHandshakes = AuthRMIClientSocketFactory.getStatistics().getHandshakes();
+        long clientFailures = AuthRMIClientSocketFactory.getStatistics().getFailedHandshakes();
+
+        openPipelinedServerSocket();
+
+        openClientSocket(correctAuth).getOutputStream().write(17);
+        assertEquals(17, accept().getInputStream().read());
+        try {
+            openClientSocket(new AuthData("2", "3"));
+            fail("Исключение не сгенерировано");
+        } catch (SocketAuthorizationFailedException e) {
+        }
+        // неудача учитывается сервером после отправки ответа
+        while (serverSocketFactory.getConfig().getStatistics().getFailedAuthorizations() == 0) {
+            Thread.sleep(10);
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.rmi.auth:type=HandshakeStatistics,port=" + serverSocket.getLocalPort());
+        assertEquals(2L, server.getAttribute(name, "AcceptedConnections"));
+        assertEquals(1L, server.getAttribute(name, "AuthorizedConnections"));
+        assertEquals(1L, server.getAttribute(name, "FailedAuthorizations"));
+        assertEquals(2L, server.getAttribute(name, "CredentialChecks"));
+        assertTrue((Long) server.getAttribute(name, "HandshakeLatencyP99") > 0);
+        assertTrue((Long) server.getAttribute(name, "AuthorizerLatencyP99") > 0);
+        assertEquals(2, serverSocketFactory.getConfig().getStatistics().getAuthorizerLatency().getCount());
+
+        assertEquals(clientHandshakes + 1, AuthRMIClientSocketFactory.getStatistics().getHandshakes());
+        assertEquals(clientFailures + 1, AuthRMIClientSocketFactory.getStatistics().getFailedHandshakes());
+        assertTrue(server.isRegistered(new ObjectName("com.rmi.auth:type=ClientHandshakeStatistics")));
+
+        serverSocket.close();
+        assertFalse(server.isRegistered(name));
+    }
+
+    /** Трафик авторизованных соединений учитывается по логинам. */
+    @Test(timeout = 2000)
+    public void testPrincipalAccounting() throws Throwable {
+        System.out.println("testPrincipalAccounting");
+
+        serverSocketFactory.getConfig().setPrincipalAccounting(true);
+        openPipelinedServerSocket();
+
+        Socket clSocket = openClientSocket(correctAuth);
+        clSocket.getOutputStream().write(new byte[] {1, 2, 3});
+        Socket ssSocket = accept();
+        byte[] received = new byte[3];
+        new DataInputStream(ssSocket.getInputStream()).readFully(received);
+        ssSocket.getOutputStream().write(new byte[] {4, 5});
+
+        PrincipalTraffic traffic = serverSocketFactory.getConfig().getPrincipalTraffic().get(correctAuth.login);
+        assertEquals(3, traffic.bytesIn);
+        assertEquals(2, traffic.bytesOut);
+        assertEquals(1, traffic.openConnections);
+        assertEquals(1, traffic.totalConnections);
+
+        ssSocket.close();
+        traffic = serverSocketFactory.getConfig().getPrincipalTraffic().get(correctAuth.login);
+        assertEquals(0, traffic.openConnections);
+        assertTrue(traffic.connectionTime > 0);
+        assertEquals(1, serverSocketFactory.getConfig().getPrincipalTraffic().size());
+    }
+
+    /** Реализация удаленного объекта получает логин соединения текущего вызова. */
+    @Test(timeout = 5000)
+    public void testPrincipalContext() throws Throwable {
+        System.out.println("testPrincipalContext");
+
+        serverSocketFactory.getConfig().setPrincipalContext(true);
+        // адрес, который транспорт RMI указывает в заглушке
+        AuthRMIClientSocketFactory.setHostAuthData(InetAddress.getLocalHost().getHostAddress(), correctAuth);
+        AuthRMIClientSocketFactory.setHostAuthData(InetAddress.getLocalHost().getHostName(), correctAuth);
+
+        LoginService service = new LoginService() {
+
+            @Override
+            public String login() {
+                return AuthContext.getLogin();
+            }
+        };
+        LoginService stub = (LoginService) UnicastRemoteObject.exportObject(
+                service, 0, clientSocketFactory, serverSocketFactory);
+        try {
+            assertEquals(correctAuth.login, stub.login());
+            assertEquals(correctAuth.login, stub.login());
+        } finally {
+            UnicastRemoteObject.unexportObject(service, true);
+        }
+        assertNull(AuthContext.getLogin());
+    }
+
+    /** Поток, читавший из соединения с логином, не сохраняет его для других соединений. */
+    @Test(timeout = 5000)
+    public void testPrincipalContextIsNotRetained() throws Throwable {
+        System.out.println("testPrincipalContextIsNotRetained");
+
+        serverSocketFactory.getConfig().setPrincipalContext(true);
+        openPipelinedServerSocket();
+        Socket client = openClientSocket(correctAuth);
+        Socket bound = accept();
+        client.getOutputStream().write(1);
+        assertEquals(1, bound.getInputStream().read());
+        assertEquals(correctAuth.login, AuthContext.getLogin());
+        bound.close();
+        assertNull(AuthContext.getLogin());
+
+        // соединение без связывания логина читается тем же потоком
+        serverSocket.close();
+        serverSocketFactory = new AuthRMIServerSocketFactory(new TestAuthorizer());
+        serverSocketFactory.getConfig().setHandshakeExecutor(handshakeExecutor);
+        openServerSocket();
+        client = openClientSocket(correctAuth);
+        Socket unbound = accept();
+        client.getOutputStream().write(2);
+        AuthContext.bind(correctAuth.login);
+        assertEquals(2, unbound.getInputStream().read());
+        assertNull(AuthContext.getLogin());
+
+        // конец потока снимает связывание
+        AuthContext.bind(correctAuth.login);
+        client.close();
+        assertEquals(-1, unbound.getInputStream().read());
+        assertNull(AuthContext.getLogin());
+    }
+
+    /** Вызов метода, не разрешенного ролям логина, отклоняется без вызова реализации. */
+    @Test(timeout = 5000)
+    public void testMethodAccessRules() throws Throwable {
+        System.out.println("testMethodAccessRules");
+
+        serverSocketFactory.getConfig().setPrincipalContext(true);
+        AuthRMIClientSocketFactory.setHostAuthData(InetAddress.getLocalHost().getHostAddress(), correctAuth);
+        AuthRMIClientSocketFactory.setHostAuthData(InetAddress.getLocalHost().getHostName(), correctAuth);
+
+        final AtomicInteger shutdowns = new AtomicInteger();
+        AdminService service = new AdminService() {
+
+            @Override
+            public String login() {
+                return AuthContext.getLogin();
+            }
+
+            @Override
+            public void shutdown() {
+                shutdowns.incrementAndGet();
+            }
+        };
+        MethodAccessRules rules = new MethodAccessRules()
+                .grant("user", "login")
+                .grant("admin", MethodAccessRules.ALL_METHODS)
+                .assign(correctAuth.login, "user")
+                .assign("root", "admin");
+        AdminService stub = (AdminService) AuthorizingExporter.exportObject(
+                service, 0, clientSocketFactory, serverSocketFactory, rules);
+        try {
+            assertEquals(correctAuth.login, stub.login());
+            try {
+                stub.shutdown();
+                fail("Исключение не сгенерировано");
+            } catch (ServerException e) {
+                assertTrue(e.getCause() instanceof AccessException);
+            }
+            assertEquals(0, shutdowns.get());
+        } finally {
+            assertTrue(AuthorizingExporter.unexportObject(service, true));
+        }
+
+        // фабрика, не связывающая логин с вызовом, отклоняется при экспорте
+        try {
+            AuthorizingExporter.exportObject(service, 0, clientSocketFactory,
+                    new AuthRMIServerSocketFactory(new TestAuthorizer()), rules);
+            fail("Исключение не сгенерировано");
+        } catch (IllegalArgumentException e) {
+            // ожидаемо
+        }
+
+        try {
+            AuthorizingExporter.exportObject(service, 0, clientSocketFactory, serverSocketFactory,
+                    new MethodAccessRules().grant("user", "reboot"));
+            fail("Исключение не сгенерировано");
+        } catch (IllegalArgumentException e) {
+            // ожидаемо
+        }
+    }
+
+    /** Соединения сверх предела одновременных аутентификаций отклоняются. */
+    @Test(timeout = 2000)
+    public void testHandshakeLimitReject() throws Throwable {
+        System.out.println("testHandshakeLimitReject");
+
+        serverSocketFactory.getConfig().setHandshakeLimit(1, 0, OverloadPolicy.REJECT);
+        openPipelinedServerSocket();
+
+        Socket stalled = new Socket("localhost", serverSocket.getLocalPort());
+        clientSockets.add(stalled);
+        awaitHandshakesInFlight(1);
+
+        try {
+            openClientSocket(correctAuth);
+            fail("Исключение не сгенерировано");
+        } catch (IOException e) {
+            assertFalse(e instanceof SocketAuthorizationFailedException);
+        }
+        assertEquals(1, serverSocketFactory.getConfig().getStatistics().getOverloadedConnections());
+
+        stalled.close();
+        awaitHandshakesInFlight(0);
+
+        Socket clSocket = openClientSocket(correctAuth);
+        clSocket.getOutputStream().write(17);
+        assertEquals(17, accept().getInputStream().read());
+    }
+
+    /** При достижении предела одновременных аутентификаций прием соединений приостанавливается. */
+    @Test(timeout = 2000)
+    public void testHandshakeLimitBlock() throws Throwable {
+        System.out.println("testHandshakeLimitBlock");
+
+        serverSocketFactory.getConfig().setHandshakeLimit(1, 0, OverloadPolicy.BLOCK);
+        openPipelinedServerSocket();
+
+        Socket stalled = new Socket("localhost", serverSocket.getLocalPort());
+        clientSockets.add(stalled);
+        awaitHandshakesInFlight(1);
+
+        Future<Socket> waiting = handshakeExecutor.submit(new Callable<Socket>() {
+
+            @Override
+            public Socket call() throws Exception {
+                return openClientSocket(correctAuth);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        assertEquals(1, serverSocketFactory.getConfig().getStatistics().getHandshakesInFlight());
+
+        stalled.close();
+        waiting.get().getOutputStream().write(17);
+        assertEquals(17, accept().getInputStream().read());
+        assertEquals(0, serverSocketFactory.getConfig().getStatistics().getOverloadedConnections());
+    }
+
+    /** Виртуальные соединения открываются внутри одного авторизованного соединения. */
+    @Test(timeout = 5000)
+    public void testMultiplexing() throws Throwable {
+        System.out.println("testMultiplexing");
+
+        serverSocket.close();
+        serverSocketFactory.getConfig().setMultiplexing(true);
+        openServerSocket();
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.MULTIPLEXING);
+        // клиент, не отправляющий данные авторизации, не задерживает прием остальных
+        clientSockets.add(new Socket("localhost", serverSocket.getLocalPort()));
+        checkMultiplexing();
+
+        serverSocket.close();
+        AuthNioRMIServerSocketFactory nioFactory = new AuthNioRMIServerSocketFactory(new TestAuthorizer(), 1);
+        nioFactory.getConfig().setMultiplexing(true);
+        serverSocket = nioFactory.createServerSocket(0);
+        checkMultiplexing();
+
+        // сервер без мультиплексирования принимает обычные соединения
+        serverSocket.close();
+        serverSocket = new AuthNioRMIServerSocketFactory(new TestAuthorizer(), 1).createServerSocket(0);
+        Socket plain = openClientSocket(correctAuth);
+        assertEquals(plain.getLocalPort(), accept().getPort());
+    }
+
+    /** Потоки сверх предела открываются в новом соединении. */
+    @Test(timeout = 10000)
+    public void testMultiplexedStreamLimit() throws Throwable {
+        System.out.println("testMultiplexedStreamLimit");
+
+        serverSocket.close();
+        AuthNioRMIServerSocketFactory nioFactory = new AuthNioRMIServerSocketFactory(new TestAuthorizer(), 1);
+        nioFactory.getConfig().setMultiplexing(true);
+        serverSocket = nioFactory.createServerSocket(0);
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.MULTIPLEXING);
+
+        Socket first = null;
+        for (int i = 0; i < MultiplexedConnection.MAX_STREAMS; i++) {
+            Socket client = openClientSocket(correctAuth);
+            client.getOutputStream().write(i);
+            Socket server = accept();
+            assertEquals(i & 0xFF, server.getInputStream().read());
+            if (first == null) {
+                first = client;
+            }
+            assertEquals(first.getLocalPort(), client.getLocalPort());
+        }
+
+        Socket extra = openClientSocket(correctAuth);
+        assertFalse(first.getLocalPort() == extra.getLocalPort());
+        extra.getOutputStream().write(17);
+        assertEquals(17, accept().getInputStream().read());
+    }
+
+    /** Данные для неоткрывавшегося потока закрывают мультиплексированное соединение. */
+    @Test(timeout = 2000)
+    public void testMultiplexedDataForUnknownStream() throws Throwable {
+        System.out.println("testMultiplexedDataForUnknownStream");
+
+        ServerSocket plain = new ServerSocket(0);
+        try {
+            Socket client = new Socket("localhost", plain.getLocalPort());
+            clientSockets.add(client);
+            AcceptedSocketQueue queue = new AcceptedSocketQueue();
+            new MultiplexedConnection(plain.accept(), queue);
+
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            out.writeByte(MultiplexedConnection.FRAME_OPEN);
+            out.writeInt(1);
+            out.writeShort(0);
+            out.writeByte(MultiplexedConnection.FRAME_DATA);
+            out.writeInt(2);
+            out.writeShort(1);
+            out.writeByte(17);
+            out.flush();
+
+            assertEquals(-1, client.getInputStream().read());
+        } finally {
+            plain.close();
+        }
+    }
+
+    private void checkMultiplexing() throws Exception {
+        Socket first = openClientSocket(correctAuth);
+        Socket second = openClientSocket(correctAuth);
+        first.getOutputStream().write(1);
+        Socket firstAccepted = accept();
+        second.getOutputStream().write(2);
+        Socket secondAccepted = accept();
+        assertEquals(1, firstAccepted.getInputStream().read());
+        assertEquals(2, secondAccepted.getInputStream().read());
+        assertEquals(firstAccepted.getPort(), secondAccepted.getPort());
+        assertEquals(first.getLocalPort(), second.getLocalPort());
+
+        // объем больше окна передачи не задерживает другой поток
+        byte[] data = new byte[5 * MultiplexedConnection.INITIAL_WINDOW];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Future<?> writer = handshakeExecutor.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                first.getOutputStream().write(data);
+                first.shutdownOutput();
+                return null;
+            }
+        });
+        second.getOutputStream().write(3);
+        assertEquals(3, secondAccepted.getInputStream().read());
+        secondAccepted.getOutputStream().write(4);
+        assertEquals(4, second.getInputStream().read());
+
+        byte[] received = new byte[data.length];
+        DataInputStream in = new DataInputStream(firstAccepted.getInputStream());
+        in.readFully(received);
+        assertArrayEquals(data, received);
+        assertEquals(-1, in.read());
+        writer.get();
+
+        second.close();
+        assertEquals(-1, secondAccepted.getInputStream().read());
+    }
+
+    /** Данные соединения сжимаются, если сжатие поддерживают обе стороны. */
+    @Test(timeout = 5000)
+    public void testCompression() throws Throwable {
+        System.out.println("testCompression");
+
+        serverSocketFactory.getConfig().setCompression(Deflater.BEST_SPEED, 64);
+        openPipelinedServerSocket();
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.COMPRESSION);
+        checkCompression(true);
+
+        // сжатие поверх мультиплексированного соединения
+        serverSocket.close();
+        AuthNioRMIServerSocketFactory nioFactory = new AuthNioRMIServerSocketFactory(new TestAuthorizer(), 1);
+        nioFactory.getConfig().setMultiplexing(true);
+        nioFactory.getConfig().setCompression(Deflater.DEFAULT_COMPRESSION, 64);
+        serverSocket = nioFactory.createServerSocket(0);
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.COMPRESSION,
+                ClientAuthOption.MULTIPLEXING);
+        checkCompression(false);
+
+        // сервер без сжатия передает данные как есть
+        serverSocket.close();
+        serverSocketFactory.getConfig().setCompression(Deflater.NO_COMPRESSION, 0);
+        openServerSocket();
+        clientSocketFactory = new AuthRMIClientSocketFactory(ClientAuthOption.COMPRESSION);
+        checkCompression(false);
+    }
+
+    private void checkCompression(boolean compressed) throws Exception {
+        final Socket client = openClientSocket(correctAuth);
+        Socket server = accept();
+        assertEquals(compressed, client instanceof CompressedSocket);
+        // принятое соединение связывает логин или null для AuthContext
+        assertEquals(compressed, ((PrincipalSocket) server).sock instanceof CompressedSocket);
+
+        // блок короче порога и блок больше буфера
+        final byte[] data = new byte[3 * CompressedSocket.MAX_BLOCK_LENGTH];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 17);
+        }
+        client.getOutputStream().write(5);
+        client.getOutputStream().flush();
+        assertEquals(5, server.getInputStream().read());
+        Future<?> writer = handshakeExecutor.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                client.getOutputStream().write(data);
+                client.getOutputStream().flush();
+                return null;
+            }
+        });
+        byte[] received = new byte[data.length];
+        new DataInputStream(server.getInputStream()).readFully(received);
+        assertArrayEquals(data, received);
+        writer.get();
+
+        server.getOutputStream().write(data, 0, 1000);
+        server.getOutputStream().flush();
+        received = new byte[1000];
+        new DataInputStream(client.getInputStream()).readFully(received);
+        assertArrayEquals(Arrays.copyOf(data, 1000), received);
+
+        // закрытие освобождает память zlib, сжатие после него невозможно
+        client.close();
+        try {
+            client.getOutputStream().write(data);
+            client.getOutputStream().flush();
+            fail("Closed socket accepted data");
+        } catch (IOException ex) {
+        }
+    }
+
+    /** Соединение выдается из пула заранее авторизованных соединений. */
+    @Test(timeout = 3000)
+    public void testWarmPool() throws Throwable {
+        System.out.println("testWarmPool");
+
+        openPipelinedServerSocket();
+        AuthRMIClientSocketFactory.setHostWarmPool("localhost", 2);
+
+        // первое соединение создает пул и устанавливается без него
+        Socket first = openClientSocket(correctAuth);
+        Set<Integer> clientPorts = new HashSet<Integer>();
+        for (int i = 0; i < 3; i++) {
+            clientPorts.add(accept().getPort());
+        }
+        assertTrue(clientPorts.contains(first.getLocalPort()));
+
+        Socket pooled = openClientSocket(correctAuth);
+        assertTrue(clientPorts.contains(pooled.getLocalPort()));
+        assertFalse(pooled.getLocalPort() == first.getLocalPort());
+    }
+
+    /** Равные клиентские фабрики после десериализации заменяются одним экземпляром. */
+    @Test
+    public void testClientSocketFactoryValueSemantics() throws Exception {
+        System.out.println("testClientSocketFactoryValueSemantics");
+
+        AuthRMIClientSocketFactory plain = new AuthRMIClientSocketFactory(ClientAuthOption.SESSION_RESUMPTION);
+        assertEquals(plain, new AuthRMIClientSocketFactory(ClientAuthOption.SESSION_RESUMPTION));
+        assertEquals(plain.hashCode(), new AuthRMIClientSocketFactory(ClientAuthOption.SESSION_RESUMPTION).hashCode());
+        assertFalse(plain.equals(new AuthRMIClientSocketFactory()));
+
+        Object first = deserialize(serialize(plain));
+        Object second = deserialize(serialize(plain));
+        assertEquals(plain, first);
+        assertSame(first, second);
+
+        AuthSslRMIClientSocketFactory ssl = new AuthSslRMIClientSocketFactory();
+        assertSame(deserialize(serialize(ssl)), deserialize(serialize(new AuthSslRMIClientSocketFactory())));
+        ssl.setAuthData(new AuthData("1", "1"));
+        AuthSslRMIClientSocketFactory otherSsl = new AuthSslRMIClientSocketFactory();
+        otherSsl.setAuthData(new AuthData("1", "2"));
+        assertFalse(ssl.equals(otherSsl));
+        assertFalse(ssl.equals(plain));
+        otherSsl.setAuthData(new AuthData("1", "1"));
+        assertEquals(ssl, otherSsl);
+        assertEquals(ssl.hashCode(), otherSsl.hashCode());
+    }
+
     private void openServerSocket() throws IOException {
         serverSocket = serverSocketFactory.createServerSocket(0);
     }
 
+    /** Переоткрывает серверный сокет в конвейерном режиме с пулом {@link #handshakeExecutor}. */
+    private void openPipelinedServerSocket() throws IOException {
+        serverSocket.close();
+        serverSocketFactory.getConfig().setHandshakeExecutor(handshakeExecutor);
+        openServerSocket();
+    }
+
     private Socket openClientSocket(AuthData authData) throws IOException {
         clientSocketFactory.setHostAuthData("localhost", authData);
         Socket socket = clientSocketFactory.createSocket("localhost", serverSocket.getLocalPort());
@@ -147,6 +1182,24 @@ public class AuthRMISocketFactoryTest {
         return socket;
     }
 
+    private void awaitHandshakesInFlight(int expected) throws InterruptedException {
+        while (serverSocketFactory.getConfig().getStatistics().getHandshakesInFlight() != expected) {
+            Thread.sleep(10);
+        }
+    }
+
+    static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
     private void closeClientSockets() throws IOException {
         if (clientSockets != null) {
             for (Socket socket : clientSockets) {
@@ -161,6 +1214,27 @@ public class AuthRMISocketFactoryTest {
         }
     }
 
+    /** Сериализуемый авторизатор, принимающий любые данные. */
+    static class AcceptAllAuthorizer implements Authorizer, Serializable {
+
+        @Override
+        public boolean authorize(AuthData authData) {
+            return true;
+        }
+    }
+
+    /** Удаленный объект, возвращающий логин соединения вызова. */
+    public interface LoginService extends Remote {
+
+        String login() throws RemoteException;
+    }
+
+    /** Удаленный объект с методом, доступным не всем логинам. */
+    public interface AdminService extends LoginService {
+
+        void shutdown() throws RemoteException;
+    }
+
     class TestAuthorizer implements Authorizer {
 
         @Override
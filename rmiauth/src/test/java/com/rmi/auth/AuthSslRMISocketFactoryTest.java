@@ -0,0 +1,134 @@
+package com.rmi.auth;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AuthSslRMISocketFactoryTest {
+
+    private static final char[] PASSWORD = "rmiauth".toCharArray();
+    ////
+    private static File keyStoreFile;
+    private static SSLContext context;
+    ////
+    private ExecutorService executor;
+    private ServerSocket serverSocket;
+    private AuthSslRMIServerSocketFactory serverSocketFactory;
+    private AuthSslRMIClientSocketFactory clientSocketFactory;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("====== AuthSslRMISocketFactoryTest =====");
+
+        keyStoreFile = File.createTempFile("rmiauth-test", ".p12");
+        keyStoreFile.delete();
+
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "rmiauth",
+                "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost", "-validity", "2",
+                "-storetype", "PKCS12", "-keystore", keyStoreFile.getPath(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        assertEquals(0, process.waitFor());
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = new FileInputStream(keyStoreFile);
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        keyStoreFile.delete();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        serverSocketFactory = new AuthSslRMIServerSocketFactory(context, null, null, false, new Authorizer() {
+
+            @Override
+            public boolean authorize(AuthData authData) {
+                return authData.login.equals(authData.password);
+            }
+        });
+        // клиент ожидает ответа до вызова accept()
+        serverSocketFactory.getConfig().setHandshakeExecutor(executor);
+        clientSocketFactory = new AuthSslRMIClientSocketFactory(context);
+        clientSocketFactory.setAuthData(new AuthData("1", "1"));
+        serverSocket = serverSocketFactory.createServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    /** Повторное соединение с тем же сервером возобновляет TLS-сессию. */
+    @Test(timeout = 10000)
+    public void testTlsSessionResumption() throws Throwable {
+        System.out.println("testTlsSessionResumption");
+
+        serverSocketFactory.setTlsSessionCache(100, 60);
+        for (int i = 0; i < 3; i++) {
+            connect();
+        }
+
+        HandshakeStatistics statistics = serverSocketFactory.getConfig().getStatistics();
+        assertEquals(1, statistics.getFullTlsHandshakes());
+        assertEquals(2, statistics.getResumedTlsHandshakes());
+        assertTrue(statistics.getTlsHandshakeTime() > 0);
+        assertEquals(3, statistics.getCredentialChecks());
+        assertTrue(statistics.getCredentialCheckTime() > 0);
+    }
+
+    /** Фабрики с разными SSL-контекстами не равны. */
+    @Test
+    public void testClientSocketFactoryEquality() throws Exception {
+        System.out.println("testClientSocketFactoryEquality");
+
+        assertEquals(new AuthSslRMIClientSocketFactory(context), new AuthSslRMIClientSocketFactory(context));
+        assertFalse(new AuthSslRMIClientSocketFactory(context).equals(new AuthSslRMIClientSocketFactory()));
+    }
+
+    private void connect() throws IOException {
+        Socket clSocket = clientSocketFactory.createSocket("localhost", serverSocket.getLocalPort());
+        try {
+            clSocket.getOutputStream().write(17);
+            Socket ssSocket = serverSocket.accept();
+            try {
+                assertEquals(17, ssSocket.getInputStream().read());
+            } finally {
+                ssSocket.close();
+            }
+        } finally {
+            clSocket.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.rmi.auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AuthUnixRMISocketFactoryTest {
+
+    private File directory;
+    private ServerSocket serverSocket;
+    private final List<PeerCredentials> peers = new CopyOnWriteArrayList<PeerCredentials>();
+    private volatile boolean peerAuthorized = true;
+    ////
+    private final AuthData correctAuth = new AuthData("1", "1");
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(AuthUnixRMIServerSocketFactory.isUnixDomainSupported());
+
+        directory = Files.createTempDirectory("rmiauth").toFile();
+        AuthRMIClientSocketFactory.setHostAuthData("localhost", correctAuth);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (serverSocket != null) {
+            serverSocket.close();
+            serverSocket = null;
+        }
+        if (directory != null) {
+            assertEquals("Файл сокета не удален", 0, directory.list().length);
+            directory.delete();
+        }
+    }
+
+    /** Локальное соединение авторизуется по учетным данным процесса. */
+    @Test(timeout = 2000)
+    public void testPeerAuthorization() throws Throwable {
+        System.out.println("testPeerAuthorization");
+
+        AuthUnixRMIServerSocketFactory serverFactory = openServerSocket();
+        Socket clSocket = new AuthUnixRMIClientSocketFactory(directory).createSocket("localhost", serverSocket.getLocalPort());
+        try {
+            Socket ssSocket = serverSocket.accept();
+            assertTrue(((PrincipalSocket) ssSocket).unwrap() instanceof ChannelSocket);
+
+            clSocket.getOutputStream().write(17);
+            assertEquals(17, ssSocket.getInputStream().read());
+            assertEquals(peers.get(0), AuthContext.getPeerCredentials());
+            assertNull(AuthContext.getLogin());
+            ssSocket.getOutputStream().write(18);
+            assertEquals(18, clSocket.getInputStream().read());
+            ssSocket.close();
+        } finally {
+            clSocket.close();
+        }
+
+        assertEquals(1, peers.size());
+        assertEquals(System.getProperty("user.name"), peers.get(0).user);
+        assertEquals(1, serverFactory.getConfig().getStatistics().getPeerAuthorizations());
+        assertEquals(0, serverFactory.getConfig().getStatistics().getCredentialChecks());
+    }
+
+    /** Неавторизованное локальное соединение закрывается сервером. */
+    @Test(timeout = 2000)
+    public void testPeerRejected() throws Throwable {
+        System.out.println("testPeerRejected");
+
+        peerAuthorized = false;
+        AuthUnixRMIServerSocketFactory serverFactory = openServerSocket();
+        Socket clSocket = new AuthUnixRMIClientSocketFactory(directory).createSocket("localhost", serverSocket.getLocalPort());
+        try {
+            assertEquals(-1, clSocket.getInputStream().read());
+        } catch (IOException e) {
+            // соединение сброшено
+        } finally {
+            clSocket.close();
+        }
+
+        assertEquals(1, serverFactory.getConfig().getStatistics().getPeerRejections());
+    }
+
+    /** Без файла сокета клиент соединяется по TCP с аутентификацией по логину и паролю. */
+    @Test(timeout = 2000)
+    public void testTcpFallback() throws Throwable {
+        System.out.println("testTcpFallback");
+
+        AuthUnixRMIServerSocketFactory serverFactory = openServerSocket();
+        File otherDirectory = new File(directory, "missing");
+        Socket clSocket = new AuthUnixRMIClientSocketFactory(otherDirectory).createSocket("localhost", serverSocket.getLocalPort());
+        try {
+            Socket ssSocket = serverSocket.accept();
+            assertFalse(ssSocket instanceof ChannelSocket);
+
+            clSocket.getOutputStream().write(17);
+            assertEquals(17, ssSocket.getInputStream().read());
+            ssSocket.close();
+        } finally {
+            clSocket.close();
+        }
+
+        assertTrue(peers.isEmpty());
+        assertEquals(1, serverFactory.getConfig().getStatistics().getCredentialChecks());
+    }
+
+    /** Десериализованная фабрика без авторизатора локальных соединений создает только сокеты TCP. */
+    @Test(timeout = 2000)
+    public void testServerSocketFactorySerialization() throws Throwable {
+        System.out.println("testServerSocketFactorySerialization");
+
+        AuthUnixRMIServerSocketFactory factory = new AuthUnixRMIServerSocketFactory(
+                new AuthRMISocketFactoryTest.AcceptAllAuthorizer(), new PeerCredentialsAuthorizer() {
+
+            @Override
+            public boolean authorize(PeerCredentials peer) {
+                return true;
+            }
+        }, directory);
+        AuthUnixRMIServerSocketFactory copy = (AuthUnixRMIServerSocketFactory) AuthRMISocketFactoryTest.deserialize(
+                AuthRMISocketFactoryTest.serialize(factory));
+
+        serverSocket = copy.createServerSocket(0);
+        assertFalse(serverSocket instanceof UnixServerSocketWrap);
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testEquals() throws Throwable {
+        assertEquals(new AuthUnixRMIClientSocketFactory(directory), new AuthUnixRMIClientSocketFactory(directory));
+        assertFalse(new AuthUnixRMIClientSocketFactory(directory).equals(
+                new AuthUnixRMIClientSocketFactory(new File(directory, "other"))));
+        assertFalse(new AuthUnixRMIClientSocketFactory(directory).equals(new AuthRMIClientSocketFactory()));
+        assertFalse(new AuthRMIClientSocketFactory().equals(new AuthUnixRMIClientSocketFactory(directory)));
+    }
+
+    private AuthUnixRMIServerSocketFactory openServerSocket() throws IOException {
+        AuthUnixRMIServerSocketFactory factory = new AuthUnixRMIServerSocketFactory(new Authorizer() {
+
+            @Override
+            public boolean authorize(AuthData authData) {
+                return authData.equals(correctAuth);
+            }
+        }, new PeerCredentialsAuthorizer() {
+
+            @Override
+            public boolean authorize(PeerCredentials peer) {
+                peers.add(peer);
+                return peerAuthorized;
+            }
+        }, directory);
+        serverSocket = factory.createServerSocket(0);
+        return factory;
+    }
+}
@@ -0,0 +1,89 @@
+package com.rmi.auth;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BatchingAuthorizerTest {
+
+    private RecordingBulkAuthorizer backend;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new RecordingBulkAuthorizer();
+    }
+
+    @Test(timeout = 1000)
+    public void testFullBatchIsDispatchedImmediately() throws Exception {
+        BatchingAuthorizer authorizer = new BatchingAuthorizer(backend, 1, TimeUnit.MINUTES, 3);
+
+        CompletionStage<Boolean> first = authorizer.authorizeAsync(new AuthData("1", "1"));
+        CompletionStage<Boolean> second = authorizer.authorizeAsync(new AuthData("2", "3"));
+        assertTrue(backend.batches.isEmpty());
+        CompletionStage<Boolean> third = authorizer.authorizeAsync(new AuthData("3", "3"));
+
+        assertEquals(1, backend.batches.size());
+        assertEquals(3, backend.batches.get(0).size());
+        assertTrue(first.toCompletableFuture().get());
+        assertFalse(second.toCompletableFuture().get());
+        assertTrue(third.toCompletableFuture().get());
+    }
+
+    @Test(timeout = 1000)
+    public void testPartialBatchIsDispatchedAfterWindow() throws Exception {
+        BatchingAuthorizer authorizer = new BatchingAuthorizer(backend, 20, TimeUnit.MILLISECONDS, 100);
+
+        CompletionStage<Boolean> first = authorizer.authorizeAsync(new AuthData("1", "1"));
+        CompletionStage<Boolean> second = authorizer.authorizeAsync(new AuthData("2", "2"));
+
+        assertTrue(first.toCompletableFuture().get());
+        assertTrue(second.toCompletableFuture().get());
+        assertEquals(1, backend.batches.size());
+        assertEquals(2, backend.batches.get(0).size());
+
+        // следующий запрос ожидает следующего окна
+        assertFalse(authorizer.authorizeAsync(new AuthData("1", "2")).toCompletableFuture().get());
+        assertEquals(2, backend.batches.size());
+    }
+
+    @Test(timeout = 1000)
+    public void testBulkFailureIsPropagated() throws Exception {
+        BatchingAuthorizer authorizer = new BatchingAuthorizer(new BulkAuthorizer() {
+
+            @Override
+            public CompletionStage<boolean[]> authorizeAll(List<AuthData> batch) {
+                return CompletableFuture.completedFuture(new boolean[0]);
+            }
+        }, 1, TimeUnit.MINUTES, 2);
+
+        CompletionStage<Boolean> first = authorizer.authorizeAsync(new AuthData("1", "1"));
+        authorizer.flush();
+        try {
+            first.toCompletableFuture().get();
+            fail("Исключение не сгенерировано");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    static class RecordingBulkAuthorizer implements BulkAuthorizer {
+
+        final List<List<AuthData>> batches = new CopyOnWriteArrayList<List<AuthData>>();
+
+        @Override
+        public CompletionStage<boolean[]> authorizeAll(List<AuthData> batch) {
+            batches.add(batch);
+            boolean[] result = new boolean[batch.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = batch.get(i).login.equals(batch.get(i).password);
+            }
+            return CompletableFuture.completedFuture(result);
+        }
+    }
+}
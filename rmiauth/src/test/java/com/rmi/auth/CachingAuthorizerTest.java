@@ -0,0 +1,117 @@
+package com.rmi.auth;
+
+import com.test.TestThreadsHelper;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CachingAuthorizerTest {
+
+    /** Количество потоков. */
+    private static final int NUM_THREADS = 10;
+    ////
+    private CountingAuthorizer backend;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new CountingAuthorizer();
+    }
+
+    @Test
+    public void testPositiveAndNegativeDecisionsAreCached() {
+        CachingAuthorizer authorizer = new CachingAuthorizer(backend, 1, 1, TimeUnit.MINUTES, 100);
+
+        assertTrue(authorizer.authorize(new AuthData("1", "1")));
+        assertTrue(authorizer.authorize(new AuthData("1", "1")));
+        assertFalse(authorizer.authorize(new AuthData("1", "2")));
+        assertFalse(authorizer.authorize(new AuthData("1", "2")));
+
+        assertEquals(2, backend.calls.get());
+    }
+
+    @Test
+    public void testExpiredDecisionIsReloaded() throws Exception {
+        CachingAuthorizer authorizer = new CachingAuthorizer(backend, 1, 0, TimeUnit.MILLISECONDS, 100);
+
+        assertTrue(authorizer.authorize(new AuthData("1", "1")));
+        Thread.sleep(5);
+        assertTrue(authorizer.authorize(new AuthData("1", "1")));
+        assertFalse(authorizer.authorize(new AuthData("1", "2")));
+        assertFalse(authorizer.authorize(new AuthData("1", "2")));
+
+        assertEquals(4, backend.calls.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        CachingAuthorizer authorizer = new CachingAuthorizer(backend, 1, 1, TimeUnit.MINUTES, 2);
+
+        authorizer.authorize(new AuthData("1", "1"));
+        authorizer.authorize(new AuthData("2", "2"));
+        authorizer.authorize(new AuthData("1", "1"));
+        authorizer.authorize(new AuthData("3", "3"));
+        assertEquals(3, backend.calls.get());
+
+        authorizer.authorize(new AuthData("1", "1"));
+        assertEquals(3, backend.calls.get());
+        authorizer.authorize(new AuthData("2", "2"));
+        assertEquals(4, backend.calls.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        CachingAuthorizer authorizer = new CachingAuthorizer(backend, 1, 1, TimeUnit.MINUTES, 100);
+
+        authorizer.authorize(new AuthData("1", "1"));
+        authorizer.invalidate("1");
+        authorizer.authorize(new AuthData("1", "1"));
+
+        assertEquals(2, backend.calls.get());
+    }
+
+    @Test(timeout = 1000)
+    public void testConcurrentMissesCollapse() throws Throwable {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CachingAuthorizer authorizer = new CachingAuthorizer(new Authorizer() {
+
+            @Override
+            public boolean authorize(AuthData authData) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return backend.authorize(authData);
+            }
+        }, 1, 1, TimeUnit.MINUTES, 100);
+
+        TestThreadsHelper threads = new TestThreadsHelper(NUM_THREADS) {
+
+            @Override
+            protected void run(int nThread) throws Exception {
+                assertTrue(authorizer.authorize(new AuthData("1", "1")));
+            }
+        };
+
+        threads.startThreads();
+        Thread.sleep(100);
+        release.countDown();
+        threads.awaitThreads().checkThrowables();
+
+        assertEquals(1, backend.calls.get());
+    }
+
+    static class CountingAuthorizer implements Authorizer {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public boolean authorize(AuthData authData) {
+            calls.incrementAndGet();
+            return authData.login.equals(authData.password);
+        }
+    }
+}
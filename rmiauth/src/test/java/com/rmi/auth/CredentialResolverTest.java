@@ -0,0 +1,87 @@
+package com.rmi.auth;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CredentialResolverTest {
+
+    private final AuthData first = new AuthData("1", "1");
+    private final AuthData second = new AuthData("2", "2");
+    private final AuthData third = new AuthData("3", "3");
+    ////
+    private CredentialResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        resolver = new CredentialResolver();
+    }
+
+    @Test
+    public void testExactHostIsNormalized() {
+        resolver.putHost("Server.Example.com", first);
+        resolver.putHost("::1", second);
+
+        assertSame(first, resolver.resolve("server.example.com."));
+        assertSame(second, resolver.resolve("0:0:0:0:0:0:0:1"));
+        assertSame(second, resolver.resolve("[::1]"));
+        assertNull(resolver.resolve("other.example.com"));
+    }
+
+    @Test
+    public void testMostSpecificDomainWins() {
+        resolver.put("*.example.com", first);
+        resolver.put("*.eu.example.com", second);
+
+        assertSame(first, resolver.resolve("a.example.com"));
+        assertSame(second, resolver.resolve("a.eu.example.com"));
+        assertSame(second, resolver.resolve("b.a.eu.example.com"));
+        // подстановка не совпадает с самим доменом
+        assertNull(resolver.resolve("example.com"));
+        assertSame(first, resolver.resolve("eu.example.com"));
+    }
+
+    @Test
+    public void testLongestRangeWins() {
+        resolver.put("10.0.0.0/8", first);
+        resolver.put("10.1.0.0/16", second);
+        resolver.put("fd00::/8", third);
+
+        assertSame(first, resolver.resolve("10.2.3.4"));
+        assertSame(second, resolver.resolve("10.1.3.4"));
+        assertSame(third, resolver.resolve("fd12::5"));
+        assertNull(resolver.resolve("11.0.0.1"));
+        assertNull(resolver.resolve("fe80::1"));
+    }
+
+    @Test
+    public void testPrecedence() {
+        resolver.put("127.0.0.0/8", first);
+        resolver.put("*.localdomain", second);
+        resolver.putHost("127.0.0.1", third);
+
+        assertSame(third, resolver.resolve("127.0.0.1"));
+        assertSame(first, resolver.resolve("127.0.0.2"));
+        assertSame(second, resolver.resolve("host.localdomain"));
+    }
+
+    @Test
+    public void testHostNameIsResolvedForRanges() {
+        resolver.put("127.0.0.0/8", first);
+
+        assertSame(first, resolver.resolve("localhost"));
+        assertSame(first, resolver.resolve("localhost"));
+    }
+
+    @Test
+    public void testInvalidPatterns() {
+        String[] patterns = {"10.0.0.0/33", "host/8", "10.0.0.0/x", "*..example.com"};
+        for (String pattern : patterns) {
+            try {
+                resolver.put(pattern, first);
+                fail("Исключение не сгенерировано: " + pattern);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+}
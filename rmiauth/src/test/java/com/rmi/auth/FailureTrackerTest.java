@@ -0,0 +1,69 @@
+package com.rmi.auth;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FailureTrackerTest {
+
+    @Test
+    public void testBlockedAfterMaxFailures() throws Exception {
+        FailureTracker tracker = new FailureTracker(64, 3, 60000);
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        tracker.recordFailure(address);
+        tracker.recordFailure(address);
+        assertFalse(tracker.isBlocked(address));
+        tracker.recordFailure(address);
+        assertTrue(tracker.isBlocked(address));
+        assertFalse(tracker.isBlocked(InetAddress.getByName("10.0.0.2")));
+
+        tracker.recordSuccess(address);
+        assertFalse(tracker.isBlocked(address));
+    }
+
+    @Test
+    public void testCountDecays() throws Exception {
+        FailureTracker tracker = new FailureTracker(64, 2, 20);
+        InetAddress address = InetAddress.getByName("::1");
+
+        tracker.recordFailure(address);
+        tracker.recordFailure(address);
+        assertTrue(tracker.isBlocked(address));
+        Thread.sleep(50);
+        assertFalse(tracker.isBlocked(address));
+    }
+
+    @Test
+    public void testWrappedTickIsExpired() throws Exception {
+        FailureTracker tracker = new FailureTracker(64, 2, 1);
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        long start = System.nanoTime();
+
+        tracker.recordFailure(address, start);
+        tracker.recordFailure(address, start);
+        assertTrue(tracker.isBlocked(address, start));
+
+        // такт ячейки совпадает с текущим по модулю 2^16
+        long wrapped = start + TimeUnit.MILLISECONDS.toNanos(0x10000);
+        assertFalse(tracker.isBlocked(address, wrapped));
+        tracker.recordFailure(address, wrapped);
+        assertFalse(tracker.isBlocked(address, wrapped));
+    }
+
+    @Test
+    public void testFloodDoesNotEvictHeavyOffender() throws Exception {
+        FailureTracker tracker = new FailureTracker(64, 100, 60000);
+        InetAddress offender = InetAddress.getByName("192.168.0.1");
+        for (int i = 0; i < 1000; i++) {
+            tracker.recordFailure(offender);
+        }
+
+        // поддельные адреса с единичными неудачами вытесняют друг друга
+        for (int i = 0; i < 100000; i++) {
+            tracker.recordFailure(InetAddress.getByAddress(new byte[] {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}));
+        }
+        assertTrue(tracker.isBlocked(offender));
+    }
+}
@@ -0,0 +1,172 @@
+package com.rmi.auth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HandshakeCodecTest {
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        byte[] ticket = {1, 2, 3};
+        HandshakeCodec.encodeRequest(buf, new HandshakeCodec.HandshakeRequest(
+                HandshakeCodec.FLAG_SESSION_RESUMPTION, "логин", "пароль", ticket));
+        buf.flip();
+
+        HandshakeCodec.HandshakeRequest request = HandshakeCodec.decodeRequest(buf);
+        assertEquals(HandshakeCodec.FLAG_SESSION_RESUMPTION, request.flags);
+        assertEquals("логин", request.login);
+        assertEquals("пароль", request.password);
+        assertArrayEquals(ticket, request.ticket);
+    }
+
+    @Test
+    public void testRawRequestDecoding() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        HandshakeCodec.encodeRequest(buf, new HandshakeCodec.HandshakeRequest(0, "логин", "пароль", null));
+        buf.flip();
+
+        RawCredentials credentials = new RawCredentials();
+        HandshakeCodec.decodeRequest(buf, credentials);
+        assertSame(buf.array(), credentials.array());
+        assertTrue(credentials.loginEquals("логин".getBytes(HandshakeCodec.UTF8)));
+        assertTrue(credentials.passwordEquals("пароль".getBytes(HandshakeCodec.UTF8)));
+        assertFalse(credentials.passwordEquals("парол".getBytes(HandshakeCodec.UTF8)));
+        assertFalse(credentials.passwordEquals("парооь".getBytes(HandshakeCodec.UTF8)));
+        assertEquals("логин", credentials.login());
+    }
+
+    @Test
+    public void testRawLegacyRequestDecoding() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF("логин");
+        out.writeUTF("pass\u0000word");
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        buf.put(bytes.toByteArray());
+        assertEquals(bytes.size(), HandshakeCodec.requestLength(buf));
+
+        RawCredentials credentials = new RawCredentials();
+        HandshakeCodec.decodeLegacyRequest(buf, bytes.size(), credentials);
+        assertTrue(credentials.loginEquals("логин".getBytes(HandshakeCodec.UTF8)));
+        // символ U+0000 в модифицированной кодировке не совпадает с UTF-8
+        assertFalse(credentials.isUtf8());
+        assertEquals("pass\u0000word", credentials.toRequest().password);
+    }
+
+    @Test
+    public void testResponseRoundTrip() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        HandshakeCodec.encodeResponse(buf, SocketAuthorizationImpl.AUTH_FAILED, null);
+        buf.flip();
+
+        HandshakeCodec.HandshakeResponse response = HandshakeCodec.decodeResponse(buf);
+        assertEquals(SocketAuthorizationImpl.AUTH_FAILED, response.verdict);
+        assertNull(response.ticket);
+    }
+
+    @Test
+    public void testAcceptedFeaturesRoundTrip() throws Exception {
+        int features = HandshakeCodec.FLAG_MULTIPLEXING | HandshakeCodec.FLAG_COMPRESSION;
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        HandshakeCodec.encodeResponse(buf, SocketAuthorizationImpl.AUTH_SUCCEEDED, null, features);
+        buf.flip();
+
+        HandshakeCodec.HandshakeResponse response = HandshakeCodec.decodeResponse(buf);
+        assertEquals(SocketAuthorizationImpl.AUTH_SUCCEEDED, response.verdict);
+        assertEquals(features, response.accepted);
+    }
+
+    @Test
+    public void testUnknownFieldIsSkipped() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        buf.put(HandshakeCodec.MAGIC).put(HandshakeCodec.VERSION).put((byte) 0).putShort((short) 0);
+        buf.put((byte) 99).putShort((short) 2).put((byte) 7).put((byte) 7);
+        buf.put((byte) HandshakeCodec.FIELD_LOGIN).putShort((short) 1).put((byte) 'a');
+        buf.put((byte) HandshakeCodec.FIELD_PASSWORD).putShort((short) 1).put((byte) 'b');
+        buf.putShort(3, (short) (buf.position() - HandshakeCodec.HEADER_LENGTH));
+        buf.flip();
+
+        HandshakeCodec.HandshakeRequest request = HandshakeCodec.decodeRequest(buf);
+        assertEquals("a", request.login);
+        assertEquals("b", request.password);
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        buf.put(HandshakeCodec.MAGIC).put((byte) (HandshakeCodec.VERSION + 1)).put((byte) 0).putShort((short) 0);
+        buf.flip();
+        try {
+            HandshakeCodec.decodeRequest(buf);
+            fail("Исключение не сгенерировано");
+        } catch (HandshakeCodec.UnsupportedVersionException e) {
+            assertEquals(HandshakeCodec.VERSION + 1, e.version);
+        }
+
+        // ответ на такой запрос - заголовок кадра поддерживаемой версии
+        buf.clear();
+        HandshakeCodec.encodeResponse(buf, SocketAuthorizationImpl.AUTH_UNSUPPORTED_VERSION, null);
+        buf.flip();
+        assertEquals(HandshakeCodec.HEADER_LENGTH, buf.remaining());
+        assertEquals(HandshakeCodec.VERSION, buf.get(1));
+        assertEquals(SocketAuthorizationImpl.AUTH_UNSUPPORTED_VERSION, HandshakeCodec.decodeResponse(buf).verdict);
+    }
+
+    @Test
+    public void testLegacyRequestLongerThanFrame() throws Exception {
+        char[] password = new char[2 * HandshakeCodec.MAX_FRAME_LENGTH];
+        Arrays.fill(password, 'p');
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF("login");
+        out.writeUTF(new String(password));
+
+        ByteBuffer buf = ByteBuffer.allocate(bytes.size());
+        buf.put(bytes.toByteArray(), 0, 2);
+        assertEquals(2 + 5 + 2, HandshakeCodec.legacyReadLimit(buf));
+        assertEquals(-1, HandshakeCodec.requestLength(buf));
+        buf.put(bytes.toByteArray(), 2, 7);
+        assertEquals(bytes.size(), HandshakeCodec.legacyReadLimit(buf));
+        assertEquals(bytes.size(), HandshakeCodec.requestLength(buf));
+        buf.put(bytes.toByteArray(), 9, bytes.size() - 9);
+
+        HandshakeCodec.HandshakeRequest request = HandshakeCodec.decodeLegacyRequest(buf, bytes.size());
+        assertEquals("login", request.login);
+        assertEquals(new String(password), request.password);
+    }
+
+    @Test(expected = SocketAuthorizationFailedException.class)
+    public void testTooLongLoginIsRejected() throws Exception {
+        StringBuilder login = new StringBuilder();
+        for (int i = 0; i <= HandshakeCodec.MAX_LOGIN_LENGTH; i++) {
+            login.append('x');
+        }
+        HandshakeCodec.encodeRequest(ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH),
+                new HandshakeCodec.HandshakeRequest(0, login.toString(), "", null));
+    }
+
+    @Test(expected = SocketAuthorizationFailedException.class)
+    public void testTooLongBodyIsRejected() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.HEADER_LENGTH);
+        buf.put(HandshakeCodec.MAGIC).put(HandshakeCodec.VERSION).put((byte) 0)
+                .putShort((short) (HandshakeCodec.MAX_BODY_LENGTH + 1));
+        buf.flip();
+
+        HandshakeCodec.bodyLength(buf);
+    }
+
+    @Test(expected = SocketAuthorizationFailedException.class)
+    public void testTruncatedFrameIsRejected() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(HandshakeCodec.MAX_FRAME_LENGTH);
+        buf.put(HandshakeCodec.MAGIC).put(HandshakeCodec.VERSION).put((byte) 0).putShort((short) 4);
+        buf.put((byte) HandshakeCodec.FIELD_LOGIN).putShort((short) 10).put((byte) 'a');
+        buf.flip();
+
+        HandshakeCodec.decodeRequest(buf);
+    }
+}
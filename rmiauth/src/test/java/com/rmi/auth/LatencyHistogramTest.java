@@ -0,0 +1,51 @@
+package com.rmi.auth;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        long[] bounds = LatencyHistogram.getBucketBounds();
+        for (int i = 1; i < bounds.length; i++) {
+            assertTrue(bounds[i] > bounds[i - 1]);
+        }
+        assertEquals(Long.MAX_VALUE, bounds[bounds.length - 1]);
+
+        long[] values = {0, 1, 1023, 1024, 1279, 1280, 2047, 2048, 1000000, 123456789, 1L << 39, (1L << 40) - 1};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value < LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value >= LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+        assertEquals(bounds.length - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(10000);
+        }
+        histogram.record(50000000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(99 * 10000L + 50000000L, histogram.getTotalTime());
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(p50 > 10000 && p50 <= 12500);
+        assertEquals(p50, histogram.getPercentile(0.99));
+        long p999 = histogram.getPercentile(0.999);
+        assertTrue(p999 > 50000000 && p999 <= 62500000);
+        assertEquals(p999, histogram.getPercentile(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongQuantile() {
+        new LatencyHistogram().getPercentile(1.5);
+    }
+}
@@ -19,6 +19,10 @@ public class Main {
         }
     });
 
+    static {
+        ssf.getConfig().setPrincipalContext(true);
+    }
+
     public static void main(String[] args) throws Throwable {
         // Create and install a security manager
         if (System.getSecurityManager() == null) {
@@ -4,6 +4,7 @@ import java.rmi.RemoteException;
 import java.rmi.server.RMIClientSocketFactory;
 import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
+import com.rmi.auth.AuthContext;
 import com.test.rmi.TestController;
 
 /**
@@ -20,7 +21,8 @@ public class TestControllerRmiImpl extends UnicastRemoteObject implements TestCo
 
     @Override
     public String f() throws RemoteException {
-        return "Success";
+        // Login of the connection carrying this call, no re-authentication
+        return "Success: " + AuthContext.getLogin();
     }
 
 }